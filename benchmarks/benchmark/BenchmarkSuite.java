@@ -0,0 +1,11 @@
+package benchmark;
+
+// Runs every benchmark that is not a JMH benchmark with its default parameters; use
+// -Dbenchmark.results=<file> to keep the JSON results for comparison with a previous run.
+// java -jar benchmarks.jar runs the JMH ones.
+public class BenchmarkSuite {
+    public static void main(String[] args) throws Exception {
+        SketchBenchmark.main(new String[0]);
+        StartupBenchmark.main(new String[0]);
+    }
+}
@@ -0,0 +1,53 @@
+package benchmark;
+
+import detection.RuleBasedDetector;
+import logparsing.LogParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Compares the indexed rule engine with the original linear loop over growing rule sets; the
+// score is events/sec
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectorBenchmark {
+    private static final int EVENTS = 10000;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int ruleCount;
+
+    @Param({"0.1"})
+    public double thresholdRatio;
+
+    @Param({"linear", "indexed"})
+    public String engine;
+
+    private List<Map<String, String>> events;
+    private RuleBasedDetector detector;
+
+    @Setup
+    public void setUp() {
+        LogParser parser = new LogParser();
+        events = new ArrayList<>();
+        for (String line : LogGenerator.lines(EVENTS, ruleCount, new Random(42))) {
+            events.add(parser.parseLog(line));
+        }
+        Properties rules = LogGenerator.rules(ruleCount, thresholdRatio, new Random(7));
+        rules.setProperty("detector.engine", engine);
+        detector = new RuleBasedDetector(rules);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void detect(Blackhole blackhole) {
+        for (Map<String, String> event : events) {
+            blackhole.consume(detector.detectSuspiciousActivity(event));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import alerting.AlertingSystem;
+import detection.RuleBasedDetector;
+import logcollection.LogCollector;
+import logparsing.LogParser;
+import org.openjdk.jmh.annotations.*;
+import pipeline.LogPipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Lines/sec through the whole collect -> parse -> detect -> alert pipeline over a generated file.
+// Console alerts are discarded and no alert channels are enabled, so only the pipeline is timed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final int LINES = 100000;
+
+    @Param({"10", "100", "1000"})
+    public int ruleCount;
+
+    private Path file;
+    private Properties collectorProperties;
+    private Properties rules;
+    private LogParser parser;
+    private PrintStream console;
+    private PrintStream discard;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = LogGenerator.writeFile(LINES, ruleCount, new Random(42));
+        collectorProperties = new Properties();
+        collectorProperties.setProperty("log.files", file.toString());
+        rules = LogGenerator.rules(ruleCount, 0.1, new Random(7));
+        parser = new LogParser();
+        console = System.out;
+        discard = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void batchPipeline() throws InterruptedException {
+        RuleBasedDetector detector = new RuleBasedDetector(rules);
+        AlertingSystem alertingSystem = new AlertingSystem(new Properties());
+        LogCollector collector = new LogCollector(collectorProperties);
+        LogPipeline pipeline = new LogPipeline(collector, parser, detector, alertingSystem, new Properties());
+        System.setOut(discard);
+        try {
+            pipeline.run();
+        } finally {
+            System.setOut(console);
+            alertingSystem.shutdown();
+            detector.close();
+            collector.close();
+        }
+    }
+}
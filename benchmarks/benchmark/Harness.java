@@ -0,0 +1,35 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+// Reports the results of the benchmarks that are not JMH ones, such as sketch error and startup
+// time. Each result is printed as one JSON line, and appended to the file named by
+// -Dbenchmark.results if set, so runs from different releases can be diffed or loaded into a
+// tracking tool.
+public class Harness {
+    private static final String RESULTS_FILE = System.getProperty("benchmark.results");
+
+    // params are "key=value,..."
+    public static void report(String name, String params, String unit, double score, double error) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"benchmark\":\"").append(name).append("\",\"params\":{");
+        String[] pairs = params.isEmpty() ? new String[0] : params.split(",");
+        for (int i = 0; i < pairs.length; i++) {
+            String[] pair = pairs[i].split("=", 2);
+            json.append(i > 0 ? "," : "").append('"').append(pair[0]).append("\":\"").append(pair.length > 1 ? pair[1] : "").append('"');
+        }
+        json.append("},\"unit\":\"").append(unit).append("\",\"score\":").append(String.format(Locale.ROOT, "%.3f", score))
+                .append(",\"error\":").append(String.format(Locale.ROOT, "%.3f", error)).append('}');
+        System.out.println(json);
+        if (RESULTS_FILE != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(RESULTS_FILE, true))) {
+                writer.println(json);
+            } catch (IOException e) {
+                System.err.println("Unable to write benchmark results to " + RESULTS_FILE + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import logcollection.SyslogListener;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loopback load test for SyslogListener: many concurrent TCP senders, half newline-framed and
+// half octet-counted, plus a UDP sender; checks every message arrives and reports messages/sec
+public class ListenerLoadGenerator {
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int linesPerSender = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int udpLines = 10000;
+
+        Properties properties = new Properties();
+        properties.setProperty("log.listen.tcp", "127.0.0.1:0");
+        properties.setProperty("log.listen.udp", "127.0.0.1:0");
+        SyslogListener listener = new SyslogListener(properties);
+        AtomicLong received = new AtomicLong();
+        Thread listenerThread = new Thread(() -> {
+            try {
+                listener.listen((source, line) -> received.incrementAndGet());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        listenerThread.start();
+        while (listener.getBoundAddresses().size() < 2) {
+            Thread.sleep(10);
+        }
+        SocketAddress tcpAddress = listener.getBoundAddresses().get(0);
+        SocketAddress udpAddress = listener.getBoundAddresses().get(1);
+
+        long start = System.nanoTime();
+        List<SocketChannel> channels = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            channels.add(SocketChannel.open(tcpAddress));
+        }
+        for (int line = 0; line < linesPerSender; line++) {
+            for (int i = 0; i < senders; i++) {
+                String message = "2024-07-18T10:00:00 ERROR Failed login attempt for user user" + i + " seq " + line;
+                String frame = i % 2 == 0 ? message + "\n" : message.length() + " " + message;
+                ByteBuffer buffer = ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channels.get(i).write(buffer);
+                }
+            }
+        }
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        try (DatagramChannel datagram = DatagramChannel.open()) {
+            for (int i = 0; i < udpLines; i++) {
+                datagram.send(ByteBuffer.wrap(("2024-07-18T10:00:00 INFO udp message " + i).getBytes(StandardCharsets.UTF_8)), udpAddress);
+            }
+        }
+
+        long expected = (long) senders * linesPerSender;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        listener.stop();
+        listenerThread.join();
+
+        // UDP is lossy by design, so only the TCP count has to be exact
+        System.out.printf("listener\tsenders=%d\t%.1f msgs/s\treceived=%d\texpectedTcp=%d\tudpSent=%d%n",
+                senders, received.get() / seconds, received.get(), expected, udpLines);
+    }
+}
@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+// Synthetic logs and rule sets shared by the benchmarks. Lines use both LogParser formats
+// (plain and with a [userId]), and messages reuse the signatures the generated rules look for.
+public class LogGenerator {
+    static final String[] LEVELS = {"INFO", "WARN", "ERROR", "DEBUG"};
+    static final String[] WORDS = {"login", "logout", "backup", "session", "token", "request", "connection", "disk"};
+
+    public static List<String> lines(int count, int signatures, Random random) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String timestamp = String.format("2024-07-%02dT%02d:%02d:%02d",
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            String level = LEVELS[random.nextInt(LEVELS.length)];
+            String message = "sig" + random.nextInt(Math.max(1, signatures * 2)) + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " failed for user user" + random.nextInt(100) + " from 10.0.0." + random.nextInt(256);
+            lines.add(random.nextBoolean()
+                    ? timestamp + " " + level + " " + message
+                    : timestamp + " " + level + " [user" + random.nextInt(100) + "] " + message);
+        }
+        return lines;
+    }
+
+    public static Path writeFile(int count, int signatures, Random random) throws IOException {
+        Path file = Files.createTempFile("ids-benchmark", ".log");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String line : lines(count, signatures, random)) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    // thresholdRatio of the rules become threshold rules; every fifth rule has no literal the
+    // rule index can use, so it always runs its regex
+    public static Properties rules(int count, double thresholdRatio, Random random) {
+        Properties properties = new Properties();
+        int thresholdEvery = thresholdRatio <= 0 ? Integer.MAX_VALUE : (int) Math.round(1 / thresholdRatio);
+        for (int i = 1; i <= count; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            String level = LEVELS[random.nextInt(LEVELS.length)];
+            boolean threshold = i % thresholdEvery == 0;
+            String prefix = (threshold ? "threshold" : "rule") + i + ".";
+            properties.setProperty(prefix + "logLevel", level);
+            properties.setProperty(prefix + "messagePattern", i % 5 == 0
+                    ? "(" + word + "|sig" + i + ") \\w+ failed"
+                    : "sig" + i + " " + word + " failed for user \\w+");
+            properties.setProperty(prefix + "description", "Signature " + i);
+            if (threshold) {
+                properties.setProperty(prefix + "threshold", "5");
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import logparsing.LogParser;
+import logparsing.LogRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Lines/sec of the map-based parser and the reusable-record parser. With the GC profiler
+// (-prof gc, or this class's main), gc.alloc.rate.norm is the bytes allocated per line.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    private static final int LINES = 10000;
+
+    private LogParser parser;
+    private List<String> lines;
+    private LogRecord record;
+
+    @Setup
+    public void setUp() {
+        parser = new LogParser();
+        lines = LogGenerator.lines(LINES, 100, new Random(42));
+        record = new LogRecord();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseMap(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(parser.parseLog(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseRecord(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(parser.parseLog(line, record));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParserBenchmark.class.getName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+package benchmark;
+
+import detection.RuleBasedDetector;
+import sketch.CountMinSketch;
+import sketch.HyperLogLog;
+import sketch.SpaceSaving;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// Measured error and memory of the sketches behind the distinct and heavy-hitter rules,
+// against exact counts on the same streams
+public class SketchBenchmark {
+    public static void main(String[] args) {
+        hyperLogLogError();
+        countMinError();
+        spaceSavingRecall();
+        detectorHeap();
+    }
+
+    // Mean and worst relative error of the distinct-count estimate over 20 independent streams
+    private static void hyperLogLogError() {
+        for (int precision : new int[]{10, 12, 14}) {
+            for (int cardinality : new int[]{1000, 100000, 1000000}) {
+                double sumError = 0;
+                double maxError = 0;
+                for (int trial = 0; trial < 20; trial++) {
+                    HyperLogLog sketch = new HyperLogLog(precision);
+                    for (int i = 0; i < cardinality; i++) {
+                        sketch.add("value-" + trial + "-" + i);
+                    }
+                    double error = Math.abs(sketch.estimate() - cardinality) / (double) cardinality;
+                    sumError += error;
+                    maxError = Math.max(maxError, error);
+                }
+                String params = "precision=" + precision + ",cardinality=" + cardinality + ",bytes=" + (1 << precision);
+                Harness.report("sketch.hll.meanRelativeError", params, "ratio", sumError / 20, 1.04 / Math.sqrt(1 << precision));
+                Harness.report("sketch.hll.maxRelativeError", params, "ratio", maxError, 0);
+            }
+        }
+    }
+
+    // Overestimates on a Zipf stream, against the epsilon * N bound the sketch promises
+    private static void countMinError() {
+        int events = 1_000_000;
+        List<String> stream = zipfStream(events, 100_000, new Random(42));
+        Map<String, Long> exact = new HashMap<>();
+        for (double epsilon : new double[]{0.01, 0.001, 0.0001}) {
+            CountMinSketch sketch = new CountMinSketch(epsilon, 0.99);
+            exact.clear();
+            for (String key : stream) {
+                sketch.add(key);
+                exact.merge(key, 1L, Long::sum);
+            }
+            long bound = (long) (epsilon * events);
+            long maxOver = 0;
+            long overBound = 0;
+            for (Map.Entry<String, Long> entry : exact.entrySet()) {
+                long over = sketch.estimate(entry.getKey()) - entry.getValue();
+                maxOver = Math.max(maxOver, over);
+                if (over > bound) {
+                    overBound++;
+                }
+            }
+            String params = "epsilon=" + epsilon + ",events=" + events + ",bytes=" + sketch.memoryBytes();
+            Harness.report("sketch.countMin.maxOverestimate", params, "events", maxOver, bound);
+            Harness.report("sketch.countMin.keysOverBound", params, "ratio", overBound / (double) exact.size(), 0.01);
+        }
+    }
+
+    // Share of the true top 10 that Space-Saving reports in its top 10
+    private static void spaceSavingRecall() {
+        List<String> stream = zipfStream(1_000_000, 100_000, new Random(7));
+        Map<String, Long> exact = new HashMap<>();
+        for (String key : stream) {
+            exact.merge(key, 1L, Long::sum);
+        }
+        Set<String> trueTop = new HashSet<>();
+        exact.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(10)
+                .forEach(entry -> trueTop.add(entry.getKey()));
+        for (int capacity : new int[]{10, 100, 1000}) {
+            SpaceSaving sketch = new SpaceSaving(capacity);
+            for (String key : stream) {
+                sketch.add(key);
+            }
+            long found = sketch.top(10).stream().filter(entry -> trueTop.contains(entry.getKey())).count();
+            Harness.report("sketch.spaceSaving.top10Recall", "capacity=" + capacity + ",bytes=" + sketch.memoryBytes(),
+                    "ratio", found / 10.0, 0);
+        }
+    }
+
+    // Heap retained by a detector with one distinct and one heavy-hitter rule after a million
+    // distinct groups and keys: it stays at the configured bound however many keys arrive
+    private static void detectorHeap() {
+        Properties rules = new Properties();
+        rules.setProperty("distinct1.logLevel", "ERROR");
+        rules.setProperty("distinct1.messagePattern", "failed");
+        rules.setProperty("distinct1.description", "Many users from one address");
+        rules.setProperty("distinct1.groupBy", "clientIp");
+        rules.setProperty("distinct1.field", "userId");
+        rules.setProperty("distinct1.threshold", "50");
+        rules.setProperty("distinct1.maxGroups", "1000");
+        rules.setProperty("heavyHitter2.logLevel", "ERROR");
+        rules.setProperty("heavyHitter2.messagePattern", "failed");
+        rules.setProperty("heavyHitter2.description", "Top talker");
+        rules.setProperty("heavyHitter2.groupBy", "clientIp");
+        rules.setProperty("heavyHitter2.threshold", "1000");
+        for (int keys : new int[]{10_000, 1_000_000}) {
+            long before = usedHeap();
+            RuleBasedDetector detector = new RuleBasedDetector(rules);
+            Map<String, String> event = new HashMap<>();
+            event.put("logLevel", "ERROR");
+            event.put("message", "login failed");
+            for (int i = 0; i < keys; i++) {
+                event.put("clientIp", "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255));
+                event.put("userId", "user" + i);
+                detector.detectSuspiciousActivity(event);
+            }
+            long retained = usedHeap() - before;
+            Harness.report("sketch.detector.retainedHeap", "keys=" + keys, "bytes", retained, 0);
+            Harness.report("sketch.detector.sketchMemory", "keys=" + keys, "bytes", detector.getSketchMemoryBytes(), 0);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Keys drawn with probability proportional to 1 / rank
+    private static List<String> zipfStream(int events, int keys, Random random) {
+        double[] cumulative = new double[keys];
+        double total = 0;
+        for (int i = 0; i < keys; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        List<String> stream = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            stream.add("key" + (index < 0 ? -index - 1 : index));
+        }
+        return stream;
+    }
+}
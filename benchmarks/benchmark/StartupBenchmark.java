@@ -0,0 +1,103 @@
+package benchmark;
+
+import config.ConfigCompiler;
+import config.ConfigSnapshot;
+import detection.RuleBasedDetector;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Cold-start cost of a short-lived run. Every sample is a fresh JVM that builds the detector for
+// a generated rule set, either from rules.properties or from a config snapshot, and the score is
+// the time from launching it until the detector is ready. -Dbenchmark.jvmArgs passes flags to
+// those JVMs, e.g. "-XX:SharedArchiveFile=ids.jsa -XX:TieredStopAtLevel=1"
+//   java benchmark.StartupBenchmark [ruleCounts] [runs]
+public class StartupBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--child")) {
+            child(args[1], Paths.get(args[2]));
+            return;
+        }
+        int[] ruleCounts = args.length > 0
+                ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10000};
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path directory = Files.createTempDirectory("ids-startup");
+        Path rulesFile = directory.resolve("rules.properties");
+        Path snapshotFile = directory.resolve("ids.snapshot");
+        try {
+            for (int ruleCount : ruleCounts) {
+                Properties rules = LogGenerator.rules(ruleCount, 0.1, new Random(7));
+                try (OutputStream output = Files.newOutputStream(rulesFile)) {
+                    rules.store(output, null);
+                }
+                ByteArrayOutputStream compiledRules = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(compiledRules);
+                new RuleBasedDetector(rules).writeCompiledRules(output);
+                output.flush();
+                ConfigSnapshot.write(snapshotFile, Collections.singletonMap("rules", rules),
+                        Collections.singletonMap(ConfigCompiler.COMPILED_RULES, compiledRules.toByteArray()));
+                for (String source : new String[]{"properties", "snapshot"}) {
+                    double[] millis = new double[runs];
+                    for (int i = 0; i < runs; i++) {
+                        millis[i] = launch(source, source.equals("snapshot") ? snapshotFile : rulesFile);
+                    }
+                    double mean = Arrays.stream(millis).average().orElse(0);
+                    double variance = Arrays.stream(millis).map(v -> (v - mean) * (v - mean)).sum() / runs;
+                    Harness.report("startup." + source, "rules=" + ruleCount, "ms", mean, Math.sqrt(variance));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(rulesFile);
+            Files.deleteIfExists(snapshotFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Milliseconds from starting the JVM until it reports the detector ready
+    private static double launch(String source, Path file) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmArgs = System.getProperty("benchmark.jvmArgs", "").trim();
+        if (!jvmArgs.isEmpty()) {
+            command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), StartupBenchmark.class.getName(),
+                "--child", source, file.toString()));
+        ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        // JVM warnings, e.g. about an archive that does not match the classpath, also go to stdout
+        String line;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.equals("ready"));
+        }
+        long elapsed = System.nanoTime() - start;
+        if (process.waitFor() != 0 || line == null) {
+            throw new IllegalStateException("Startup run failed: " + String.join(" ", command));
+        }
+        return elapsed / 1e6;
+    }
+
+    private static void child(String source, Path file) throws IOException {
+        RuleBasedDetector detector;
+        if (source.equals("snapshot")) {
+            ConfigSnapshot snapshot = ConfigSnapshot.load(file);
+            detector = new RuleBasedDetector(snapshot.properties("rules"), snapshot.section(ConfigCompiler.COMPILED_RULES));
+        } else {
+            Properties rules = new Properties();
+            try (InputStream input = Files.newInputStream(file)) {
+                rules.load(input);
+            }
+            detector = new RuleBasedDetector(rules);
+        }
+        System.out.println(detector.getRuleCount() > 0 ? "ready" : "no rules");
+    }
+}
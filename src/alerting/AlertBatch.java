@@ -0,0 +1,109 @@
+package alerting;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Collects alerts for one channel between flushes. Identical alerts are coalesced into one line
+// with a count, and each flush sends at most one digest, subject to a per-channel rate limit.
+class AlertBatch {
+    private static final Logger LOGGER = Logger.getLogger(AlertBatch.class.getName());
+    private final String channel;
+    private final DigestSender sender;
+    private final Counter digestsSent;
+    private final int maxDistinctAlerts;
+    private final double digestsPerMinute;
+    private Map<String, Integer> pending;
+    private int pendingCount;
+    private long droppedCount;
+    private double tokens;
+    private long lastRefillNanos;
+
+    AlertBatch(String channel, DigestSender sender, int maxDistinctAlerts, double digestsPerMinute) {
+        this.channel = channel;
+        this.sender = sender;
+        digestsSent = Metrics.counter("ids_alert_digests_total{channel=\"" + channel + "\"}", "Alert digests sent per channel");
+        this.maxDistinctAlerts = maxDistinctAlerts;
+        this.digestsPerMinute = digestsPerMinute;
+        pending = new LinkedHashMap<>();
+        tokens = Math.max(1, digestsPerMinute);
+        lastRefillNanos = System.nanoTime();
+    }
+
+    synchronized void add(String alertMessage) {
+        Integer count = pending.get(alertMessage);
+        if (count == null && pending.size() >= maxDistinctAlerts) {
+            // Bounded: new distinct alerts past the cap are only counted until the next flush
+            droppedCount++;
+            return;
+        }
+        pending.put(alertMessage, count == null ? 1 : count + 1);
+        pendingCount++;
+    }
+
+    synchronized int pendingCount() {
+        return pendingCount;
+    }
+
+    // Sends one digest of everything collected so far, unless the rate limit says to wait;
+    // in that case the alerts stay pending and are merged into the next digest
+    void flush(boolean ignoreRateLimit) {
+        Map<String, Integer> batch;
+        int batchCount;
+        long dropped;
+        synchronized (this) {
+            if (pending.isEmpty() && droppedCount == 0) {
+                return;
+            }
+            if (!ignoreRateLimit && !tryAcquire()) {
+                return;
+            }
+            batch = pending;
+            batchCount = pendingCount;
+            dropped = droppedCount;
+            pending = new LinkedHashMap<>();
+            pendingCount = 0;
+            droppedCount = 0;
+        }
+
+        StringBuilder digest = new StringBuilder();
+        digest.append(batchCount).append(batchCount == 1 ? " alert" : " alerts").append(System.lineSeparator());
+        for (Map.Entry<String, Integer> entry : batch.entrySet()) {
+            if (entry.getValue() > 1) {
+                digest.append(entry.getValue()).append("x ");
+            }
+            digest.append(entry.getKey()).append(System.lineSeparator());
+        }
+        if (dropped > 0) {
+            digest.append(dropped).append(" further alerts not listed").append(System.lineSeparator());
+        }
+        try {
+            sender.send(digest.toString(), batchCount + (int) dropped);
+            digestsSent.increment();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to send " + channel + " alert digest", e);
+        }
+    }
+
+    private boolean tryAcquire() {
+        if (digestsPerMinute <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(Math.max(1, digestsPerMinute), tokens + (now - lastRefillNanos) / 60e9 * digestsPerMinute);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    interface DigestSender {
+        void send(String digest, int alertCount);
+    }
+}
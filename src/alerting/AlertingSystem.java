@@ -1,8 +1,15 @@
 package alerting;
 
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -11,80 +18,143 @@ import javax.mail.internet.*;
 
 public class AlertingSystem {
     private static final Logger LOGGER = Logger.getLogger(AlertingSystem.class.getName());
+    private static final Counter ALERTS_SENT = Metrics.counter("ids_alerts_total", "Alerts handed to the alerting system");
     private Properties properties;
-    private ExecutorService executorService;
+    private ScheduledExecutorService executorService;
+    private List<AlertBatch> batches;
+    private Session mailSession;
+    private Transport transport;
 
     public AlertingSystem() {
-        properties = new Properties();
-        executorService = Executors.newFixedThreadPool(2);
-        loadConfiguration();
+        this(loadConfiguration());
+    }
+
+    public AlertingSystem(Properties properties) {
+        this.properties = properties;
+
+        // One thread flushes every channel, so a burst never queues more than one digest per channel
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        batches = new ArrayList<>();
+        addChannel("email", this::sendEmailAlert);
+        addChannel("sms", this::sendSmsAlert);
+        addChannel("slack", this::sendSlackAlert);
+        long windowSeconds = Long.parseLong(properties.getProperty("alert.batch.windowSeconds", "10"));
+        executorService.scheduleWithFixedDelay(this::flush, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+        Metrics.gauge("ids_alerts_pending", "Alerts waiting for the next digest, across channels", this::getPendingAlertCount);
     }
 
-    private void loadConfiguration() {
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("alerting.properties")) {
+    private static Properties loadConfiguration() {
+        Properties properties = new Properties();
+        try (InputStream input = AlertingSystem.class.getClassLoader().getResourceAsStream("alerting.properties")) {
             if (input == null) {
                 LOGGER.log(Level.SEVERE, "Sorry, unable to find alerting.properties");
-                return;
+                return properties;
             }
             properties.load(input);
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "Error loading configuration", ex);
         }
+        return properties;
+    }
+
+    private void addChannel(String channel, AlertBatch.DigestSender sender) {
+        if (Boolean.parseBoolean(properties.getProperty("alert." + channel + ".enabled", "false"))) {
+            int maxDistinctAlerts = Integer.parseInt(properties.getProperty("alert.batch.maxDistinctAlerts", "100"));
+            double digestsPerMinute = Double.parseDouble(properties.getProperty("alert." + channel + ".maxPerMinute", "6"));
+            batches.add(new AlertBatch(channel, sender, maxDistinctAlerts, digestsPerMinute));
+        }
     }
 
     public void sendAlert(String alertMessage) {
         // Print to console
         System.out.println("ALERT: " + alertMessage);
+        ALERTS_SENT.increment();
 
-        // Send email alert
-        if (Boolean.parseBoolean(properties.getProperty("alert.email.enabled", "false"))) {
-            executorService.submit(() -> sendEmailAlert(alertMessage));
+        // Email, SMS and Slack alerts are coalesced and sent as digests by the flush task
+        for (AlertBatch batch : batches) {
+            batch.add(alertMessage);
         }
+    }
 
-        // Send SMS alert
-        if (Boolean.parseBoolean(properties.getProperty("alert.sms.enabled", "false"))) {
-            executorService.submit(() -> sendSmsAlert(alertMessage));
+    // Alerts waiting for the next digest, across all channels
+    public int getPendingAlertCount() {
+        int pending = 0;
+        for (AlertBatch batch : batches) {
+            pending += batch.pendingCount();
         }
+        return pending;
+    }
 
-        // Send Slack alert
-        if (Boolean.parseBoolean(properties.getProperty("alert.slack.enabled", "false"))) {
-            executorService.submit(() -> sendSlackAlert(alertMessage));
+    private void flush() {
+        for (AlertBatch batch : batches) {
+            batch.flush(false);
         }
     }
 
-    private void sendEmailAlert(String alertMessage) {
+    private void sendEmailAlert(String digest, int alertCount) {
         String to = properties.getProperty("alert.email.to");
         String from = properties.getProperty("alert.email.from");
-        String host = properties.getProperty("alert.email.smtp.host");
         String subject = properties.getProperty("alert.email.subject", "IDS Alert");
 
-        Properties mailProperties = System.getProperties();
-        mailProperties.setProperty("mail.smtp.host", host);
-
-        Session session = Session.getDefaultInstance(mailProperties);
-
         try {
-            MimeMessage message = new MimeMessage(session);
+            MimeMessage message = new MimeMessage(getMailSession());
             message.setFrom(new InternetAddress(from));
             message.addRecipient(Message.RecipientType.TO, new InternetAddress(to));
-            message.setSubject(subject);
-            message.setText(alertMessage);
-
-            Transport.send(message);
+            message.setSubject(alertCount == 1 ? subject : subject + " (" + alertCount + " alerts)");
+            message.setText(digest);
+            message.saveChanges();
+
+            // Reuse one SMTP connection across digests; reconnect once if the server dropped it
+            try {
+                getTransport().sendMessage(message, message.getAllRecipients());
+            } catch (MessagingException e) {
+                closeTransport();
+                getTransport().sendMessage(message, message.getAllRecipients());
+            }
             LOGGER.log(Level.INFO, "Sent email successfully.");
         } catch (MessagingException mex) {
+            closeTransport();
             LOGGER.log(Level.SEVERE, "Failed to send email", mex);
         }
     }
 
-    private void sendSmsAlert(String alertMessage) {
+    private Session getMailSession() {
+        if (mailSession == null) {
+            Properties mailProperties = new Properties();
+            mailProperties.setProperty("mail.smtp.host", properties.getProperty("alert.email.smtp.host"));
+            mailProperties.setProperty("mail.smtp.port", properties.getProperty("alert.email.smtp.port", "25"));
+            mailSession = Session.getInstance(mailProperties);
+        }
+        return mailSession;
+    }
+
+    private Transport getTransport() throws MessagingException {
+        if (transport == null || !transport.isConnected()) {
+            transport = getMailSession().getTransport("smtp");
+            transport.connect();
+        }
+        return transport;
+    }
+
+    private void closeTransport() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.log(Level.FINE, "Error closing SMTP connection", e);
+            }
+            transport = null;
+        }
+    }
+
+    private void sendSmsAlert(String digest, int alertCount) {
         // Implement SMS alert logic here
-        LOGGER.log(Level.INFO, "Sent SMS alert: " + alertMessage);
+        LOGGER.log(Level.INFO, "Sent SMS alert: " + digest);
     }
 
-    private void sendSlackAlert(String alertMessage) {
+    private void sendSlackAlert(String digest, int alertCount) {
         // Implement Slack alert logic here
-        LOGGER.log(Level.INFO, "Sent Slack alert: " + alertMessage);
+        LOGGER.log(Level.INFO, "Sent Slack alert: " + digest);
     }
 
     public void shutdown() {
@@ -96,6 +166,11 @@ public class AlertingSystem {
         } catch (InterruptedException e) {
             executorService.shutdownNow();
         }
+        // Deliver whatever is still pending, ignoring the rate limit this once
+        for (AlertBatch batch : batches) {
+            batch.flush(true);
+        }
+        closeTransport();
         LOGGER.log(Level.INFO, "Alerting system shutdown completed.");
     }
 }
@@ -0,0 +1,449 @@
+package cluster;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// One IDS process in cluster mode. Every event is routed by its shard key to the node that owns
+// the key's partition in the current ClusterView: events this node owns are delivered locally,
+// the rest are forwarded over one TCP connection per peer. All events of a key therefore meet
+// in one detector, so threshold, window and sequence state stays exact however many nodes
+// collect them, and per-key order is kept because each connection is one ordered stream.
+public class ClusterNode {
+    private static final Logger LOGGER = Logger.getLogger(ClusterNode.class.getName());
+    private static final Counter EVENTS_FORWARDED = Metrics.counter("ids_cluster_events_forwarded_total", "Events sent to the node that owns their key");
+    private static final Counter EVENTS_RECEIVED = Metrics.counter("ids_cluster_events_received_total", "Events received from other nodes");
+    private static final Counter FORWARD_FAILURES = Metrics.counter("ids_cluster_forward_failures_total",
+            "Events detected locally because the node that owns their key was unreachable");
+
+    private final Member self;
+    private final InetSocketAddress coordinatorAddress;
+    private final Delivery delivery;
+    private final int minNodes;
+    private final long joinTimeoutMillis;
+    private final long finishTimeoutMillis;
+    private final long flushMillis;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    // Guarded by this: the peers that sent END, and those this node sent END to
+    private final Set<String> finishedPeers = new HashSet<>();
+    private final Set<String> endSent = new HashSet<>();
+    private volatile ClusterView view;
+    private volatile boolean finishing;
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+    private volatile Socket coordinatorSocket;
+    private DataOutputStream coordinatorOutput;
+    private ScheduledExecutorService timer;
+
+    // Receives the events this node owns, both its own and those forwarded to it, from the
+    // routing thread and from one thread per peer
+    public interface Delivery {
+        void deliver(String source, Map<String, String> event) throws InterruptedException;
+    }
+
+    // cluster.coordinator is required; see the README for the other cluster.* settings
+    public ClusterNode(Properties properties, Delivery delivery) {
+        String host = properties.getProperty("cluster.host", "127.0.0.1");
+        int port = Integer.parseInt(properties.getProperty("cluster.port", "7100"));
+        self = new Member(properties.getProperty("cluster.nodeId", host + ":" + port), host, port);
+        coordinatorAddress = Coordinator.parseAddress(properties.getProperty("cluster.coordinator"), "127.0.0.1");
+        this.delivery = delivery;
+        minNodes = Integer.parseInt(properties.getProperty("cluster.minNodes", "1"));
+        joinTimeoutMillis = Long.parseLong(properties.getProperty("cluster.joinTimeoutSeconds", "30")) * 1000;
+        finishTimeoutMillis = Long.parseLong(properties.getProperty("cluster.finishTimeoutSeconds", "60")) * 1000;
+        flushMillis = Long.parseLong(properties.getProperty("cluster.flushMillis", "10"));
+        view = new ClusterView(0, Collections.singletonList(self));
+    }
+
+    // Starts taking forwarded events, joins the cluster and returns once the coordinator has
+    // included this node in a membership of at least cluster.minNodes nodes. A batch run should
+    // wait for all its nodes, or keys would move, and their state split, as the rest join.
+    public void start() throws IOException, InterruptedException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(self.getHost(), self.getPort()));
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(this::heartbeat, ClusterProtocol.HEARTBEAT_MILLIS, ClusterProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        startDaemon("cluster-accept", this::acceptPeers);
+        startDaemon("cluster-coordinator", this::followCoordinator);
+        Metrics.gauge("ids_cluster_epoch", "Epoch of the membership this node routes by", () -> view.getEpoch());
+        Metrics.gauge("ids_cluster_partitions_owned", "Partitions of the key space this node owns",
+                () -> view.partitionsOwnedBy(self.getNodeId()));
+
+        long deadline = System.currentTimeMillis() + joinTimeoutMillis;
+        synchronized (this) {
+            while (view.getEpoch() == 0 || view.getMember(self.getNodeId()) == null || view.getMembers().size() < minNodes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    close();
+                    throw new IOException("No membership of at least " + minNodes + " nodes including this one from "
+                            + coordinatorAddress + " within " + joinTimeoutMillis / 1000 + " s");
+                }
+                wait(remaining);
+            }
+        }
+    }
+
+    public Member getSelf() {
+        return self;
+    }
+
+    public ClusterView getView() {
+        return view;
+    }
+
+    // Delivers the event here if this node owns the key, else forwards it to the owner. When the
+    // owner cannot be reached the event is detected here instead of being lost; its key's state
+    // is then split until the coordinator drops the unreachable node.
+    public void route(String key, String source, Map<String, String> event) throws InterruptedException {
+        Member owner = view.ownerOf(key);
+        if (owner == null || owner.getNodeId().equals(self.getNodeId())) {
+            delivery.deliver(source, event);
+            return;
+        }
+        if (peer(owner).send(source, event)) {
+            EVENTS_FORWARDED.increment();
+        } else {
+            FORWARD_FAILURES.increment();
+            delivery.deliver(source, event);
+        }
+    }
+
+    // Ends a batch run: tells every other member that this node has routed all its events, then
+    // waits until each of them has said the same, so no forwarded event can arrive afterwards.
+    // Members that leave meanwhile are not waited for.
+    public void finish() throws InterruptedException {
+        finishing = true;
+        sendEnds(view);
+        long deadline = System.currentTimeMillis() + finishTimeoutMillis;
+        synchronized (this) {
+            List<String> waitingFor;
+            while (!closed && !(waitingFor = unfinishedPeers()).isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    LOGGER.log(Level.WARNING, "Stopped waiting for nodes to finish: " + waitingFor);
+                    return;
+                }
+                wait(remaining);
+            }
+        }
+    }
+
+    private synchronized List<String> unfinishedPeers() {
+        List<String> unfinished = new ArrayList<>();
+        for (Member member : view.getMembers()) {
+            if (!member.equals(self) && !finishedPeers.contains(member.getNodeId())) {
+                unfinished.add(member.getNodeId());
+            }
+        }
+        return unfinished;
+    }
+
+    private void sendEnds(ClusterView target) {
+        for (Member member : target.getMembers()) {
+            if (member.equals(self)) {
+                continue;
+            }
+            synchronized (this) {
+                if (!endSent.add(member.getNodeId())) {
+                    continue;
+                }
+            }
+            if (!peer(member).sendEnd()) {
+                LOGGER.log(Level.WARNING, "Could not tell " + member + " that this node has finished");
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        closeQuietly(serverSocket);
+        closeQuietly(coordinatorSocket);
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+        peers.clear();
+    }
+
+    private Peer peer(Member member) {
+        Peer peer = peers.computeIfAbsent(member.getNodeId(), id -> new Peer(member));
+        if (!peer.member.equals(member)) {
+            // The node came back on another address
+            peer.close();
+            peers.remove(member.getNodeId(), peer);
+            return peer(member);
+        }
+        return peer;
+    }
+
+    private void flush() {
+        for (Peer peer : peers.values()) {
+            peer.flush();
+        }
+    }
+
+    private void setView(ClusterView next) {
+        synchronized (this) {
+            view = next;
+            notifyAll();
+        }
+        // Connections to nodes that left are closed; their partitions now route elsewhere
+        for (Peer peer : peers.values()) {
+            if (!peer.member.equals(next.getMember(peer.member.getNodeId()))) {
+                peers.remove(peer.member.getNodeId(), peer);
+                peer.close();
+            }
+        }
+        if (finishing) {
+            sendEnds(next);
+        }
+        LOGGER.log(Level.INFO, "Cluster membership " + next + "; " + self.getNodeId() + " owns "
+                + next.partitionsOwnedBy(self.getNodeId()) + " of " + ClusterView.PARTITIONS + " partitions");
+    }
+
+    // Keeps one connection to the coordinator for membership updates and reconnects, rejoining,
+    // whenever it is lost; routing carries on with the last membership meanwhile
+    private void followCoordinator() {
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                socket.connect(coordinatorAddress, ClusterProtocol.MEMBER_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                synchronized (output) {
+                    output.writeByte(ClusterProtocol.JOIN);
+                    ClusterProtocol.writeMember(output, self);
+                    output.flush();
+                }
+                coordinatorOutput = output;
+                coordinatorSocket = socket;
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    int type = input.readUnsignedByte();
+                    if (type != ClusterProtocol.MEMBERSHIP) {
+                        throw new IOException("Unexpected frame " + type + " from the coordinator");
+                    }
+                    setView(ClusterProtocol.readMembership(input));
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "Lost the coordinator at " + coordinatorAddress + ", retrying: " + e);
+            } finally {
+                coordinatorOutput = null;
+            }
+            try {
+                Thread.sleep(ClusterProtocol.HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void heartbeat() {
+        DataOutputStream output = coordinatorOutput;
+        if (output == null) {
+            return;
+        }
+        try {
+            synchronized (output) {
+                output.writeByte(ClusterProtocol.HEARTBEAT);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // The coordinator thread sees the broken connection and reconnects
+            closeQuietly(coordinatorSocket);
+        }
+    }
+
+    private void acceptPeers() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                startDaemon("cluster-receive-" + socket.getRemoteSocketAddress(), () -> receive(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(Level.SEVERE, "Error accepting peer connection", e);
+                }
+            }
+        }
+    }
+
+    // Delivers the events of one peer in the order it sent them
+    private void receive(Socket socket) {
+        String peerId = null;
+        try (socket) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            if (input.readUnsignedByte() != ClusterProtocol.HELLO) {
+                throw new IOException("Expected HELLO from " + socket.getRemoteSocketAddress());
+            }
+            peerId = ClusterProtocol.readString(input);
+            while (!closed) {
+                int type = input.readUnsignedByte();
+                if (type == ClusterProtocol.EVENT) {
+                    Map<String, String> event = new HashMap<>();
+                    String source = ClusterProtocol.readEvent(input, event);
+                    EVENTS_RECEIVED.increment();
+                    delivery.deliver(source, event);
+                } else if (type == ClusterProtocol.END) {
+                    synchronized (this) {
+                        finishedPeers.add(peerId);
+                        notifyAll();
+                    }
+                } else {
+                    throw new IOException("Unexpected frame " + type + " from " + peerId);
+                }
+            }
+        } catch (EOFException e) {
+            // The peer closed the connection
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.log(Level.WARNING, "Lost connection from " + (peerId != null ? peerId : socket.getRemoteSocketAddress()) + ": " + e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing cluster connection", e);
+            }
+        }
+    }
+
+    // The outgoing connection to one peer, opened on first use. Writes are buffered and flushed
+    // every flushMillis, so events travel in batches; a full buffer flushes early, and a peer
+    // that cannot keep up makes the routing thread wait, like a full pipeline queue.
+    private class Peer {
+        private static final long RECONNECT_MILLIS = 1000;
+        private final Member member;
+        private Socket socket;
+        private DataOutputStream output;
+        private long reconnectAfter;
+
+        Peer(Member member) {
+            this.member = member;
+        }
+
+        synchronized boolean send(String source, Map<String, String> event) {
+            if (!connect()) {
+                return false;
+            }
+            try {
+                ClusterProtocol.writeEvent(output, source, event);
+                return true;
+            } catch (IOException e) {
+                disconnect(e);
+                return false;
+            }
+        }
+
+        synchronized boolean sendEnd() {
+            if (!connect()) {
+                return false;
+            }
+            try {
+                output.writeByte(ClusterProtocol.END);
+                output.flush();
+                return true;
+            } catch (IOException e) {
+                disconnect(e);
+                return false;
+            }
+        }
+
+        synchronized void flush() {
+            if (output != null) {
+                try {
+                    output.flush();
+                } catch (IOException e) {
+                    disconnect(e);
+                }
+            }
+        }
+
+        // Failed connects are not retried for RECONNECT_MILLIS, so an unreachable peer costs
+        // one attempt per second rather than one per event
+        private boolean connect() {
+            if (output != null) {
+                return true;
+            }
+            if (System.currentTimeMillis() < reconnectAfter) {
+                return false;
+            }
+            try {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(member.getHost(), member.getPort()), ClusterProtocol.MEMBER_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                output.writeByte(ClusterProtocol.HELLO);
+                ClusterProtocol.writeString(output, self.getNodeId());
+                return true;
+            } catch (IOException e) {
+                disconnect(e);
+                return false;
+            }
+        }
+
+        private void disconnect(IOException cause) {
+            if (!closed) {
+                LOGGER.log(Level.WARNING, "Connection to " + member + " failed: " + cause);
+            }
+            closeQuietly(socket);
+            socket = null;
+            output = null;
+            reconnectAfter = System.currentTimeMillis() + RECONNECT_MILLIS;
+        }
+
+        synchronized void close() {
+            flush();
+            closeQuietly(socket);
+            socket = null;
+            output = null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Wire format shared by the coordinator and the nodes, over plain TCP streams. Every frame is a
+// one-byte type and its body; strings are a varint length and UTF-8, and event fields that every
+// format produces are sent as a one-byte key id instead of their name.
+//   Node to coordinator: JOIN nodeId host port, then HEARTBEAT every HEARTBEAT_MILLIS.
+//   Coordinator to node: MEMBERSHIP epoch count (nodeId host port)*, on every change.
+//   Node to node: HELLO nodeId, then EVENT source fieldCount (key value)* frames, and END
+//   once the sender has no more events (end of a batch run).
+final class ClusterProtocol {
+    static final int JOIN = 1;
+    static final int HEARTBEAT = 2;
+    static final int MEMBERSHIP = 3;
+    static final int HELLO = 4;
+    static final int EVENT = 5;
+    static final int END = 6;
+
+    static final int HEARTBEAT_MILLIS = 1000;
+    // A node that has not been heard from for this long is taken out of the membership
+    static final int MEMBER_TIMEOUT_MILLIS = 5000;
+
+    private static final String[] KNOWN_KEYS = {"timestamp", "logLevel", "userId", "message", "host", "program",
+            "clientIp", "status", "epochMillis"};
+    private static final int CUSTOM_KEY = 0xFF;
+    private static final Map<String, Integer> KEY_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KEY_IDS.put(KNOWN_KEYS[i], i);
+        }
+    }
+
+    private ClusterProtocol() {
+    }
+
+    static void writeEvent(DataOutput output, String source, Map<String, String> event) throws IOException {
+        output.writeByte(EVENT);
+        writeString(output, source);
+        writeVarInt(output, event.size());
+        for (Map.Entry<String, String> field : event.entrySet()) {
+            Integer keyId = KEY_IDS.get(field.getKey());
+            if (keyId != null) {
+                output.writeByte(keyId);
+            } else {
+                output.writeByte(CUSTOM_KEY);
+                writeString(output, field.getKey());
+            }
+            writeString(output, field.getValue());
+        }
+    }
+
+    // Reads the body of an EVENT frame into event and returns the source
+    static String readEvent(DataInput input, Map<String, String> event) throws IOException {
+        String source = readString(input);
+        int fieldCount = readVarInt(input);
+        for (int i = 0; i < fieldCount; i++) {
+            int keyId = input.readUnsignedByte();
+            String key = keyId == CUSTOM_KEY ? readString(input) : KNOWN_KEYS[keyId];
+            event.put(key, readString(input));
+        }
+        return source;
+    }
+
+    static void writeMember(DataOutput output, Member member) throws IOException {
+        writeString(output, member.getNodeId());
+        writeString(output, member.getHost());
+        writeVarInt(output, member.getPort());
+    }
+
+    static Member readMember(DataInput input) throws IOException {
+        return new Member(readString(input), readString(input), readVarInt(input));
+    }
+
+    static void writeMembership(DataOutput output, ClusterView view) throws IOException {
+        output.writeByte(MEMBERSHIP);
+        output.writeLong(view.getEpoch());
+        writeVarInt(output, view.getMembers().size());
+        for (Member member : view.getMembers()) {
+            writeMember(output, member);
+        }
+    }
+
+    static ClusterView readMembership(DataInput input) throws IOException {
+        long epoch = input.readLong();
+        int count = readVarInt(input);
+        List<Member> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            members.add(readMember(input));
+        }
+        return new ClusterView(epoch, members);
+    }
+
+    // The length is sent plus one, so that 0 can stand for null
+    static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input) throws IOException {
+        int length = readVarInt(input);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint");
+    }
+}
@@ -0,0 +1,90 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// An immutable membership and the partition owners it implies. Keys hash to one of PARTITIONS
+// partitions, and each partition goes to the member with the highest hash of (node ID,
+// partition) (rendezvous hashing). Every node computes the same owners from the same members,
+// and a join or leave only moves the partitions the joining or leaving node wins or held.
+public class ClusterView {
+    static final int PARTITIONS = 1024;
+
+    private final long epoch;
+    private final List<Member> members;
+    private final Member[] owners;
+
+    public ClusterView(long epoch, List<Member> members) {
+        this.epoch = epoch;
+        List<Member> sorted = new ArrayList<>(members);
+        sorted.sort(Comparator.comparing(Member::getNodeId));
+        this.members = Collections.unmodifiableList(sorted);
+        owners = new Member[PARTITIONS];
+        long[] nodeHashes = new long[sorted.size()];
+        for (int i = 0; i < nodeHashes.length; i++) {
+            nodeHashes[i] = mix(sorted.get(i).getNodeId().hashCode());
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            long best = 0;
+            for (int i = 0; i < nodeHashes.length; i++) {
+                long weight = mix(nodeHashes[i] ^ partition);
+                if (owners[partition] == null || Long.compareUnsigned(weight, best) > 0) {
+                    owners[partition] = sorted.get(i);
+                    best = weight;
+                }
+            }
+        }
+    }
+
+    // Increases with every membership change the coordinator makes
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // Sorted by node ID
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    public Member getMember(String nodeId) {
+        for (Member member : members) {
+            if (member.getNodeId().equals(nodeId)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    // The member that owns the key's partition; null only when there are no members
+    public Member ownerOf(String key) {
+        int hash = key == null ? 0 : key.hashCode();
+        return owners[Math.floorMod(hash ^ (hash >>> 16), PARTITIONS)];
+    }
+
+    public int partitionsOwnedBy(String nodeId) {
+        int count = 0;
+        for (Member owner : owners) {
+            if (owner != null && owner.getNodeId().equals(nodeId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Murmur3 finalizer
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb3f53e85a63bL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "epoch " + epoch + " " + members;
+    }
+}
@@ -0,0 +1,209 @@
+package cluster;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Keeps the cluster membership: nodes join over one long-lived TCP connection and heartbeat
+// on it, and every join, leave or missed heartbeat produces a new ClusterView that is pushed to
+// all nodes. The coordinator never sees events, so one is enough for many nodes; if it is down,
+// nodes keep routing with the last membership they got and rejoin when it is back.
+//   java cluster.Coordinator [host:]port
+public class Coordinator {
+    private static final Logger LOGGER = Logger.getLogger(Coordinator.class.getName());
+    private static final Counter REBALANCES = Metrics.counter("ids_cluster_rebalances_total", "Membership changes pushed by the coordinator");
+
+    private final InetSocketAddress address;
+    private final Map<String, NodeConnection> nodes = new LinkedHashMap<>();
+    private ServerSocket serverSocket;
+    private ClusterView view = new ClusterView(0, new ArrayList<>());
+
+    public Coordinator(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: Coordinator [host:]port");
+            System.exit(1);
+        }
+        Coordinator coordinator = new Coordinator(parseAddress(args[0], "0.0.0.0"));
+        coordinator.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(coordinator::stop));
+    }
+
+    static InetSocketAddress parseAddress(String value, String defaultHost) {
+        int colon = value.lastIndexOf(':');
+        return colon < 0 ? new InetSocketAddress(defaultHost, Integer.parseInt(value))
+                : new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        Metrics.gauge("ids_cluster_members", "Nodes in the cluster membership", () -> getView().getMembers().size());
+        // Not a daemon: a standalone coordinator runs until stop() or a signal
+        new Thread(this::acceptNodes, "coordinator-accept").start();
+        LOGGER.log(Level.INFO, "Coordinator listening on " + serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized ClusterView getView() {
+        return view;
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing coordinator socket", e);
+        }
+        List<NodeConnection> connections;
+        synchronized (this) {
+            connections = new ArrayList<>(nodes.values());
+            nodes.clear();
+        }
+        for (NodeConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void acceptNodes() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> serveNode(socket), "coordinator-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.log(Level.SEVERE, "Error accepting node connection", e);
+                }
+            }
+        }
+    }
+
+    // Reads the node's JOIN and then its heartbeats; a node that closes the connection or
+    // misses heartbeats for MEMBER_TIMEOUT_MILLIS leaves the membership
+    private void serveNode(Socket socket) {
+        NodeConnection connection = null;
+        try {
+            socket.setSoTimeout(ClusterProtocol.MEMBER_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (input.readUnsignedByte() != ClusterProtocol.JOIN) {
+                throw new IOException("Expected JOIN from " + socket.getRemoteSocketAddress());
+            }
+            connection = new NodeConnection(socket, ClusterProtocol.readMember(input));
+            join(connection);
+            while (true) {
+                int type = input.readUnsignedByte();
+                if (type != ClusterProtocol.HEARTBEAT) {
+                    throw new IOException("Unexpected frame " + type + " from " + connection.member);
+                }
+            }
+        } catch (EOFException e) {
+            // The node closed the connection: it is stopping
+        } catch (IOException e) {
+            if (connection != null && !socket.isClosed()) {
+                LOGGER.log(Level.WARNING, "Lost node " + connection.member + ": " + e);
+            }
+        } finally {
+            if (connection != null) {
+                leave(connection);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing node connection", e);
+            }
+        }
+    }
+
+    private void join(NodeConnection connection) {
+        NodeConnection replaced;
+        synchronized (this) {
+            // A node that restarts under the same ID takes over its old partitions
+            replaced = nodes.put(connection.member.getNodeId(), connection);
+            publish();
+        }
+        if (replaced != null) {
+            replaced.close();
+        }
+        LOGGER.log(Level.INFO, "Node joined: " + connection.member);
+    }
+
+    private void leave(NodeConnection connection) {
+        synchronized (this) {
+            if (!nodes.remove(connection.member.getNodeId(), connection)) {
+                return;
+            }
+            publish();
+        }
+        LOGGER.log(Level.INFO, "Node left: " + connection.member);
+    }
+
+    // Called with the lock held, so every node receives the views in epoch order
+    private void publish() {
+        List<Member> members = new ArrayList<>();
+        for (NodeConnection connection : nodes.values()) {
+            members.add(connection.member);
+        }
+        view = new ClusterView(view.getEpoch() + 1, members);
+        REBALANCES.increment();
+        LOGGER.log(Level.INFO, "Cluster membership " + view);
+        for (NodeConnection connection : nodes.values()) {
+            connection.send(view);
+        }
+    }
+
+    private static class NodeConnection {
+        private final Socket socket;
+        private final Member member;
+        private final DataOutputStream output;
+
+        NodeConnection(Socket socket, Member member) throws IOException {
+            this.socket = socket;
+            this.member = member;
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(ClusterView view) {
+            try {
+                ClusterProtocol.writeMembership(output, view);
+                output.flush();
+            } catch (IOException e) {
+                // The node's reader sees the closed socket and takes it out of the membership
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing node connection", e);
+            }
+        }
+    }
+}
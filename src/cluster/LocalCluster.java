@@ -0,0 +1,104 @@
+package cluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs a whole cluster on one box over loopback: a coordinator in this JVM and one IDS JVM per
+// node, each with its output prefixed by its node ID.
+//   java cluster.LocalCluster <nodes> [--config dir] [--port 7100] [--main main.LogAnalysisIDS]
+// Node i is node-i on port + i, with the coordinator on port; nodes start routing once all
+// have joined. With --config, dir/node-i (when
+// it exists) and then dir come first on node i's classpath, so each node can have its own
+// logcollector.properties, metrics port and so on, and share the rest.
+public class LocalCluster {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: LocalCluster <nodes> [--config dir] [--port port] [--main class]");
+            System.exit(1);
+        }
+        int nodeCount = Integer.parseInt(args[0]);
+        Path configDirectory = null;
+        int port = 7100;
+        String mainClass = "main.LogAnalysisIDS";
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--config":
+                    configDirectory = Paths.get(args[++i]);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--main":
+                    mainClass = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        Coordinator coordinator = new Coordinator(new InetSocketAddress("127.0.0.1", port));
+        coordinator.start();
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> nodes = new ArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Stopping a node runs its shutdown hook, which drains its pipeline
+            nodes.forEach(Process::destroy);
+            coordinator.stop();
+        }));
+        for (int i = 1; i <= nodeCount; i++) {
+            String nodeId = "node-" + i;
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(classpath(configDirectory, nodeId));
+            command.add("-Dcluster.coordinator=127.0.0.1:" + port);
+            command.add("-Dcluster.nodeId=" + nodeId);
+            command.add("-Dcluster.host=127.0.0.1");
+            command.add("-Dcluster.port=" + (port + i));
+            command.add("-Dcluster.minNodes=" + nodeCount);
+            command.add(mainClass);
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            nodes.add(process);
+            Thread output = new Thread(() -> prefixOutput(nodeId, process), nodeId + "-output");
+            output.setDaemon(true);
+            output.start();
+        }
+        for (Process node : nodes) {
+            node.waitFor();
+        }
+        coordinator.stop();
+    }
+
+    private static String classpath(Path configDirectory, String nodeId) {
+        List<String> entries = new ArrayList<>();
+        if (configDirectory != null) {
+            Path nodeDirectory = configDirectory.resolve(nodeId);
+            if (Files.isDirectory(nodeDirectory)) {
+                entries.add(nodeDirectory.toString());
+            }
+            entries.add(configDirectory.toString());
+        }
+        entries.add(System.getProperty("java.class.path"));
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static void prefixOutput(String nodeId, Process process) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println("[" + nodeId + "] " + line);
+            }
+        } catch (IOException e) {
+            System.err.println("[" + nodeId + "] output lost: " + e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package cluster;
+
+// One IDS node: its ID, which decides the partitions it owns, and the address it takes
+// forwarded events on
+public class Member {
+    private final String nodeId;
+    private final String host;
+    private final int port;
+
+    public Member(String nodeId, String host, int port) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Member)) {
+            return false;
+        }
+        Member member = (Member) other;
+        return nodeId.equals(member.nodeId) && host.equals(member.host) && port == member.port;
+    }
+
+    @Override
+    public int hashCode() {
+        return (nodeId.hashCode() * 31 + host.hashCode()) * 31 + port;
+    }
+
+    @Override
+    public String toString() {
+        return nodeId + "@" + host + ":" + port;
+    }
+}
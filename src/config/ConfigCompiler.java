@@ -0,0 +1,97 @@
+package config;
+
+import alerting.AlertingSystem;
+import detection.RuleBasedDetector;
+import logcollection.LogCollector;
+import logparsing.LogParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// Validates the configuration once and compiles it into a snapshot that the IDS maps at startup:
+//   java config.ConfigCompiler <snapshotFile> [--config dir]
+// The .properties files are read from the directory, or from the classpath like the components
+// do. Collector, format, rule and alerting settings are checked by building each component, and
+// the rules are kept in compiled form as well. Start the IDS with -Dconfig.snapshot=<snapshotFile>,
+// and compile again whenever a .properties file changes; a snapshot never reloads its rules.
+public class ConfigCompiler {
+    private static final String[] SECTIONS = {"logcollector", "logformats", "rules", "alerting", "pipeline", "metrics"};
+    public static final String COMPILED_RULES = "rules.compiled";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ConfigCompiler <snapshotFile> [--config dir]");
+            System.exit(1);
+        }
+        Path configDirectory = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--config")) {
+                configDirectory = Paths.get(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        Map<String, Properties> sections = new LinkedHashMap<>();
+        for (String name : SECTIONS) {
+            Properties properties = load(configDirectory, name + ".properties");
+            if (properties != null) {
+                sections.put(name, properties);
+            }
+        }
+        Map<String, byte[]> compiled = new LinkedHashMap<>();
+        try {
+            new LogCollector(sections.getOrDefault("logcollector", new Properties())).close();
+            new LogParser(sections.getOrDefault("logformats", new Properties()));
+            new AlertingSystem(sections.getOrDefault("alerting", new Properties())).shutdown();
+            RuleBasedDetector detector = new RuleBasedDetector(sections.getOrDefault("rules", new Properties()));
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(bytes);
+                detector.writeCompiledRules(output);
+                output.flush();
+                compiled.put(COMPILED_RULES, bytes.toByteArray());
+                System.out.println("Compiled " + detector.getRuleCount() + " rules");
+            } finally {
+                detector.close();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Configuration is not valid, no snapshot written: " + e);
+            System.exit(1);
+        }
+        Path snapshotFile = Paths.get(args[0]).toAbsolutePath();
+        ConfigSnapshot.write(snapshotFile, sections, compiled);
+        System.out.println("Wrote " + sections.keySet() + " to " + snapshotFile + " (" + Files.size(snapshotFile) + " bytes)");
+    }
+
+    // null when the file does not exist, so the component keeps its defaults
+    private static Properties load(Path configDirectory, String fileName) throws IOException {
+        Properties properties = new Properties();
+        if (configDirectory != null) {
+            Path file = configDirectory.resolve(fileName);
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            }
+            return properties;
+        }
+        try (InputStream input = ConfigCompiler.class.getClassLoader().getResourceAsStream(fileName)) {
+            if (input == null) {
+                return null;
+            }
+            properties.load(input);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,150 @@
+package config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+// Every component's configuration in one file, written by ConfigCompiler once the configuration
+// has been validated and memory-mapped at startup, so that a short-lived run reads one file and
+// parses no .properties text. Sections are named after the file they came from without the
+// extension (rules, alerting, ...); binary sections hold work done ahead of time, such as the
+// compiled rules. Layout: [MAGIC][VERSION][long CRC32 of the rest][int sections], then per
+// section its name, a kind byte and int length + payload. A properties section is int count,
+// then the keys and values; strings are int length + UTF-8.
+public class ConfigSnapshot {
+    static final int MAGIC = 0x49445343; // "IDSC"
+    static final int VERSION = 1;
+    private static final byte KIND_PROPERTIES = 0;
+    private static final byte KIND_BINARY = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final Map<String, ByteBuffer> properties;
+    private final Map<String, ByteBuffer> binary;
+
+    private ConfigSnapshot(Map<String, ByteBuffer> properties, Map<String, ByteBuffer> binary) {
+        this.properties = properties;
+        this.binary = binary;
+    }
+
+    public static ConfigSnapshot load(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a config snapshot: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Config snapshot " + file + " is version " + buffer.getInt(4) + ", expected " + VERSION
+                    + "; compile the configuration again");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_SIZE));
+        if (crc.getValue() != buffer.getLong(8)) {
+            throw new IOException("Config snapshot is corrupt: " + file);
+        }
+
+        Map<String, ByteBuffer> properties = new HashMap<>();
+        Map<String, ByteBuffer> binary = new HashMap<>();
+        buffer.position(HEADER_SIZE);
+        int sections = buffer.getInt();
+        for (int i = 0; i < sections; i++) {
+            String name = readString(buffer);
+            byte kind = buffer.get();
+            int length = buffer.getInt();
+            ByteBuffer section = buffer.slice();
+            section.limit(length);
+            (kind == KIND_PROPERTIES ? properties : binary).put(name, section);
+            buffer.position(buffer.position() + length);
+        }
+        return new ConfigSnapshot(properties, binary);
+    }
+
+    // A fresh copy of the named properties section, empty when the snapshot has none
+    public Properties properties(String name) {
+        Properties values = new Properties();
+        ByteBuffer section = properties.get(name);
+        if (section != null) {
+            ByteBuffer buffer = section.duplicate();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                values.setProperty(readString(buffer), readString(buffer));
+            }
+        }
+        return values;
+    }
+
+    // The named binary section, read-only and positioned at its start, or null
+    public ByteBuffer section(String name) {
+        ByteBuffer section = binary.get(name);
+        return section != null ? section.asReadOnlyBuffer() : null;
+    }
+
+    // Writes to a temporary file moved into place, so that a run starting meanwhile never maps a
+    // partial snapshot
+    public static void write(Path file, Map<String, Properties> properties, Map<String, byte[]> binary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(properties.size() + binary.size());
+        for (Map.Entry<String, Properties> entry : properties.entrySet()) {
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(section);
+            Properties values = entry.getValue();
+            output.writeInt(values.stringPropertyNames().size());
+            for (String key : values.stringPropertyNames()) {
+                writeString(output, key);
+                writeString(output, values.getProperty(key));
+            }
+            writeSection(body, entry.getKey(), KIND_PROPERTIES, section.toByteArray());
+        }
+        for (Map.Entry<String, byte[]> entry : binary.entrySet()) {
+            writeSection(body, entry.getKey(), KIND_BINARY, entry.getValue());
+        }
+        body.flush();
+
+        byte[] content = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporary)) {
+            DataOutputStream header = new DataOutputStream(output);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(crc.getValue());
+            header.write(content);
+            header.flush();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeSection(DataOutputStream output, String name, byte kind, byte[] payload) throws IOException {
+        writeString(output, name);
+        output.writeByte(kind);
+        output.writeInt(payload.length);
+        output.write(payload);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
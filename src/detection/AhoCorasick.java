@@ -0,0 +1,201 @@
+package detection;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+// Finds every occurrence of a fixed set of literals in one left-to-right pass over the text.
+// The automaton is held in flat arrays: the edges of node n are edgeKeys/edgeTargets from
+// edgeStart[n] to edgeStart[n + 1], sorted by key, and its literal ids are outputIds from
+// outputStart[n] to outputStart[n + 1]
+class AhoCorasick {
+    private int[] edgeStart;
+    private char[] edgeKeys;
+    private int[] edgeTargets;
+    private int[] fail;
+    private int[] outputStart;
+    private int[] outputIds;
+    private int[] outputLink;
+
+    public AhoCorasick(List<String> literals) {
+        // Inserting the literals in sorted order creates the children of every node in character
+        // order, and the child a literal continues into is always the one created last, so the
+        // trie is built in plain arrays without a map per node
+        Integer[] order = new Integer[literals.size()];
+        for (int id = 0; id < order.length; id++) {
+            order[id] = id;
+        }
+        Arrays.sort(order, Comparator.comparing(literals::get));
+
+        int capacity = 16;
+        char[] labels = new char[capacity];
+        int[] parents = new int[capacity];
+        int[] lastChild = new int[capacity];
+        int[] nodeOfLiteral = new int[literals.size()];
+        int nodeCount = 1;
+        for (int id : order) {
+            String literal = literals.get(id);
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                int last = lastChild[node];
+                if (last != 0 && labels[last] == c) {
+                    node = last;
+                    continue;
+                }
+                if (nodeCount == capacity) {
+                    capacity *= 2;
+                    labels = Arrays.copyOf(labels, capacity);
+                    parents = Arrays.copyOf(parents, capacity);
+                    lastChild = Arrays.copyOf(lastChild, capacity);
+                }
+                int child = nodeCount++;
+                labels[child] = c;
+                parents[child] = node;
+                lastChild[node] = child;
+                node = child;
+            }
+            nodeOfLiteral[id] = node;
+        }
+
+        // Nodes are numbered in creation order, so each parent's children are consecutive in
+        // ascending key order once grouped by parent
+        edgeStart = new int[nodeCount + 1];
+        for (int child = 1; child < nodeCount; child++) {
+            edgeStart[parents[child] + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            edgeStart[node + 1] += edgeStart[node];
+        }
+        edgeKeys = new char[nodeCount - 1];
+        edgeTargets = new int[nodeCount - 1];
+        int[] nextEdge = Arrays.copyOf(edgeStart, nodeCount);
+        for (int child = 1; child < nodeCount; child++) {
+            int edge = nextEdge[parents[child]]++;
+            edgeKeys[edge] = labels[child];
+            edgeTargets[edge] = child;
+        }
+
+        // Ids are added in ascending order, the order the literals were given in
+        outputStart = new int[nodeCount + 1];
+        for (int node : nodeOfLiteral) {
+            outputStart[node + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            outputStart[node + 1] += outputStart[node];
+        }
+        outputIds = new int[nodeOfLiteral.length];
+        int[] nextOutput = Arrays.copyOf(outputStart, nodeCount);
+        for (int id = 0; id < nodeOfLiteral.length; id++) {
+            outputIds[nextOutput[nodeOfLiteral[id]]++] = id;
+        }
+        buildFailureLinks(nodeCount);
+    }
+
+    private AhoCorasick() {
+    }
+
+    private void buildFailureLinks(int nodeCount) {
+        fail = new int[nodeCount];
+        // Nearest node along the failure chain that ends a literal, so matching skips silent nodes
+        outputLink = new int[nodeCount];
+        Arrays.fill(outputLink, -1);
+
+        // Breadth-first, so every node's failure target is final before its children are visited
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int edge = edgeStart[0]; edge < edgeStart[1]; edge++) {
+            queue[tail++] = edgeTargets[edge];
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int edge = edgeStart[node]; edge < edgeStart[node + 1]; edge++) {
+                char c = edgeKeys[edge];
+                int child = edgeTargets[edge];
+                int state = fail[node];
+                while (state != 0 && transition(state, c) < 0) {
+                    state = fail[state];
+                }
+                int next = transition(state, c);
+                fail[child] = next >= 0 && next != child ? next : 0;
+                outputLink[child] = hasOutput(fail[child]) ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private boolean hasOutput(int node) {
+        return outputStart[node + 1] > outputStart[node];
+    }
+
+    private int transition(int node, char c) {
+        int index = Arrays.binarySearch(edgeKeys, edgeStart[node], edgeStart[node + 1], c);
+        return index >= 0 ? edgeTargets[index] : -1;
+    }
+
+    // Reports the id of every literal found in the text, once per occurrence
+    public void search(CharSequence text, IntConsumer onMatch) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(next, 0);
+            for (int node = state; node > 0; node = outputLink[node]) {
+                for (int output = outputStart[node]; output < outputStart[node + 1]; output++) {
+                    onMatch.accept(outputIds[output]);
+                }
+            }
+        }
+    }
+
+    // Writes the built automaton, so read() can restore it without building it again
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(fail.length);
+        out.writeInt(outputIds.length);
+        writeInts(out, edgeStart);
+        for (char key : edgeKeys) {
+            out.writeChar(key);
+        }
+        writeInts(out, edgeTargets);
+        writeInts(out, fail);
+        writeInts(out, outputStart);
+        writeInts(out, outputIds);
+        writeInts(out, outputLink);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    // Reads an automaton written by write(), advancing the buffer past it
+    static AhoCorasick read(ByteBuffer buffer) {
+        int nodeCount = buffer.getInt();
+        int outputCount = buffer.getInt();
+        AhoCorasick automaton = new AhoCorasick();
+        automaton.edgeStart = readInts(buffer, nodeCount + 1);
+        automaton.edgeKeys = new char[nodeCount - 1];
+        buffer.asCharBuffer().get(automaton.edgeKeys);
+        buffer.position(buffer.position() + 2 * (nodeCount - 1));
+        automaton.edgeTargets = readInts(buffer, nodeCount - 1);
+        automaton.fail = readInts(buffer, nodeCount);
+        automaton.outputStart = readInts(buffer, nodeCount + 1);
+        automaton.outputIds = readInts(buffer, outputCount);
+        automaton.outputLink = readInts(buffer, nodeCount);
+        return automaton;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+}
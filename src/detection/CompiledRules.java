@@ -0,0 +1,135 @@
+package detection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// The part of compiling a rules file that depends only on the file: the safety analysis of
+// every pattern and the prefilter index of every rule kind. It is written once, from rules that
+// compiled, and read back at startup, e.g. from the rules.compiled section of a config
+// snapshot, so that a short-lived run neither analyses nor indexes its rules. It is keyed on a
+// hash of the rules it was written for, since rules edited under the same names would otherwise
+// pick up the analysis and index of their old patterns
+class CompiledRules {
+    private static final int VERSION = 3;
+    private static final int FINGERPRINT_BYTES = 32;
+
+    private final Map<String, RegexSafety> safetyByRule;
+    private final ByteBuffer[] indexes;
+
+    private CompiledRules(Map<String, RegexSafety> safetyByRule, ByteBuffer[] indexes) {
+        this.safetyByRule = safetyByRule;
+        this.indexes = indexes;
+    }
+
+    // indexes are those of the rules, threshold, distinct, heavy-hitter and sequence-step
+    // rules in that order, or empty for the linear engine
+    static void write(DataOutputStream out, Properties properties, List<Rule> rules, List<RuleIndex<?>> indexes) throws IOException {
+        out.writeInt(VERSION);
+        out.write(fingerprint(properties));
+        List<Rule> withPatterns = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.getMessageRegex() != null) {
+                withPatterns.add(rule);
+            }
+        }
+        out.writeInt(withPatterns.size());
+        for (Rule rule : withPatterns) {
+            RegexSafety safety = RegexSafety.analyze(rule.getMessageRegex());
+            writeString(out, rule.getName());
+            out.writeBoolean(safety.superlinear());
+            writeString(out, safety.unsafeReason() != null ? safety.unsafeReason() : "");
+        }
+        out.writeInt(indexes.size());
+        for (RuleIndex<?> index : indexes) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            index.write(new DataOutputStream(bytes));
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    // The buffer is read from its position and left unchanged; indexes are only decoded when
+    // asked for. properties must be the rules the buffer was written for
+    static CompiledRules read(ByteBuffer compiledRules, Properties properties) {
+        ByteBuffer buffer = compiledRules.duplicate();
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Compiled rules are version " + version + ", expected " + VERSION
+                    + "; compile the configuration again");
+        }
+        byte[] fingerprint = new byte[FINGERPRINT_BYTES];
+        buffer.get(fingerprint);
+        if (!MessageDigest.isEqual(fingerprint, fingerprint(properties))) {
+            throw new IllegalArgumentException("Compiled rules were written for different rules; compile the configuration again");
+        }
+        int ruleCount = buffer.getInt();
+        Map<String, RegexSafety> safetyByRule = new HashMap<>(ruleCount * 2);
+        for (int i = 0; i < ruleCount; i++) {
+            String name = readString(buffer);
+            boolean superlinear = buffer.get() != 0;
+            String unsafeReason = readString(buffer);
+            safetyByRule.put(name, new RegexSafety(unsafeReason.isEmpty() ? null : unsafeReason, superlinear));
+        }
+        ByteBuffer[] indexes = new ByteBuffer[buffer.getInt()];
+        for (int i = 0; i < indexes.length; i++) {
+            int length = buffer.getInt();
+            ByteBuffer index = buffer.slice();
+            index.limit(length);
+            indexes[i] = index;
+            buffer.position(buffer.position() + length);
+        }
+        return new CompiledRules(safetyByRule, indexes);
+    }
+
+    // The analysis of the named rule's pattern, or null when it was not compiled
+    RegexSafety safety(String ruleName) {
+        return safetyByRule.get(ruleName);
+    }
+
+    // The index of the given kind (see write) over these rules, or a newly built one when none
+    // was compiled
+    <R extends Rule> RuleIndex<R> index(int kind, List<R> rules) {
+        if (kind >= indexes.length) {
+            return new RuleIndex<>(rules);
+        }
+        Map<String, R> rulesByName = new HashMap<>(rules.size() * 2);
+        for (R rule : rules) {
+            rulesByName.put(rule.getName(), rule);
+        }
+        return RuleIndex.read(indexes[kind].duplicate(), rulesByName);
+    }
+
+    // SHA-256 of the sorted key=value lines, so it depends on the rules and not on the order or
+    // formatting of the file
+    private static byte[] fingerprint(Properties properties) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            digest.update((key + "=" + properties.getProperty(key) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    // Strings are int length + UTF-8
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,58 @@
+package detection;
+
+// A message as the regex engine sees it while a rule has a time budget. java.util.regex reads
+// its input only through charAt, so checking the clock there every CHECK_INTERVAL reads bounds
+// an evaluation however the pattern backtracks, without a watchdog thread. The budget starts at
+// the first check, so the common short evaluation never reads the clock at all.
+final class DeadlineCharSequence implements CharSequence {
+    private static final int CHECK_INTERVAL = 1024;
+    static final BudgetExceededException BUDGET_EXCEEDED = new BudgetExceededException();
+
+    private final String text;
+    private final long budgetNanos;
+    private long deadline;
+    private int untilCheck = CHECK_INTERVAL;
+
+    DeadlineCharSequence(String text, long budgetNanos) {
+        this.text = text;
+        this.budgetNanos = budgetNanos;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--untilCheck == 0) {
+            untilCheck = CHECK_INTERVAL;
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + budgetNanos;
+            } else if (now - deadline > 0) {
+                throw BUDGET_EXCEEDED;
+            }
+        }
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // Thrown through the regex engine to abandon the evaluation; shared and without a stack trace
+    static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private BudgetExceededException() {
+            super("Rule time budget exceeded", null, false, false);
+        }
+    }
+}
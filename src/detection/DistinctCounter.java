@@ -0,0 +1,97 @@
+package detection;
+
+import sketch.HyperLogLog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Distinct values per group, e.g. user IDs per client IP, with one HyperLogLog per group. Groups
+// are striped across locks and kept in LRU order up to maxGroups, so memory is bounded by
+// maxGroups * 2^precision bytes however many groups and values are seen.
+class DistinctCounter {
+    private static final int STRIPES = 16;
+
+    private final int precision;
+    private final long windowMillis;
+    private final Stripe[] stripes;
+
+    public DistinctCounter(int precision, long windowMillis, int maxGroups) {
+        this.precision = precision;
+        this.windowMillis = windowMillis;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxGroups / STRIPES));
+        }
+    }
+
+    // Adds the value to the group's sketch. Returns true once per window (or once ever, without
+    // a window) when the group's estimated distinct count reaches the threshold.
+    public boolean addAndCheck(String group, String value, long timestampMillis, long threshold) {
+        Stripe stripe = stripes[Math.floorMod(group.hashCode(), STRIPES)];
+        synchronized (stripe) {
+            Group state = stripe.get(group);
+            long windowStart = windowMillis > 0 ? Math.floorDiv(timestampMillis, windowMillis) * windowMillis : 0;
+            if (state == null) {
+                state = new Group(new HyperLogLog(precision), windowStart);
+                stripe.put(group, state);
+            } else if (windowStart > state.windowStart) {
+                // Tumbling window: a new window starts counting from zero
+                state.sketch.clear();
+                state.windowStart = windowStart;
+                state.alerted = false;
+            } else if (windowStart < state.windowStart) {
+                return false;
+            }
+            if (!state.sketch.add(value) || state.alerted || state.sketch.estimate() < threshold) {
+                return false;
+            }
+            state.alerted = true;
+            return true;
+        }
+    }
+
+    public long estimate(String group) {
+        Stripe stripe = stripes[Math.floorMod(group.hashCode(), STRIPES)];
+        synchronized (stripe) {
+            Group state = stripe.get(group);
+            return state == null ? 0 : state.sketch.estimate();
+        }
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += (long) stripe.size() * (1 << precision);
+            }
+        }
+        return bytes;
+    }
+
+    private static class Stripe extends LinkedHashMap<String, Group> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxGroups;
+
+        Stripe(int maxGroups) {
+            super(16, 0.75f, true);
+            this.maxGroups = maxGroups;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Group> eldest) {
+            return size() > maxGroups;
+        }
+    }
+
+    private static class Group {
+        private final HyperLogLog sketch;
+        private long windowStart;
+        private boolean alerted;
+
+        Group(HyperLogLog sketch, long windowStart) {
+            this.sketch = sketch;
+            this.windowStart = windowStart;
+        }
+    }
+}
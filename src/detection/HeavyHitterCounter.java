@@ -0,0 +1,61 @@
+package detection;
+
+import sketch.CountMinSketch;
+import sketch.SpaceSaving;
+
+import java.util.List;
+
+// Per-key counts in fixed memory: a Count-Min sketch decides when a key crosses the threshold,
+// and Space-Saving keeps the current top talkers for reporting. Both restart at each window.
+class HeavyHitterCounter {
+    private final double epsilon;
+    private final double confidence;
+    private final int topK;
+    private final long windowMillis;
+    private CountMinSketch counts;
+    private SpaceSaving topTalkers;
+    private long windowStart;
+
+    public HeavyHitterCounter(double epsilon, double confidence, int topK, long windowMillis) {
+        this.epsilon = epsilon;
+        this.confidence = confidence;
+        this.topK = topK;
+        this.windowMillis = windowMillis;
+        counts = new CountMinSketch(epsilon, confidence);
+        topTalkers = newTopTalkers();
+    }
+
+    // Ten counters per reported key: with only topK counters, keys near the cut churn through
+    // the smallest counter and the reported order is mostly noise
+    private SpaceSaving newTopTalkers() {
+        return new SpaceSaving(topK * 10);
+    }
+
+    // Returns true each time the key's estimated count reaches another multiple of the threshold.
+    // Conservative updates raise a key's estimate by exactly one per add, so no multiple is
+    // skipped by the key itself; collisions can only make it fire early, by at most the
+    // sketch's error bound.
+    public synchronized boolean addAndCheck(String key, long timestampMillis, long threshold) {
+        if (windowMillis > 0) {
+            long start = Math.floorDiv(timestampMillis, windowMillis) * windowMillis;
+            if (start > windowStart) {
+                counts = new CountMinSketch(epsilon, confidence);
+                topTalkers = newTopTalkers();
+                windowStart = start;
+            } else if (start < windowStart) {
+                return false;
+            }
+        }
+        topTalkers.add(key);
+        long estimate = counts.add(key);
+        return threshold <= 1 || estimate % threshold == 0;
+    }
+
+    public synchronized List<SpaceSaving.Entry> topTalkers() {
+        return topTalkers.top(topK);
+    }
+
+    public synchronized long memoryBytes() {
+        return counts.memoryBytes() + topTalkers.memoryBytes();
+    }
+}
@@ -0,0 +1,137 @@
+package detection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// The indicators of one IOC rule. Every refreshSeconds the list files are checked and, when one
+// changed, a new IndicatorSet is built on the refresh thread and swapped in whole, so detection
+// never waits for a reload and always sees one complete list.
+class IndicatorList implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(IndicatorList.class.getName());
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "ioc-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Path> files;
+    private final boolean caseSensitive;
+    private final long[] lastModified;
+    private final ScheduledFuture<?> refreshTask;
+    private volatile IndicatorSet indicators;
+
+    IndicatorList(List<Path> files, boolean caseSensitive, long refreshSeconds) throws IOException {
+        this.files = files;
+        this.caseSensitive = caseSensitive;
+        lastModified = new long[files.size()];
+        changed();
+        indicators = IndicatorSet.load(files, caseSensitive);
+        LOGGER.log(Level.INFO, "Loaded " + indicators.size() + " indicators from " + files);
+        refreshTask = refreshSeconds > 0
+                ? REFRESHER.scheduleWithFixedDelay(this::refresh, refreshSeconds, refreshSeconds, TimeUnit.SECONDS)
+                : null;
+    }
+
+    // Returns the indicator found in the value, or null. The whole value is looked up first, then
+    // each token: a run of letters, digits and . : - _ @, without trailing . : or -, so that
+    // "login from 10.0.0.1." finds 10.0.0.1. Tokens with colons are also split at them, for
+    // host:port and key:value; IPv6 addresses still match whole.
+    String match(String value) {
+        String text = caseSensitive ? value : value.toLowerCase(Locale.ROOT);
+        IndicatorSet current = indicators;
+        int length = text.length();
+        if (current.contains(text, 0, length)) {
+            return text;
+        }
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTokenChar(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            boolean colon = false;
+            while (i < length && isTokenChar(text.charAt(i))) {
+                colon |= text.charAt(i) == ':';
+                i++;
+            }
+            int end = i;
+            while (end > start && isTrailingPunctuation(text.charAt(end - 1))) {
+                end--;
+            }
+            if (end - start < length && current.contains(text, start, end)) {
+                return text.substring(start, end);
+            }
+            if (colon) {
+                for (int partStart = start; partStart < end; ) {
+                    int partEnd = text.indexOf(':', partStart);
+                    partEnd = partEnd < 0 || partEnd > end ? end : partEnd;
+                    if (current.contains(text, partStart, partEnd)) {
+                        return text.substring(partStart, partEnd);
+                    }
+                    partStart = partEnd + 1;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == ':' || c == '-' || c == '_' || c == '@';
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == ':' || c == '-';
+    }
+
+    private void refresh() {
+        try {
+            if (changed()) {
+                IndicatorSet refreshed = IndicatorSet.load(files, caseSensitive);
+                indicators = refreshed;
+                LOGGER.log(Level.INFO, "Reloaded " + refreshed.size() + " indicators from " + files);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Forget the modification times so the next check tries again
+            Arrays.fill(lastModified, 0);
+            LOGGER.log(Level.SEVERE, "Indicators not reloaded, keeping the current list: " + files, e);
+        }
+    }
+
+    // Records the files' modification times and returns whether any differ from the last check
+    private boolean changed() throws IOException {
+        boolean changed = false;
+        for (int i = 0; i < files.size(); i++) {
+            long modified = Files.getLastModifiedTime(files.get(i)).toMillis();
+            changed |= modified != lastModified[i];
+            lastModified[i] = modified;
+        }
+        return changed;
+    }
+
+    int size() {
+        return indicators.size();
+    }
+
+    long memoryBytes() {
+        return indicators.memoryBytes();
+    }
+
+    // Stops refreshing; the direct buffers are released once the last lookup lets go of them
+    @Override
+    public void close() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package detection;
+
+import sketch.BloomFilter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// An immutable set of indicators of compromise (IPs, hashes, user names) loaded from list files.
+// A Bloom filter answers almost every lookup; only its hits are confirmed against the exact set,
+// the indicators as sorted UTF-8 in direct buffers (one blob plus an offset per entry), so
+// millions of entries cost a few heap objects and no per-entry Strings.
+class IndicatorSet {
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+
+    private final BloomFilter bloomFilter;
+    private final ByteBuffer offsets;
+    private final ByteBuffer blob;
+    private final int count;
+
+    private IndicatorSet(BloomFilter bloomFilter, ByteBuffer offsets, ByteBuffer blob, int count) {
+        this.bloomFilter = bloomFilter;
+        this.offsets = offsets;
+        this.blob = blob;
+        this.count = count;
+    }
+
+    // One indicator per line; blank lines and lines starting with # are skipped. Unless
+    // caseSensitive, indicators are lower-cased and lookups must be too.
+    static IndicatorSet load(List<Path> files, boolean caseSensitive) throws IOException {
+        List<byte[]> entries = new ArrayList<>();
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    entries.add((caseSensitive ? line : line.toLowerCase(Locale.ROOT)).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        byte[][] sorted = entries.toArray(new byte[0][]);
+        entries = null;
+        Arrays.parallelSort(sorted, Arrays::compareUnsigned);
+
+        int count = 0;
+        long blobSize = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || !Arrays.equals(sorted[i], sorted[count - 1])) {
+                sorted[count++] = sorted[i];
+                blobSize += sorted[i].length;
+            }
+        }
+        if (blobSize > Integer.MAX_VALUE) {
+            throw new IOException("Indicator lists larger than 2 GB: " + files);
+        }
+
+        BloomFilter bloomFilter = new BloomFilter(count, FALSE_POSITIVE_RATE);
+        ByteBuffer offsets = ByteBuffer.allocateDirect((count + 1) * 4);
+        ByteBuffer blob = ByteBuffer.allocateDirect((int) blobSize);
+        for (int i = 0; i < count; i++) {
+            offsets.putInt(i * 4, blob.position());
+            blob.put(sorted[i]);
+            bloomFilter.add(new String(sorted[i], StandardCharsets.UTF_8));
+        }
+        offsets.putInt(count * 4, blob.position());
+        return new IndicatorSet(bloomFilter, offsets, blob, count);
+    }
+
+    // Whether text[start, end) is an indicator, without copying it unless the Bloom filter says
+    // it may be one
+    boolean contains(CharSequence text, int start, int end) {
+        if (start >= end || !bloomFilter.mightContain(text, start, end)) {
+            return false;
+        }
+        byte[] key = text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Unsigned byte order of entry i against key
+    private int compare(int i, byte[] key) {
+        int offset = offsets.getInt(i * 4);
+        int length = offsets.getInt(i * 4 + 4) - offset;
+        int common = Math.min(length, key.length);
+        for (int j = 0; j < common; j++) {
+            int difference = (blob.get(offset + j) & 0xff) - (key[j] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long memoryBytes() {
+        return bloomFilter.memoryBytes() + offsets.capacity() + blob.capacity();
+    }
+}
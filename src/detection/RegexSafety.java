@@ -0,0 +1,134 @@
+package detection;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Load-time analysis of how badly a pattern can backtrack on java.util.regex. Nested unbounded
+// quantifiers such as (a+)+, (\w*)* or (.*,)+ are unsafe: a failing match retries every way of
+// splitting the input between the inner and outer loop, exponential in the input length. A
+// large bounded repeat such as (.*a){12} is as bad in practice, at n^12. Possessive quantifiers
+// and atomic groups do not backtrack and are not counted. This is a heuristic, so rules are
+// also bounded at run time by their time budget.
+class RegexSafety {
+    private static final int MAX_SAFE_REPEATS = 10;
+
+    private final String unsafeReason;
+    private final boolean superlinear;
+
+    RegexSafety(String unsafeReason, boolean superlinear) {
+        this.unsafeReason = unsafeReason;
+        this.superlinear = superlinear;
+    }
+
+    // Why the pattern is unsafe, or null when no nested quantifier was found
+    String unsafeReason() {
+        return unsafeReason;
+    }
+
+    // Whether matching time can grow faster than the input times its length: more than one
+    // unbounded quantifier, or a repeated group containing one. A pattern with at most one
+    // unbounded quantifier is at worst quadratic under find(), which is cheap at log line sizes.
+    boolean superlinear() {
+        return superlinear;
+    }
+
+    static RegexSafety analyze(String regex) {
+        Deque<Group> groups = new ArrayDeque<>();
+        groups.push(new Group(false));
+        int unboundedCount = 0;
+        boolean repeatedGroup = false;
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            boolean quantifiable = true;
+            boolean innerUnbounded = false;
+            int groupEnd = -1;
+            if (c == '\\') {
+                i++;
+                if (i < length && regex.charAt(i) == 'Q') {
+                    int end = regex.indexOf("\\E", i);
+                    i = end < 0 ? length : end + 1;
+                }
+            } else if (c == '[') {
+                i = RuleIndex.endOfCharacterClass(regex, i);
+            } else if (c == '(') {
+                // Atomic groups (?>...) give up backtracking into their content
+                groups.push(new Group(regex.startsWith("(?>", i)));
+                quantifiable = false;
+            } else if (c == ')' && groups.size() > 1) {
+                Group group = groups.pop();
+                innerUnbounded = group.containsUnbounded && !group.atomic;
+                groupEnd = i;
+            } else if (c == '|' || c == '^' || c == '$') {
+                quantifiable = false;
+            }
+            if (!quantifiable) {
+                continue;
+            }
+            int next = i + 1;
+            boolean quantified = false;
+            boolean unbounded = false;
+            int repeats = 1;
+            if (next < length) {
+                char q = regex.charAt(next);
+                if (q == '*' || q == '+') {
+                    quantified = true;
+                    unbounded = true;
+                } else if (q == '?') {
+                    quantified = true;
+                } else if (q == '{') {
+                    int close = regex.indexOf('}', next);
+                    if (close > 0) {
+                        quantified = true;
+                        unbounded = regex.charAt(close - 1) == ',';
+                        repeats = parseUpperBound(regex, next + 1, close);
+                        next = close;
+                    }
+                }
+            }
+            if (quantified) {
+                // A trailing + makes the quantifier possessive; a trailing ? only makes it lazy
+                if (next + 1 < length && regex.charAt(next + 1) == '+') {
+                    unbounded = false;
+                    next++;
+                } else if (next + 1 < length && regex.charAt(next + 1) == '?') {
+                    next++;
+                }
+                i = next;
+            }
+            if (innerUnbounded && (unbounded || repeats >= MAX_SAFE_REPEATS)) {
+                return new RegexSafety("nested unbounded quantifier in the group ending at index " + groupEnd, true);
+            }
+            if (innerUnbounded && repeats > 1) {
+                repeatedGroup = true;
+            }
+            if (unbounded) {
+                unboundedCount++;
+            }
+            if (unbounded || innerUnbounded) {
+                groups.peek().containsUnbounded = true;
+            }
+        }
+        return new RegexSafety(null, unboundedCount > 1 || repeatedGroup);
+    }
+
+    // The m of {n,m} or the n of {n}; 1 when unparsable
+    private static int parseUpperBound(String regex, int start, int end) {
+        int comma = regex.lastIndexOf(',', end);
+        String bound = regex.substring(comma >= start ? comma + 1 : start, end).trim();
+        try {
+            return bound.isEmpty() ? 1 : Integer.parseInt(bound);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private static class Group {
+        final boolean atomic;
+        boolean containsUnbounded;
+
+        Group(boolean atomic) {
+            this.atomic = atomic;
+        }
+    }
+}
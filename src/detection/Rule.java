@@ -0,0 +1,202 @@
+package detection;
+
+import logparsing.FieldDictionary;
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+class Rule {
+    private static final Logger LOGGER = Logger.getLogger(Rule.class.getName());
+
+    static {
+        Metrics.describe("ids_rule_matches_total", "Events matched by each rule");
+        Metrics.describe("ids_rule_evaluations_total", "Regex evaluations of each rule");
+        Metrics.describe("ids_rule_evaluation_sampled_nanos_total",
+                "Regex time of sampled evaluations of each rule; divide by the samples for the mean");
+        Metrics.describe("ids_rule_evaluation_samples_total", "Sampled evaluations of each rule");
+        Metrics.describe("ids_rule_timeouts_total", "Evaluations of each rule abandoned at its time budget");
+        Metrics.describe("ids_rule_quarantined", "1 while a rule is quarantined and not evaluated");
+    }
+
+    private int id;
+    private String logLevel;
+    private int logLevelId = -1;
+    private String messageRegex;
+    private volatile Pattern messagePattern;
+    private String description;
+    private String name;
+    private Counter matchCount = new Counter();
+    private Counter evaluationCount = new Counter();
+    private Counter evaluationNanos = new Counter();
+    private Counter evaluationSamples = new Counter();
+    private Counter timeoutCount = new Counter();
+    private long timeBudgetNanos;
+    private int maxTimeouts;
+    private AtomicInteger timeouts = new AtomicInteger();
+    private volatile String quarantineReason;
+
+    public Rule(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(String logLevel) {
+        this.logLevel = FieldDictionary.LOG_LEVELS.intern(logLevel);
+        logLevelId = FieldDictionary.LOG_LEVELS.id(logLevel);
+    }
+
+    // -1 when the dictionary was full; the level is then compared as a string
+    public int getLogLevelId() {
+        return logLevelId;
+    }
+
+    public Pattern getMessagePattern() {
+        Pattern pattern = messagePattern;
+        if (pattern == null && messageRegex != null) {
+            pattern = Pattern.compile(messageRegex);
+            messagePattern = pattern;
+        }
+        return pattern;
+    }
+
+    public void setMessagePattern(Pattern messagePattern) {
+        this.messagePattern = messagePattern;
+        messageRegex = messagePattern.pattern();
+    }
+
+    public String getMessageRegex() {
+        return messageRegex;
+    }
+
+    // For a regex already validated, e.g. by the compiled rules of a config snapshot; it is
+    // compiled when the rule first runs, which with the index is only for the rules that ever
+    // become candidates
+    public void setMessageRegex(String messageRegex) {
+        this.messageRegex = messageRegex;
+        messagePattern = null;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public boolean matches(Map<String, String> parsedLog) {
+        return matches(parsedLog, FieldDictionary.LOG_LEVELS.id(parsedLog.get("logLevel")));
+    }
+
+    // levelId is the dictionary ID of the event's log level, or -1
+    public boolean matches(Map<String, String> parsedLog, int levelId) {
+        boolean levelMatches = logLevelId >= 0 ? logLevelId == levelId : logLevel.equals(parsedLog.get("logLevel"));
+        return levelMatches && matchesMessage(parsedLog.get("message"));
+    }
+
+    // Runs the message pattern, counting evaluations and matches and timing a sample of
+    // evaluations. Within a time budget, an evaluation that runs out of it counts as no match.
+    public boolean matchesMessage(String message) {
+        if (quarantineReason != null) {
+            return false;
+        }
+        boolean timed = Metrics.sample();
+        long start = timed ? System.nanoTime() : 0;
+        boolean matched = false;
+        boolean exceeded = false;
+        try {
+            matched = getMessagePattern().matcher(timeBudgetNanos > 0 ? new DeadlineCharSequence(message, timeBudgetNanos) : message).find();
+        } catch (DeadlineCharSequence.BudgetExceededException e) {
+            exceeded = true;
+        }
+        if (timed) {
+            evaluationNanos.add(System.nanoTime() - start);
+            evaluationSamples.increment();
+        }
+        evaluationCount.increment();
+        if (exceeded) {
+            budgetExceeded(message);
+            return false;
+        }
+        if (matched) {
+            matchCount.increment();
+        }
+        return matched;
+    }
+
+    // Bounds each regex evaluation to budgetNanos (0 for no bound); the rule is quarantined
+    // once it has run out of the budget maxTimeouts times (0 to never quarantine)
+    public void setTimeBudget(long budgetNanos, int maxTimeouts) {
+        this.timeBudgetNanos = budgetNanos;
+        this.maxTimeouts = maxTimeouts;
+    }
+
+    private void budgetExceeded(String message) {
+        timeoutCount.increment();
+        int count = timeouts.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Rule " + name + " ran out of its " + timeBudgetNanos / 1_000_000 + " ms budget on a "
+                + message.length() + "-character message");
+        if (maxTimeouts > 0 && count >= maxTimeouts) {
+            quarantine("ran out of its time budget " + count + " times");
+        }
+    }
+
+    // Stops evaluating the rule until the rules are reloaded
+    public void quarantine(String reason) {
+        if (quarantineReason == null) {
+            quarantineReason = reason;
+            LOGGER.log(Level.SEVERE, "Quarantined rule " + name + " (" + messageRegex + "): " + reason);
+        }
+    }
+
+    public String getQuarantineReason() {
+        return quarantineReason;
+    }
+
+    // Names the rule for its metric label. The rule of the same name in the rules being replaced
+    // hands over its counters, so they stay totals across reloads
+    public void setName(String name, Map<String, Rule> previousRules) {
+        this.name = name;
+        Rule previous = previousRules.get(name);
+        if (previous != null) {
+            matchCount = previous.matchCount;
+            evaluationCount = previous.evaluationCount;
+            evaluationNanos = previous.evaluationNanos;
+            evaluationSamples = previous.evaluationSamples;
+            timeoutCount = previous.timeoutCount;
+        }
+    }
+
+    // Reported through the detector's collector, so series of removed rules go with their rule set
+    void collect(Map<String, Long> counters, Map<String, Long> gauges) {
+        String labels = "{rule=\"" + name + "\"}";
+        counters.merge("ids_rule_matches_total" + labels, matchCount.get(), Long::sum);
+        counters.merge("ids_rule_evaluations_total" + labels, evaluationCount.get(), Long::sum);
+        counters.merge("ids_rule_evaluation_sampled_nanos_total" + labels, evaluationNanos.get(), Long::sum);
+        counters.merge("ids_rule_evaluation_samples_total" + labels, evaluationSamples.get(), Long::sum);
+        counters.merge("ids_rule_timeouts_total" + labels, timeoutCount.get(), Long::sum);
+        gauges.merge("ids_rule_quarantined" + labels, quarantineReason != null ? 1L : 0L, Long::sum);
+    }
+
+    // The metric label given by setName, e.g. rule12 or sequence3-step2
+    public String getName() {
+        return name;
+    }
+
+    public RuleProfile getProfile() {
+        return new RuleProfile(name, description, evaluationCount.get(), matchCount.get(), evaluationNanos.get(),
+                evaluationSamples.get(), timeoutCount.get(), quarantineReason);
+    }
+}
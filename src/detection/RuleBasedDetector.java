@@ -1,126 +1,1109 @@
 package detection;
 
+import logparsing.FieldDictionary;
+import metrics.Collector;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import sketch.SpaceSaving;
+
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 public class RuleBasedDetector {
-    private List<Rule> rules;
-    private List<ThresholdRule> thresholdRules;
-    private Map<String, Integer> eventCounts;
+    private static final Logger LOGGER = Logger.getLogger(RuleBasedDetector.class.getName());
+    private static final Counter EVENTS_DETECTED = Metrics.counter("ids_detector_events_total", "Parsed events run through detection");
+    private static final Counter ALERTS_RAISED = Metrics.counter("ids_detector_alerts_total", "Alerts raised by detection rules");
+    private static final Counter RULE_RELOADS = Metrics.counter("ids_detector_rule_reloads_total", "Rule files recompiled and swapped in");
+    private static final LatencyHistogram DETECT_LATENCY = Metrics.histogram("ids_detector_latency_seconds", "Time to run all rules on one event (sampled)");
+
+    // Detection threads read whichever snapshot is current; a reload swaps in a new one without
+    // blocking them, and threads still evaluating the old snapshot simply finish with it
+    private AtomicReference<RuleSet> ruleSet;
+    private Map<String, AtomicLong> eventCounts;
+    private Thread rulesWatcher;
 
     public RuleBasedDetector() {
-        rules = new ArrayList<>();
-        thresholdRules = new ArrayList<>();
-        eventCounts = new HashMap<>();
-        loadRules();
+        this(loadProperties());
+        Path rulesFile = rulesFile();
+        if (rulesFile != null && Boolean.parseBoolean(ruleSet.get().properties.getProperty("detector.reload", "true"))) {
+            watchRules(rulesFile);
+        }
+    }
+
+    public RuleBasedDetector(Properties properties) {
+        this(properties, null);
+    }
+
+    // compiledRules is what writeCompiledRules wrote for these same properties, e.g. the
+    // rules.compiled section of a config snapshot. The rules were validated when it was written,
+    // so their patterns are only compiled when first evaluated, and the safety analysis and the
+    // index are read instead of being worked out again
+    public RuleBasedDetector(Properties properties, ByteBuffer compiledRules) {
+        eventCounts = new ConcurrentHashMap<>();
+        ruleSet = new AtomicReference<>(compile(properties, null, compiledRules != null ? CompiledRules.read(compiledRules, properties) : null));
+        Metrics.describe("ids_rules_quarantined", "Rules quarantined for unsafe patterns or running out of their time budget");
+        Metrics.register(this, ruleMetrics(ruleSet));
     }
 
-    private void loadRules() {
+    // Per-rule series of whichever rule set is current. The collector holds the reference rather
+    // than the detector, so a detector that is dropped without close() still stops reporting
+    private static Collector ruleMetrics(AtomicReference<RuleSet> ruleSet) {
+        return (counters, gauges) -> {
+            RuleSet current = ruleSet.get();
+            long quarantined = 0;
+            for (Rule rule : allRules(current.rules, current.thresholdRules, current.distinctRules,
+                    current.heavyHitterRules, current.sequenceSteps)) {
+                rule.collect(counters, gauges);
+                if (rule.getQuarantineReason() != null) {
+                    quarantined++;
+                }
+            }
+            gauges.merge("ids_rules_quarantined", quarantined, Long::sum);
+        };
+    }
+
+    private static Properties loadProperties() {
         Properties properties = new Properties();
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("rules.properties")) {
+        try (InputStream input = RuleBasedDetector.class.getClassLoader().getResourceAsStream("rules.properties")) {
             if (input == null) {
                 System.out.println("Sorry, unable to find rules.properties");
-                return;
+                return properties;
             }
             properties.load(input);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return properties;
+    }
 
-            for (String key : properties.stringPropertyNames()) {
-                if (key.startsWith("rule")) {
-                    String[] parts = key.split("\\.");
-                    int ruleId = Integer.parseInt(parts[0].substring(4));
-                    String attribute = parts[1];
-                    String value = properties.getProperty(key);
-
-                    Rule rule = rules.stream()
-                            .filter(r -> r.getId() == ruleId)
-                            .findFirst()
-                            .orElseGet(() -> {
-                                Rule newRule = new Rule(ruleId);
-                                rules.add(newRule);
-                                return newRule;
-                            });
-
-                    switch (attribute) {
-                        case "logLevel":
-                            rule.setLogLevel(value);
-                            break;
-                        case "messagePattern":
-                            rule.setMessagePattern(Pattern.compile(value));
-                            break;
-                        case "description":
-                            rule.setDescription(value);
-                            break;
+    // rules.properties can only be watched when it is a plain file, not packed in a jar
+    private static Path rulesFile() {
+        URL url = RuleBasedDetector.class.getClassLoader().getResource("rules.properties");
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    // Recompiles the rules whenever the file changes and swaps them in. A file that fails to
+    // compile is logged and ignored, leaving the previous rules active.
+    public void watchRules(Path rulesFile) {
+        Path file = rulesFile.toAbsolutePath();
+        rulesWatcher = new Thread(() -> {
+            try (WatchService watchService = file.getFileSystem().newWatchService()) {
+                file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || file.getFileName().equals(event.context());
                     }
-                } else if (key.startsWith("threshold")) {
-                    String[] parts = key.split("\\.");
-                    int thresholdId = Integer.parseInt(parts[0].substring(9));
-                    String attribute = parts[1];
-                    String value = properties.getProperty(key);
-
-                    ThresholdRule thresholdRule = thresholdRules.stream()
-                            .filter(r -> r.getId() == thresholdId)
-                            .findFirst()
-                            .orElseGet(() -> {
-                                ThresholdRule newThresholdRule = new ThresholdRule(thresholdId);
-                                thresholdRules.add(newThresholdRule);
-                                return newThresholdRule;
-                            });
-
-                    switch (attribute) {
+                    key.reset();
+                    if (changed) {
+                        // Editors often write in several steps; let the file settle before reading it
+                        TimeUnit.MILLISECONDS.sleep(200);
+                        key.pollEvents();
+                        reloadRules(file);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stopWatchingRules()
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error watching rules file: " + file, e);
+            }
+        }, "rules-watcher");
+        rulesWatcher.setDaemon(true);
+        rulesWatcher.start();
+    }
+
+    public void stopWatchingRules() {
+        if (rulesWatcher != null) {
+            rulesWatcher.interrupt();
+        }
+    }
+
+    // Stops watching the rules file and refreshing indicator lists, and removes the rule metrics
+    public void close() {
+        stopWatchingRules();
+        Metrics.unregister(this);
+        for (IndicatorRule indicatorRule : ruleSet.get().indicatorRules) {
+            indicatorRule.getIndicatorList().close();
+        }
+    }
+
+    private void reloadRules(Path file) {
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+            reloadRules(properties);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Rules not reloaded, keeping the current rules: " + file, e);
+        }
+    }
+
+    // Compiles the new rules off the detection path and publishes them in one atomic swap.
+    // Threshold rules whose definition did not change keep their counts and windows.
+    public void reloadRules(Properties properties) {
+        RuleSet previous = ruleSet.get();
+        RuleSet next = compile(properties, previous, null);
+        ruleSet.set(next);
+        closeUnusedIndicatorLists(previous, next);
+        Set<String> liveKeys = new HashSet<>();
+        for (ThresholdRule thresholdRule : next.thresholdRules) {
+            liveKeys.add(countKey(thresholdRule));
+        }
+        eventCounts.keySet().retainAll(liveKeys);
+        RULE_RELOADS.increment();
+        LOGGER.log(Level.INFO, "Reloaded " + next.rules.size() + " rules and " + next.thresholdRules.size() + " threshold rules");
+    }
+
+    public int getRuleCount() {
+        RuleSet current = ruleSet.get();
+        return current.rules.size() + current.thresholdRules.size() + current.distinctRules.size() + current.heavyHitterRules.size()
+                + current.sequenceRules.size() + current.indicatorRules.size();
+    }
+
+    // Cost of every regex rule, including threshold, sketch and sequence-step rules, highest
+    // estimated CPU time first; see RuleProfile.report
+    public List<RuleProfile> getRuleProfiles() {
+        RuleSet current = ruleSet.get();
+        List<RuleProfile> profiles = new ArrayList<>();
+        for (List<? extends Rule> rules : Arrays.asList(current.rules, current.thresholdRules, current.distinctRules,
+                current.heavyHitterRules, current.sequenceSteps)) {
+            for (Rule rule : rules) {
+                profiles.add(rule.getProfile());
+            }
+        }
+        profiles.sort(Comparator.comparingDouble(RuleProfile::getEstimatedCpuNanos).reversed());
+        return profiles;
+    }
+
+    public int getQuarantinedRuleCount() {
+        int count = 0;
+        for (RuleProfile profile : getRuleProfiles()) {
+            if (profile.getQuarantineReason() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Indicators loaded by IOC rules, across all their lists
+    public long getIndicatorCount() {
+        long count = 0;
+        for (IndicatorRule indicatorRule : ruleSet.get().indicatorRules) {
+            count += indicatorRule.getIndicatorList().size();
+        }
+        return count;
+    }
+
+    // The current top talkers of a heavy-hitter rule, largest count first
+    public List<SpaceSaving.Entry> getTopTalkers(int heavyHitterId) {
+        for (HeavyHitterRule heavyHitterRule : ruleSet.get().heavyHitterRules) {
+            if (heavyHitterRule.getId() == heavyHitterId) {
+                return heavyHitterRule.getHeavyHitterCounter().topTalkers();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // Memory held by the sketches of distinct and heavy-hitter rules
+    public long getSketchMemoryBytes() {
+        RuleSet current = ruleSet.get();
+        long bytes = 0;
+        for (DistinctRule distinctRule : current.distinctRules) {
+            bytes += distinctRule.getDistinctCounter().memoryBytes();
+        }
+        for (HeavyHitterRule heavyHitterRule : current.heavyHitterRules) {
+            bytes += heavyHitterRule.getHeavyHitterCounter().memoryBytes();
+        }
+        for (IndicatorRule indicatorRule : current.indicatorRules) {
+            bytes += indicatorRule.getIndicatorList().memoryBytes();
+        }
+        return bytes;
+    }
+
+    // Writes the compiled form of the current rules for RuleBasedDetector(Properties, ByteBuffer)
+    public void writeCompiledRules(DataOutputStream out) throws IOException {
+        RuleSet current = ruleSet.get();
+        List<RuleIndex<?>> indexes = current.ruleIndex == null ? Collections.emptyList() : Arrays.asList(current.ruleIndex,
+                current.thresholdRuleIndex, current.distinctRuleIndex, current.heavyHitterRuleIndex, current.sequenceStepIndex);
+        CompiledRules.write(out, current.properties, allRules(current.rules, current.thresholdRules, current.distinctRules,
+                current.heavyHitterRules, current.sequenceSteps), indexes);
+    }
+
+    private static List<Rule> allRules(List<Rule> rules, List<ThresholdRule> thresholdRules, List<DistinctRule> distinctRules,
+                                       List<HeavyHitterRule> heavyHitterRules, List<SequenceStep> sequenceSteps) {
+        List<Rule> allRules = new ArrayList<>(rules);
+        allRules.addAll(thresholdRules);
+        allRules.addAll(distinctRules);
+        allRules.addAll(heavyHitterRules);
+        allRules.addAll(sequenceSteps);
+        return allRules;
+    }
+
+    private RuleSet compile(Properties properties, RuleSet previous, CompiledRules compiled) {
+        List<Rule> rules = new ArrayList<>();
+        List<ThresholdRule> thresholdRules = new ArrayList<>();
+        List<DistinctRule> distinctRules = new ArrayList<>();
+        List<HeavyHitterRule> heavyHitterRules = new ArrayList<>();
+        List<SequenceRule> sequenceRules = new ArrayList<>();
+        List<IndicatorRule> indicatorRules = new ArrayList<>();
+        loadRules(properties, rules, thresholdRules, distinctRules, heavyHitterRules, sequenceRules, indicatorRules, compiled != null);
+        Map<String, Rule> previousRules = new HashMap<>();
+        if (previous != null) {
+            for (Rule rule : allRules(previous.rules, previous.thresholdRules, previous.distinctRules,
+                    previous.heavyHitterRules, previous.sequenceSteps)) {
+                previousRules.put(rule.getName(), rule);
+            }
+        }
+        for (Rule rule : rules) {
+            rule.setName("rule" + rule.getId(), previousRules);
+        }
+        for (ThresholdRule thresholdRule : thresholdRules) {
+            thresholdRule.setName("threshold" + thresholdRule.getId(), previousRules);
+        }
+        for (DistinctRule distinctRule : distinctRules) {
+            distinctRule.setName("distinct" + distinctRule.getId(), previousRules);
+        }
+        for (HeavyHitterRule heavyHitterRule : heavyHitterRules) {
+            heavyHitterRule.setName("heavyHitter" + heavyHitterRule.getId(), previousRules);
+        }
+        List<SequenceStep> sequenceSteps = new ArrayList<>();
+        for (SequenceRule sequenceRule : sequenceRules) {
+            sequenceRule.validate();
+            for (SequenceStep step : sequenceRule.getSteps()) {
+                step.setName("sequence" + sequenceRule.getId() + "-step" + (step.getStepIndex() + 1), previousRules);
+                sequenceSteps.add(step);
+            }
+        }
+
+        // Rule regexes are bounded by the time budget; patterns that can backtrack
+        // catastrophically are reported at load time and, if so configured, never run
+        long timeBudgetNanos = (long) (Double.parseDouble(properties.getProperty("detector.rule.timeBudgetMillis", "50")) * 1_000_000);
+        int maxTimeouts = Integer.parseInt(properties.getProperty("detector.rule.maxTimeouts", "3"));
+        boolean quarantineUnsafe = "quarantine".equals(properties.getProperty("detector.rule.unsafePatterns", "warn"));
+        for (Rule rule : allRules(rules, thresholdRules, distinctRules, heavyHitterRules, sequenceSteps)) {
+            if (rule.getMessageRegex() == null) {
+                continue;
+            }
+            RegexSafety safety = compiled != null ? compiled.safety(rule.getName()) : null;
+            if (safety == null) {
+                safety = RegexSafety.analyze(rule.getMessageRegex());
+            }
+            // Checking the budget costs about a fifth of a cheap evaluation, so patterns that
+            // cannot backtrack superlinearly run without it
+            rule.setTimeBudget(safety.superlinear() ? timeBudgetNanos : 0, maxTimeouts);
+            if (safety.unsafeReason() != null) {
+                if (quarantineUnsafe) {
+                    rule.quarantine("unsafe pattern: " + safety.unsafeReason());
+                } else {
+                    LOGGER.log(Level.WARNING, "Rule pattern may backtrack catastrophically, " + safety.unsafeReason() + ": " + rule.getMessageRegex());
+                }
+            }
+        }
+
+        Map<String, WindowedCounter> previousCounters = new HashMap<>();
+        if (previous != null) {
+            for (ThresholdRule thresholdRule : previous.thresholdRules) {
+                if (thresholdRule.getWindowedCounter() != null) {
+                    previousCounters.put(thresholdRule.getDefinition(), thresholdRule.getWindowedCounter());
+                }
+            }
+        }
+        int windowBuckets = Integer.parseInt(properties.getProperty("detector.window.buckets", "10"));
+        int windowMaxKeys = Integer.parseInt(properties.getProperty("detector.window.maxKeys", "1000000"));
+        for (ThresholdRule thresholdRule : thresholdRules) {
+            if (thresholdRule.getWindowSeconds() > 0) {
+                WindowedCounter windowedCounter = previousCounters.get(thresholdRule.getDefinition());
+                thresholdRule.setWindowedCounter(windowedCounter != null ? windowedCounter : new WindowedCounter(
+                        thresholdRule.getWindowSeconds() * 1000L, windowBuckets, windowMaxKeys));
+            }
+        }
+
+        // Sketch rules keep their sketches across a reload when their definition is unchanged
+        Map<String, DistinctCounter> previousDistinctCounters = new HashMap<>();
+        Map<String, HeavyHitterCounter> previousHeavyHitterCounters = new HashMap<>();
+        if (previous != null) {
+            for (DistinctRule distinctRule : previous.distinctRules) {
+                previousDistinctCounters.put(distinctRule.getDefinition(), distinctRule.getDistinctCounter());
+            }
+            for (HeavyHitterRule heavyHitterRule : previous.heavyHitterRules) {
+                previousHeavyHitterCounters.put(heavyHitterRule.getDefinition(), heavyHitterRule.getHeavyHitterCounter());
+            }
+        }
+        for (DistinctRule distinctRule : distinctRules) {
+            DistinctCounter distinctCounter = previousDistinctCounters.get(distinctRule.getDefinition());
+            distinctRule.setDistinctCounter(distinctCounter != null ? distinctCounter : new DistinctCounter(
+                    distinctRule.getPrecision(), distinctRule.getWindowSeconds() * 1000L, distinctRule.getMaxGroups()));
+        }
+        for (HeavyHitterRule heavyHitterRule : heavyHitterRules) {
+            HeavyHitterCounter heavyHitterCounter = previousHeavyHitterCounters.get(heavyHitterRule.getDefinition());
+            heavyHitterRule.setHeavyHitterCounter(heavyHitterCounter != null ? heavyHitterCounter : new HeavyHitterCounter(
+                    heavyHitterRule.getEpsilon(), heavyHitterRule.getConfidence(), heavyHitterRule.getTopK(),
+                    heavyHitterRule.getWindowSeconds() * 1000L));
+        }
+
+        Map<String, SequenceTracker> previousSequenceTrackers = new HashMap<>();
+        if (previous != null) {
+            for (SequenceRule sequenceRule : previous.sequenceRules) {
+                previousSequenceTrackers.put(sequenceRule.getDefinition(), sequenceRule.getSequenceTracker());
+            }
+        }
+        for (SequenceRule sequenceRule : sequenceRules) {
+            SequenceTracker sequenceTracker = previousSequenceTrackers.get(sequenceRule.getDefinition());
+            sequenceRule.setSequenceTracker(sequenceTracker != null ? sequenceTracker : new SequenceTracker(
+                    sequenceRule.getSteps().size(), sequenceRule.getWindowSeconds() * 1000L, sequenceRule.getMaxPartialMatches()));
+        }
+
+        // Indicator lists are loaded last, so a rules file that fails to compile loads none
+        Map<String, IndicatorList> previousIndicatorLists = new HashMap<>();
+        if (previous != null) {
+            for (IndicatorRule indicatorRule : previous.indicatorRules) {
+                previousIndicatorLists.put(indicatorRule.getDefinition(), indicatorRule.getIndicatorList());
+            }
+        }
+        for (IndicatorRule indicatorRule : indicatorRules) {
+            if (indicatorRule.getFiles().isEmpty()) {
+                throw new IllegalArgumentException("ioc" + indicatorRule.getId() + " needs a file");
+            }
+        }
+        List<IndicatorList> loadedIndicatorLists = new ArrayList<>();
+        try {
+            for (IndicatorRule indicatorRule : indicatorRules) {
+                IndicatorList indicatorList = previousIndicatorLists.get(indicatorRule.getDefinition());
+                if (indicatorList == null) {
+                    indicatorList = new IndicatorList(indicatorRule.getFiles(), indicatorRule.isCaseSensitive(), indicatorRule.getRefreshSeconds());
+                    loadedIndicatorLists.add(indicatorList);
+                }
+                indicatorRule.setIndicatorList(indicatorList);
+            }
+        } catch (IOException e) {
+            loadedIndicatorLists.forEach(IndicatorList::close);
+            throw new UncheckedIOException("Error loading indicator list", e);
+        }
+
+        // "linear" keeps the original rule-by-rule loop, mainly for benchmarking against the index
+        boolean indexed = !"linear".equals(properties.getProperty("detector.engine", "indexed"));
+        return new RuleSet(properties, rules, thresholdRules, distinctRules, heavyHitterRules, sequenceRules, sequenceSteps,
+                indicatorRules, indexed, compiled);
+    }
+
+    // Stops refreshing the indicator lists that the new rule set no longer uses
+    private static void closeUnusedIndicatorLists(RuleSet previous, RuleSet next) {
+        Set<IndicatorList> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IndicatorRule indicatorRule : next.indicatorRules) {
+            live.add(indicatorRule.getIndicatorList());
+        }
+        for (IndicatorRule indicatorRule : previous.indicatorRules) {
+            if (!live.contains(indicatorRule.getIndicatorList())) {
+                indicatorRule.getIndicatorList().close();
+            }
+        }
+    }
+
+    // One pass over the keys with a map from id to rule, so loading is linear in the number of keys
+    private static void loadRules(Properties properties, List<Rule> rules, List<ThresholdRule> thresholdRules,
+                                  List<DistinctRule> distinctRules, List<HeavyHitterRule> heavyHitterRules,
+                                  List<SequenceRule> sequenceRules, List<IndicatorRule> indicatorRules, boolean validated) {
+        Map<Integer, Rule> rulesById = new HashMap<>();
+        Map<Integer, ThresholdRule> thresholdRulesById = new HashMap<>();
+        Map<Integer, DistinctRule> distinctRulesById = new HashMap<>();
+        Map<Integer, HeavyHitterRule> heavyHitterRulesById = new HashMap<>();
+        Map<Integer, SequenceRule> sequenceRulesById = new HashMap<>();
+        Map<Integer, IndicatorRule> indicatorRulesById = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith("rule")) {
+                String[] parts = key.split("\\.");
+                int ruleId = Integer.parseInt(parts[0].substring(4));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                Rule rule = rulesById.computeIfAbsent(ruleId, id -> {
+                    Rule newRule = new Rule(id);
+                    rules.add(newRule);
+                    return newRule;
+                });
+
+                switch (attribute) {
+                    case "logLevel":
+                        rule.setLogLevel(value);
+                        break;
+                    case "messagePattern":
+                        setMessagePattern(rule, value, validated);
+                        break;
+                    case "description":
+                        rule.setDescription(value);
+                        break;
+                }
+            } else if (key.startsWith("threshold")) {
+                String[] parts = key.split("\\.");
+                int thresholdId = Integer.parseInt(parts[0].substring(9));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                ThresholdRule thresholdRule = thresholdRulesById.computeIfAbsent(thresholdId, id -> {
+                    ThresholdRule newThresholdRule = new ThresholdRule(id);
+                    thresholdRules.add(newThresholdRule);
+                    return newThresholdRule;
+                });
+
+                switch (attribute) {
+                    case "logLevel":
+                        thresholdRule.setLogLevel(value);
+                        break;
+                    case "messagePattern":
+                        setMessagePattern(thresholdRule, value, validated);
+                        break;
+                    case "description":
+                        thresholdRule.setDescription(value);
+                        break;
+                    case "threshold":
+                        thresholdRule.setThreshold(Integer.parseInt(value));
+                        break;
+                    case "window":
+                        thresholdRule.setWindowSeconds(Long.parseLong(value));
+                        break;
+                    case "groupBy":
+                        thresholdRule.setGroupBy(value);
+                        break;
+                }
+            } else if (key.startsWith("distinct")) {
+                String[] parts = key.split("\\.");
+                int distinctId = Integer.parseInt(parts[0].substring(8));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                DistinctRule distinctRule = distinctRulesById.computeIfAbsent(distinctId, id -> {
+                    DistinctRule newDistinctRule = new DistinctRule(id);
+                    distinctRules.add(newDistinctRule);
+                    return newDistinctRule;
+                });
+
+                switch (attribute) {
+                    case "logLevel":
+                        distinctRule.setLogLevel(value);
+                        break;
+                    case "messagePattern":
+                        setMessagePattern(distinctRule, value, validated);
+                        break;
+                    case "description":
+                        distinctRule.setDescription(value);
+                        break;
+                    case "groupBy":
+                        distinctRule.setGroupBy(value);
+                        break;
+                    case "field":
+                        distinctRule.setField(value);
+                        break;
+                    case "threshold":
+                        distinctRule.setThreshold(Integer.parseInt(value));
+                        break;
+                    case "window":
+                        distinctRule.setWindowSeconds(Long.parseLong(value));
+                        break;
+                    case "precision":
+                        distinctRule.setPrecision(Integer.parseInt(value));
+                        break;
+                    case "maxGroups":
+                        distinctRule.setMaxGroups(Integer.parseInt(value));
+                        break;
+                }
+            } else if (key.startsWith("heavyHitter")) {
+                String[] parts = key.split("\\.");
+                int heavyHitterId = Integer.parseInt(parts[0].substring(11));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                HeavyHitterRule heavyHitterRule = heavyHitterRulesById.computeIfAbsent(heavyHitterId, id -> {
+                    HeavyHitterRule newHeavyHitterRule = new HeavyHitterRule(id);
+                    heavyHitterRules.add(newHeavyHitterRule);
+                    return newHeavyHitterRule;
+                });
+
+                switch (attribute) {
+                    case "logLevel":
+                        heavyHitterRule.setLogLevel(value);
+                        break;
+                    case "messagePattern":
+                        setMessagePattern(heavyHitterRule, value, validated);
+                        break;
+                    case "description":
+                        heavyHitterRule.setDescription(value);
+                        break;
+                    case "groupBy":
+                        heavyHitterRule.setGroupBy(value);
+                        break;
+                    case "threshold":
+                        heavyHitterRule.setThreshold(Integer.parseInt(value));
+                        break;
+                    case "window":
+                        heavyHitterRule.setWindowSeconds(Long.parseLong(value));
+                        break;
+                    case "epsilon":
+                        heavyHitterRule.setEpsilon(Double.parseDouble(value));
+                        break;
+                    case "confidence":
+                        heavyHitterRule.setConfidence(Double.parseDouble(value));
+                        break;
+                    case "topK":
+                        heavyHitterRule.setTopK(Integer.parseInt(value));
+                        break;
+                }
+            } else if (key.startsWith("sequence")) {
+                // sequenceN.<attribute> or sequenceN.stepM.<attribute>
+                String[] parts = key.split("\\.");
+                int sequenceId = Integer.parseInt(parts[0].substring(8));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                SequenceRule sequenceRule = sequenceRulesById.computeIfAbsent(sequenceId, id -> {
+                    SequenceRule newSequenceRule = new SequenceRule(id);
+                    sequenceRules.add(newSequenceRule);
+                    return newSequenceRule;
+                });
+
+                if (attribute.startsWith("step") && parts.length > 2) {
+                    SequenceStep step = sequenceRule.getStep(Integer.parseInt(attribute.substring(4)));
+                    switch (parts[2]) {
                         case "logLevel":
-                            thresholdRule.setLogLevel(value);
+                            step.setLogLevel(value);
                             break;
                         case "messagePattern":
-                            thresholdRule.setMessagePattern(Pattern.compile(value));
-                            break;
-                        case "description":
-                            thresholdRule.setDescription(value);
-                            break;
-                        case "threshold":
-                            thresholdRule.setThreshold(Integer.parseInt(value));
+                            setMessagePattern(step, value, validated);
                             break;
                     }
+                    continue;
+                }
+                switch (attribute) {
+                    case "description":
+                        sequenceRule.setDescription(value);
+                        break;
+                    case "groupBy":
+                        sequenceRule.setGroupBy(value);
+                        break;
+                    case "distinctBy":
+                        sequenceRule.setDistinctBy(value);
+                        break;
+                    case "window":
+                        sequenceRule.setWindowSeconds(Long.parseLong(value));
+                        break;
+                    case "maxPartialMatches":
+                        sequenceRule.setMaxPartialMatches(Integer.parseInt(value));
+                        break;
+                }
+            } else if (key.startsWith("ioc")) {
+                String[] parts = key.split("\\.");
+                int indicatorId = Integer.parseInt(parts[0].substring(3));
+                String attribute = parts[1];
+                String value = properties.getProperty(key);
+
+                IndicatorRule indicatorRule = indicatorRulesById.computeIfAbsent(indicatorId, id -> {
+                    IndicatorRule newIndicatorRule = new IndicatorRule(id);
+                    indicatorRules.add(newIndicatorRule);
+                    return newIndicatorRule;
+                });
+
+                switch (attribute) {
+                    case "description":
+                        indicatorRule.setDescription(value);
+                        break;
+                    case "file":
+                        List<Path> files = new ArrayList<>();
+                        for (String file : value.split(",")) {
+                            files.add(Paths.get(file.trim()));
+                        }
+                        indicatorRule.setFiles(files);
+                        break;
+                    case "fields":
+                        List<String> fields = new ArrayList<>();
+                        for (String field : value.split(",")) {
+                            fields.add(field.trim());
+                        }
+                        indicatorRule.setFields(fields);
+                        break;
+                    case "caseSensitive":
+                        indicatorRule.setCaseSensitive(Boolean.parseBoolean(value));
+                        break;
+                    case "refreshSeconds":
+                        indicatorRule.setRefreshSeconds(Long.parseLong(value));
+                        break;
                 }
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
         }
     }
 
+    // Patterns of rules validated when they were compiled are compiled on first use; any other
+    // pattern is compiled now, so that a bad one fails the load
+    private static void setMessagePattern(Rule rule, String regex, boolean validated) {
+        if (validated) {
+            rule.setMessageRegex(regex);
+        } else {
+            rule.setMessagePattern(Pattern.compile(regex));
+        }
+    }
+
+    // Safe to call from several threads at once; threshold rules still fire exactly once per crossing
     public List<String> detectSuspiciousActivity(Map<String, String> parsedLog) {
+        boolean timed = Metrics.sample();
+        long start = timed ? System.nanoTime() : 0;
+        List<String> alerts = evaluateRules(parsedLog);
+        EVENTS_DETECTED.increment();
+        ALERTS_RAISED.add(alerts.size());
+        if (timed) {
+            DETECT_LATENCY.record(System.nanoTime() - start);
+        }
+        return alerts;
+    }
+
+    private List<String> evaluateRules(Map<String, String> parsedLog) {
         List<String> alerts = new ArrayList<>();
+        RuleSet current = ruleSet.get();
+        // Rules compare log levels by dictionary ID, so the event's level is looked up only once
+        int levelId = FieldDictionary.LOG_LEVELS.id(parsedLog.get("logLevel"));
+        for (IndicatorRule indicatorRule : current.indicatorRules) {
+            matchIndicators(indicatorRule, parsedLog, alerts);
+        }
 
-        for (Rule rule : rules) {
-            if (rule.matches(parsedLog)) {
+        if (current.ruleIndex != null) {
+            for (Rule rule : current.ruleIndex.matches(parsedLog, levelId)) {
                 alerts.add(rule.getDescription());
             }
+            for (ThresholdRule thresholdRule : current.thresholdRuleIndex.matches(parsedLog, levelId)) {
+                countThresholdMatch(thresholdRule, parsedLog, alerts);
+            }
+            for (DistinctRule distinctRule : current.distinctRuleIndex.matches(parsedLog, levelId)) {
+                countDistinctMatch(distinctRule, parsedLog, alerts);
+            }
+            for (HeavyHitterRule heavyHitterRule : current.heavyHitterRuleIndex.matches(parsedLog, levelId)) {
+                countHeavyHitterMatch(heavyHitterRule, parsedLog, alerts);
+            }
+            advanceSequences(current.sequenceStepIndex.matches(parsedLog, levelId), parsedLog, alerts);
+            return alerts.isEmpty() ? Collections.emptyList() : alerts;
         }
 
-        for (ThresholdRule thresholdRule : thresholdRules) {
-            if (thresholdRule.matches(parsedLog)) {
-                String key = thresholdRule.getLogLevel() + ":" + thresholdRule.getMessagePattern();
-                int count = eventCounts.getOrDefault(key, 0) + 1;
-                eventCounts.put(key, count);
-                if (count >= thresholdRule.getThreshold()) {
-                    alerts.add(thresholdRule.getDescription());
-                    eventCounts.put(key, 0);  // Reset the count after alerting
+        for (Rule rule : current.rules) {
+            if (rule.matches(parsedLog, levelId)) {
+                alerts.add(rule.getDescription());
+            }
+        }
+
+        for (ThresholdRule thresholdRule : current.thresholdRules) {
+            if (thresholdRule.matches(parsedLog, levelId)) {
+                countThresholdMatch(thresholdRule, parsedLog, alerts);
+            }
+        }
+
+        for (DistinctRule distinctRule : current.distinctRules) {
+            if (distinctRule.matches(parsedLog, levelId)) {
+                countDistinctMatch(distinctRule, parsedLog, alerts);
+            }
+        }
+
+        for (HeavyHitterRule heavyHitterRule : current.heavyHitterRules) {
+            if (heavyHitterRule.matches(parsedLog, levelId)) {
+                countHeavyHitterMatch(heavyHitterRule, parsedLog, alerts);
+            }
+        }
+
+        List<SequenceStep> matchedSteps = Collections.emptyList();
+        for (SequenceStep step : current.sequenceSteps) {
+            if (step.matches(parsedLog, levelId)) {
+                if (matchedSteps.isEmpty()) {
+                    matchedSteps = new ArrayList<>();
                 }
+                matchedSteps.add(step);
             }
         }
+        advanceSequences(matchedSteps, parsedLog, alerts);
 
         return alerts.isEmpty() ? Collections.emptyList() : alerts;
     }
+
+    private void countThresholdMatch(ThresholdRule thresholdRule, Map<String, String> parsedLog, List<String> alerts) {
+        WindowedCounter windowedCounter = thresholdRule.getWindowedCounter();
+        if (windowedCounter != null) {
+            // Windowed rules count per group value within the window, by event time
+            String group = thresholdRule.getGroupBy() == null ? "" : parsedLog.getOrDefault(thresholdRule.getGroupBy(), "");
+            if (windowedCounter.incrementAndCheck(group, eventTime(parsedLog), thresholdRule.getThreshold())) {
+                alerts.add(thresholdRule.getDescription());
+            }
+            return;
+        }
+
+        AtomicLong counter = eventCounts.computeIfAbsent(countKey(thresholdRule), k -> new AtomicLong());
+        // Each increment is observed by exactly one caller, so only the caller that lands on a
+        // multiple of the threshold alerts; this equals counting up and resetting after each alert
+        long count = counter.incrementAndGet();
+        int threshold = thresholdRule.getThreshold();
+        if (threshold <= 1 || count % threshold == 0) {
+            alerts.add(thresholdRule.getDescription());
+        }
+    }
+
+    // Distinct rules count distinct values of one field per group, e.g. user IDs per client IP
+    private void countDistinctMatch(DistinctRule distinctRule, Map<String, String> parsedLog, List<String> alerts) {
+        String value = parsedLog.get(distinctRule.getField());
+        if (value == null) {
+            return;
+        }
+        String group = distinctRule.getGroupBy() == null ? "" : parsedLog.getOrDefault(distinctRule.getGroupBy(), "");
+        if (distinctRule.getDistinctCounter().addAndCheck(group, value, eventTime(parsedLog), distinctRule.getThreshold())) {
+            alerts.add(distinctRule.getGroupBy() == null ? distinctRule.getDescription()
+                    : distinctRule.getDescription() + " (" + distinctRule.getGroupBy() + "=" + group + ")");
+        }
+    }
+
+    // Heavy-hitter rules count matches per value of the groupBy field, e.g. errors per client IP
+    private void countHeavyHitterMatch(HeavyHitterRule heavyHitterRule, Map<String, String> parsedLog, List<String> alerts) {
+        String key = parsedLog.get(heavyHitterRule.getGroupBy());
+        if (key == null) {
+            return;
+        }
+        if (heavyHitterRule.getHeavyHitterCounter().addAndCheck(key, eventTime(parsedLog), heavyHitterRule.getThreshold())) {
+            alerts.add(heavyHitterRule.getDescription() + " (" + heavyHitterRule.getGroupBy() + "=" + key + ")");
+        }
+    }
+
+    // Matched steps arrive grouped by sequence, so each sequence sees all the steps this event
+    // matched at once
+    private void advanceSequences(List<SequenceStep> matchedSteps, Map<String, String> parsedLog, List<String> alerts) {
+        SequenceRule sequenceRule = null;
+        long stepMask = 0;
+        for (SequenceStep step : matchedSteps) {
+            if (step.getSequenceRule() != sequenceRule) {
+                if (sequenceRule != null) {
+                    advanceSequence(sequenceRule, stepMask, parsedLog, alerts);
+                }
+                sequenceRule = step.getSequenceRule();
+                stepMask = 0;
+            }
+            stepMask |= 1L << step.getStepIndex();
+        }
+        if (sequenceRule != null) {
+            advanceSequence(sequenceRule, stepMask, parsedLog, alerts);
+        }
+    }
+
+    // Sequence rules follow each groupBy value through their steps, e.g. a failed login then a
+    // successful one for the same user; events without the groupBy field are not part of any
+    private void advanceSequence(SequenceRule sequenceRule, long stepMask, Map<String, String> parsedLog, List<String> alerts) {
+        String key = sequenceRule.getGroupBy() == null ? "" : parsedLog.get(sequenceRule.getGroupBy());
+        if (key == null) {
+            return;
+        }
+        String distinctValue = sequenceRule.getDistinctBy() == null ? null : parsedLog.getOrDefault(sequenceRule.getDistinctBy(), "");
+        if (sequenceRule.getSequenceTracker().advance(key, stepMask, eventTime(parsedLog), distinctValue)) {
+            alerts.add(sequenceRule.getGroupBy() == null ? sequenceRule.getDescription()
+                    : sequenceRule.getDescription() + " (" + sequenceRule.getGroupBy() + "=" + key + ")");
+        }
+    }
+
+    // IOC rules look the listed fields up in their indicator list and alert on the first hit
+    private void matchIndicators(IndicatorRule indicatorRule, Map<String, String> parsedLog, List<String> alerts) {
+        for (String field : indicatorRule.getFields()) {
+            String value = parsedLog.get(field);
+            if (value == null) {
+                continue;
+            }
+            String indicator = indicatorRule.getIndicatorList().match(value);
+            if (indicator != null) {
+                alerts.add(indicatorRule.getDescription() + " (" + field + "=" + indicator + ")");
+                return;
+            }
+        }
+    }
+
+    // Events without a timestamp, or with one that does not parse, count at the time of detection
+    private static long eventTime(Map<String, String> parsedLog) {
+        String epochMillis = parsedLog.get("epochMillis");
+        if (epochMillis != null) {
+            try {
+                return Long.parseLong(epochMillis);
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    private static String countKey(ThresholdRule thresholdRule) {
+        return thresholdRule.getLogLevel() + ":" + thresholdRule.getMessageRegex();
+    }
+
+    // An immutable, fully compiled rule set; never modified after it is published
+    private static final class RuleSet {
+        final Properties properties;
+        final List<Rule> rules;
+        final List<ThresholdRule> thresholdRules;
+        final List<DistinctRule> distinctRules;
+        final List<HeavyHitterRule> heavyHitterRules;
+        final List<SequenceRule> sequenceRules;
+        final List<SequenceStep> sequenceSteps;
+        final List<IndicatorRule> indicatorRules;
+        final RuleIndex<Rule> ruleIndex;
+        final RuleIndex<ThresholdRule> thresholdRuleIndex;
+        final RuleIndex<DistinctRule> distinctRuleIndex;
+        final RuleIndex<HeavyHitterRule> heavyHitterRuleIndex;
+        final RuleIndex<SequenceStep> sequenceStepIndex;
+
+        RuleSet(Properties properties, List<Rule> rules, List<ThresholdRule> thresholdRules,
+                List<DistinctRule> distinctRules, List<HeavyHitterRule> heavyHitterRules,
+                List<SequenceRule> sequenceRules, List<SequenceStep> sequenceSteps, List<IndicatorRule> indicatorRules,
+                boolean indexed, CompiledRules compiled) {
+            this.properties = properties;
+            this.rules = Collections.unmodifiableList(rules);
+            this.thresholdRules = Collections.unmodifiableList(thresholdRules);
+            this.distinctRules = Collections.unmodifiableList(distinctRules);
+            this.heavyHitterRules = Collections.unmodifiableList(heavyHitterRules);
+            this.sequenceRules = Collections.unmodifiableList(sequenceRules);
+            this.sequenceSteps = Collections.unmodifiableList(sequenceSteps);
+            this.indicatorRules = Collections.unmodifiableList(indicatorRules);
+            ruleIndex = indexed ? index(compiled, 0, rules) : null;
+            thresholdRuleIndex = indexed ? index(compiled, 1, thresholdRules) : null;
+            distinctRuleIndex = indexed ? index(compiled, 2, distinctRules) : null;
+            heavyHitterRuleIndex = indexed ? index(compiled, 3, heavyHitterRules) : null;
+            sequenceStepIndex = indexed ? index(compiled, 4, sequenceSteps) : null;
+        }
+
+        // kind is the position of the index in writeCompiledRules
+        private static <R extends Rule> RuleIndex<R> index(CompiledRules compiled, int kind, List<R> rules) {
+            return compiled != null ? compiled.index(kind, rules) : new RuleIndex<>(rules);
+        }
+    }
+}
+
+class ThresholdRule extends Rule {
+    private int threshold;
+    private long windowSeconds;
+    private String groupBy;
+    private WindowedCounter windowedCounter;
+
+    public ThresholdRule(int id) {
+        super(id);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public WindowedCounter getWindowedCounter() {
+        return windowedCounter;
+    }
+
+    public void setWindowedCounter(WindowedCounter windowedCounter) {
+        this.windowedCounter = windowedCounter;
+    }
+
+    // Everything that decides what a windowed count means; a reload keeps the window state only
+    // for rules whose definition is unchanged
+    public String getDefinition() {
+        return getId() + "|" + getLogLevel() + "|" + getMessageRegex() + "|" + threshold + "|" + windowSeconds + "|" + groupBy;
+    }
+}
+
+class DistinctRule extends Rule {
+    private String groupBy;
+    private String field;
+    private int threshold;
+    private long windowSeconds;
+    private int precision = 10;
+    private int maxGroups = 10000;
+    private DistinctCounter distinctCounter;
+
+    public DistinctRule(int id) {
+        super(id);
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(int precision) {
+        this.precision = precision;
+    }
+
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    public void setMaxGroups(int maxGroups) {
+        this.maxGroups = maxGroups;
+    }
+
+    public DistinctCounter getDistinctCounter() {
+        return distinctCounter;
+    }
+
+    public void setDistinctCounter(DistinctCounter distinctCounter) {
+        this.distinctCounter = distinctCounter;
+    }
+
+    public String getDefinition() {
+        return getId() + "|" + getLogLevel() + "|" + getMessageRegex() + "|" + groupBy + "|" + field + "|" + threshold
+                + "|" + windowSeconds + "|" + precision + "|" + maxGroups;
+    }
 }
 
-class Rule {
+class HeavyHitterRule extends Rule {
+    private String groupBy;
+    private int threshold;
+    private long windowSeconds;
+    private double epsilon = 0.001;
+    private double confidence = 0.99;
+    private int topK = 10;
+    private HeavyHitterCounter heavyHitterCounter;
+
+    public HeavyHitterRule(int id) {
+        super(id);
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public HeavyHitterCounter getHeavyHitterCounter() {
+        return heavyHitterCounter;
+    }
+
+    public void setHeavyHitterCounter(HeavyHitterCounter heavyHitterCounter) {
+        this.heavyHitterCounter = heavyHitterCounter;
+    }
+
+    public String getDefinition() {
+        return getId() + "|" + getLogLevel() + "|" + getMessageRegex() + "|" + groupBy + "|" + threshold
+                + "|" + windowSeconds + "|" + epsilon + "|" + confidence + "|" + topK;
+    }
+}
+
+class SequenceRule {
     private int id;
-    private String logLevel;
-    private Pattern messagePattern;
     private String description;
+    private String groupBy;
+    private String distinctBy;
+    private long windowSeconds;
+    private int maxPartialMatches = 100000;
+    private TreeMap<Integer, SequenceStep> steps = new TreeMap<>();
+    private List<SequenceStep> orderedSteps;
+    private SequenceTracker sequenceTracker;
 
-    public Rule(int id) {
+    public SequenceRule(int id) {
         this.id = id;
     }
 
@@ -128,20 +1111,125 @@ class Rule {
         return id;
     }
 
-    public String getLogLevel() {
-        return logLevel;
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public String getDistinctBy() {
+        return distinctBy;
+    }
+
+    public void setDistinctBy(String distinctBy) {
+        this.distinctBy = distinctBy;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getMaxPartialMatches() {
+        return maxPartialMatches;
+    }
+
+    public void setMaxPartialMatches(int maxPartialMatches) {
+        this.maxPartialMatches = maxPartialMatches;
     }
 
-    public void setLogLevel(String logLevel) {
-        this.logLevel = logLevel;
+    // Steps are numbered from 1 in the rules file
+    public SequenceStep getStep(int number) {
+        return steps.computeIfAbsent(number, n -> new SequenceStep(this, n - 1));
     }
 
-    public Pattern getMessagePattern() {
-        return messagePattern;
+    public List<SequenceStep> getSteps() {
+        return orderedSteps;
     }
 
-    public void setMessagePattern(Pattern messagePattern) {
-        this.messagePattern = messagePattern;
+    // Steps must be numbered 1..n without gaps and each needs a log level and a message pattern
+    public void validate() {
+        if (steps.isEmpty() || steps.size() > 64 || steps.firstKey() != 1 || steps.lastKey() != steps.size()) {
+            throw new IllegalArgumentException("sequence" + id + " needs steps numbered 1 to n, at most 64");
+        }
+        for (SequenceStep step : steps.values()) {
+            if (step.getLogLevel() == null || step.getMessageRegex() == null) {
+                throw new IllegalArgumentException("sequence" + id + ".step" + (step.getStepIndex() + 1)
+                        + " needs a logLevel and a messagePattern");
+            }
+        }
+        orderedSteps = Collections.unmodifiableList(new ArrayList<>(steps.values()));
+    }
+
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    public void setSequenceTracker(SequenceTracker sequenceTracker) {
+        this.sequenceTracker = sequenceTracker;
+    }
+
+    public String getDefinition() {
+        StringBuilder definition = new StringBuilder();
+        definition.append(id).append('|').append(groupBy).append('|').append(distinctBy).append('|')
+                .append(windowSeconds).append('|').append(maxPartialMatches);
+        for (SequenceStep step : steps.values()) {
+            definition.append('|').append(step.getLogLevel()).append(':').append(step.getMessageRegex());
+        }
+        return definition.toString();
+    }
+}
+
+class SequenceStep extends Rule {
+    private SequenceRule sequenceRule;
+    private int stepIndex;
+
+    public SequenceStep(SequenceRule sequenceRule, int stepIndex) {
+        super(sequenceRule.getId());
+        this.sequenceRule = sequenceRule;
+        this.stepIndex = stepIndex;
+    }
+
+    public SequenceRule getSequenceRule() {
+        return sequenceRule;
+    }
+
+    // Zero-based
+    public int getStepIndex() {
+        return stepIndex;
+    }
+}
+
+// Matches parsed fields against a list of indicators of compromise loaded from files, e.g.
+// known bad IPs or file hashes. Not a Rule: it has no log level or message pattern.
+class IndicatorRule {
+    private int id;
+    private String description;
+    private List<Path> files = Collections.emptyList();
+    private List<String> fields = Collections.singletonList("message");
+    private boolean caseSensitive;
+    private long refreshSeconds = 60;
+    private IndicatorList indicatorList;
+
+    public IndicatorRule(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getDescription() {
@@ -152,24 +1240,48 @@ class Rule {
         this.description = description;
     }
 
-    public boolean matches(Map<String, String> parsedLog) {
-        return logLevel.equals(parsedLog.get("logLevel")) &&
-               messagePattern.matcher(parsedLog.get("message")).find();
+    public List<Path> getFiles() {
+        return files;
     }
-}
 
-class ThresholdRule extends Rule {
-    private int threshold;
+    public void setFiles(List<Path> files) {
+        this.files = files;
+    }
 
-    public ThresholdRule(int id) {
-        super(id);
+    public List<String> getFields() {
+        return fields;
     }
 
-    public int getThreshold() {
-        return threshold;
+    public void setFields(List<String> fields) {
+        this.fields = fields;
     }
 
-    public void setThreshold(int threshold) {
-        this.threshold = threshold;
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    public void setCaseSensitive(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+    }
+
+    public long getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public void setRefreshSeconds(long refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    public IndicatorList getIndicatorList() {
+        return indicatorList;
+    }
+
+    public void setIndicatorList(IndicatorList indicatorList) {
+        this.indicatorList = indicatorList;
+    }
+
+    // The list is reused across reloads while the files and matching options stay the same
+    public String getDefinition() {
+        return files + "|" + caseSensitive + "|" + refreshSeconds;
     }
 }
@@ -0,0 +1,298 @@
+package detection;
+
+import logparsing.FieldDictionary;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Indexes rules by log level and prefilters them with one multi-literal scan of the message,
+// so only rules whose required literal occurs in the message run their full regex
+class RuleIndex<R extends Rule> {
+    // Levels in FieldDictionary.LOG_LEVELS are found by ID, with null for IDs without rules; the
+    // map holds any that did not fit
+    private List<LevelIndex<R>> levelsById;
+    private Map<String, LevelIndex<R>> levels;
+
+    public RuleIndex(List<R> rules) {
+        Map<String, List<R>> rulesByLevel = new HashMap<>();
+        for (R rule : rules) {
+            if (rule.getLogLevel() == null || rule.getMessageRegex() == null) {
+                continue;
+            }
+            rulesByLevel.computeIfAbsent(rule.getLogLevel(), level -> new ArrayList<>()).add(rule);
+        }
+        List<LevelIndex<R>> levelIndexes = new ArrayList<>();
+        for (List<R> levelRules : rulesByLevel.values()) {
+            levelIndexes.add(new LevelIndex<>(levelRules));
+        }
+        place(levelIndexes);
+    }
+
+    private RuleIndex() {
+    }
+
+    private void place(List<LevelIndex<R>> levelIndexes) {
+        levels = new HashMap<>();
+        Map<Integer, LevelIndex<R>> indexesById = new HashMap<>();
+        for (LevelIndex<R> levelIndex : levelIndexes) {
+            R first = levelIndex.rules.get(0);
+            if (first.getLogLevelId() >= 0) {
+                indexesById.put(first.getLogLevelId(), levelIndex);
+            } else {
+                levels.put(first.getLogLevel(), levelIndex);
+            }
+        }
+        int idCount = indexesById.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        levelsById = new ArrayList<>(Collections.nCopies(idCount, null));
+        indexesById.forEach(levelsById::set);
+    }
+
+    // Writes the index with its rules by name, so read() can restore it for the same rules
+    // without extracting literals and building the automata again
+    void write(DataOutputStream out) throws IOException {
+        List<LevelIndex<R>> levelIndexes = new ArrayList<>(levels.values());
+        for (LevelIndex<R> levelIndex : levelsById) {
+            if (levelIndex != null) {
+                levelIndexes.add(levelIndex);
+            }
+        }
+        out.writeInt(levelIndexes.size());
+        for (LevelIndex<R> levelIndex : levelIndexes) {
+            levelIndex.write(out);
+        }
+    }
+
+    // Reads an index written by write(), advancing the buffer past it; rulesByName must hold
+    // every rule it names
+    static <R extends Rule> RuleIndex<R> read(ByteBuffer buffer, Map<String, R> rulesByName) {
+        int levelCount = buffer.getInt();
+        List<LevelIndex<R>> levelIndexes = new ArrayList<>();
+        for (int i = 0; i < levelCount; i++) {
+            levelIndexes.add(LevelIndex.read(buffer, rulesByName));
+        }
+        RuleIndex<R> index = new RuleIndex<>();
+        index.place(levelIndexes);
+        return index;
+    }
+
+    // Returns the rules matching the log entry, in the order they were given to the index
+    public List<R> matches(Map<String, String> parsedLog) {
+        return matches(parsedLog, FieldDictionary.LOG_LEVELS.id(parsedLog.get("logLevel")));
+    }
+
+    // levelId is the dictionary ID of the event's log level, or -1
+    public List<R> matches(Map<String, String> parsedLog, int levelId) {
+        LevelIndex<R> levelIndex = levelId < 0 ? levels.get(parsedLog.get("logLevel"))
+                : levelId < levelsById.size() ? levelsById.get(levelId) : null;
+        String message = parsedLog.get("message");
+        if (levelIndex == null || message == null) {
+            return Collections.emptyList();
+        }
+        return levelIndex.matches(message);
+    }
+
+    // Longest run of characters every match of the regex must contain, or "" when none can be
+    // proven; literals inside groups are skipped because the group may be optional or repeated
+    static String requiredLiteral(String regex) {
+        if (regex.contains("(?") || regex.contains("\\Q")) {
+            return "";
+        }
+        String best = "";
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        // Set after an escape whose argument would be misread as literals; later characters
+        // are no longer collected, but a later top-level alternative still rules everything out
+        boolean literalsEnded = false;
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            char literal;
+            if (c == '\\') {
+                if (i + 1 >= length) {
+                    break;
+                }
+                char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    if (Character.isDigit(escaped) || "pPxuckN".indexOf(escaped) >= 0) {
+                        best = longer(best, current);
+                        literalsEnded = true;
+                        continue;
+                    }
+                    best = longer(best, current);
+                    continue;
+                }
+                literal = escaped;
+            } else if (c == '[') {
+                best = longer(best, current);
+                i = endOfCharacterClass(regex, i);
+                continue;
+            } else if (c == '|') {
+                if (depth == 0) {
+                    // A top-level alternative can match without any of the literals seen so far
+                    return "";
+                }
+                best = longer(best, current);
+                continue;
+            } else if (c == '(' || c == ')') {
+                best = longer(best, current);
+                depth += c == '(' ? 1 : -1;
+                continue;
+            } else if (c == '.' || c == '^' || c == '$') {
+                best = longer(best, current);
+                continue;
+            } else if (c == '?' || c == '*' || c == '{') {
+                // The preceding character may be absent, so it cannot be part of the literal
+                if (current.length() > 0) {
+                    current.setLength(current.length() - 1);
+                }
+                best = longer(best, current);
+                if (c == '{') {
+                    int close = regex.indexOf('}', i);
+                    i = close < 0 ? length : close;
+                }
+                continue;
+            } else if (c == '+') {
+                // The preceding character is present, but whatever follows may not be adjacent to it
+                best = longer(best, current);
+                continue;
+            } else {
+                literal = c;
+            }
+            if (depth == 0 && !literalsEnded) {
+                current.append(literal);
+            } else {
+                best = longer(best, current);
+            }
+        }
+        return longer(best, current);
+    }
+
+    private static String longer(String best, StringBuilder current) {
+        String result = current.length() > best.length() ? current.toString() : best;
+        current.setLength(0);
+        return result;
+    }
+
+    static int endOfCharacterClass(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int nesting = 0;
+        for (; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                nesting++;
+            } else if (c == ']') {
+                if (nesting == 0) {
+                    return i;
+                }
+                nesting--;
+            }
+        }
+        return regex.length();
+    }
+
+    private static class LevelIndex<R extends Rule> {
+        private List<R> rules;
+        private AhoCorasick automaton;
+        private int[][] rulesByLiteral;
+        private BitSet unindexed;
+
+        LevelIndex(List<R> rules) {
+            this.rules = rules;
+            unindexed = new BitSet(rules.size());
+            Map<String, List<Integer>> literalRules = new LinkedHashMap<>();
+            for (int i = 0; i < rules.size(); i++) {
+                String literal = requiredLiteral(rules.get(i).getMessageRegex());
+                if (literal.isEmpty()) {
+                    unindexed.set(i);
+                } else {
+                    literalRules.computeIfAbsent(literal, key -> new ArrayList<>()).add(i);
+                }
+            }
+            automaton = new AhoCorasick(new ArrayList<>(literalRules.keySet()));
+            rulesByLiteral = new int[literalRules.size()][];
+            int literalId = 0;
+            for (List<Integer> ruleIds : literalRules.values()) {
+                rulesByLiteral[literalId++] = ruleIds.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        private LevelIndex() {
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(rules.size());
+            for (R rule : rules) {
+                CompiledRules.writeString(out, rule.getName());
+            }
+            long[] unindexedWords = unindexed.toLongArray();
+            out.writeInt(unindexedWords.length);
+            for (long word : unindexedWords) {
+                out.writeLong(word);
+            }
+            out.writeInt(rulesByLiteral.length);
+            for (int[] ruleIds : rulesByLiteral) {
+                out.writeInt(ruleIds.length);
+                for (int ruleId : ruleIds) {
+                    out.writeInt(ruleId);
+                }
+            }
+            automaton.write(out);
+        }
+
+        static <R extends Rule> LevelIndex<R> read(ByteBuffer buffer, Map<String, R> rulesByName) {
+            LevelIndex<R> levelIndex = new LevelIndex<>();
+            int ruleCount = buffer.getInt();
+            levelIndex.rules = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                String name = CompiledRules.readString(buffer);
+                R rule = rulesByName.get(name);
+                if (rule == null) {
+                    throw new IllegalArgumentException("Compiled rule index names a rule that is not defined: " + name);
+                }
+                levelIndex.rules.add(rule);
+            }
+            long[] unindexedWords = new long[buffer.getInt()];
+            for (int i = 0; i < unindexedWords.length; i++) {
+                unindexedWords[i] = buffer.getLong();
+            }
+            levelIndex.unindexed = BitSet.valueOf(unindexedWords);
+            levelIndex.rulesByLiteral = new int[buffer.getInt()][];
+            for (int literalId = 0; literalId < levelIndex.rulesByLiteral.length; literalId++) {
+                int[] ruleIds = new int[buffer.getInt()];
+                for (int i = 0; i < ruleIds.length; i++) {
+                    ruleIds[i] = buffer.getInt();
+                }
+                levelIndex.rulesByLiteral[literalId] = ruleIds;
+            }
+            levelIndex.automaton = AhoCorasick.read(buffer);
+            return levelIndex;
+        }
+
+        List<R> matches(String message) {
+            BitSet candidates = (BitSet) unindexed.clone();
+            automaton.search(message, literalId -> {
+                for (int ruleId : rulesByLiteral[literalId]) {
+                    candidates.set(ruleId);
+                }
+            });
+            List<R> matched = new ArrayList<>();
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                R rule = rules.get(i);
+                if (rule.matchesMessage(message)) {
+                    matched.add(rule);
+                }
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package detection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+// What one rule has cost so far, from its metrics: how often it ran and matched, the regex time
+// of a 1-in-N sample of its evaluations, and how often it ran out of its time budget. Counts
+// are per rule name, so they carry on across reloads like the metrics themselves.
+public class RuleProfile {
+    private final String rule;
+    private final String description;
+    private final long evaluations;
+    private final long matches;
+    private final long sampledNanos;
+    private final long samples;
+    private final long timeouts;
+    private final String quarantineReason;
+
+    public RuleProfile(String rule, String description, long evaluations, long matches, long sampledNanos, long samples,
+                       long timeouts, String quarantineReason) {
+        this.rule = rule;
+        this.description = description;
+        this.evaluations = evaluations;
+        this.matches = matches;
+        this.sampledNanos = sampledNanos;
+        this.samples = samples;
+        this.timeouts = timeouts;
+        this.quarantineReason = quarantineReason;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getMatches() {
+        return matches;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    // Null unless the rule was quarantined and no longer runs
+    public String getQuarantineReason() {
+        return quarantineReason;
+    }
+
+    public double getMeanNanos() {
+        return samples == 0 ? 0 : (double) sampledNanos / samples;
+    }
+
+    public double getHitRate() {
+        return evaluations == 0 ? 0 : (double) matches / evaluations;
+    }
+
+    // Mean sampled regex time times evaluations
+    public double getEstimatedCpuNanos() {
+        return getMeanNanos() * evaluations;
+    }
+
+    // A table of the top rules by estimated CPU time, most expensive first
+    public static String report(Collection<RuleProfile> profiles, int top) {
+        List<RuleProfile> sorted = new ArrayList<>(profiles);
+        sorted.sort(Comparator.comparingDouble(RuleProfile::getEstimatedCpuNanos).reversed());
+        double totalNanos = 0;
+        for (RuleProfile profile : sorted) {
+            totalNanos += profile.getEstimatedCpuNanos();
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-24s %10s %7s %14s %10s %9s %8s  %s%n",
+                "RULE", "CPU MS", "CPU %", "EVALUATIONS", "MEAN US", "HIT RATE", "TIMEOUTS", "DESCRIPTION"));
+        for (RuleProfile profile : sorted.subList(0, Math.min(top, sorted.size()))) {
+            String description = profile.description == null ? "" : profile.description;
+            if (profile.quarantineReason != null) {
+                description = "[quarantined: " + profile.quarantineReason + "] " + description;
+            }
+            report.append(String.format("%-24s %10.1f %6.1f%% %14d %10.2f %8.2f%% %8d  %s%n",
+                    profile.rule, profile.getEstimatedCpuNanos() / 1e6,
+                    totalNanos == 0 ? 0 : profile.getEstimatedCpuNanos() * 100 / totalNanos,
+                    profile.evaluations, profile.getMeanNanos() / 1e3, profile.getHitRate() * 100, profile.timeouts,
+                    description));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package detection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Lists the rules of a running IDS by CPU cost, from its metrics endpoint (metrics.http.port):
+//   java detection.RuleReport http://127.0.0.1:9109/metrics [--top 20]
+// Costs are totals since the IDS started; run it twice and compare to see a recent interval.
+public class RuleReport {
+    private static final String[] FAMILIES = {"ids_rule_evaluations_total", "ids_rule_matches_total",
+            "ids_rule_evaluation_sampled_nanos_total", "ids_rule_evaluation_samples_total", "ids_rule_timeouts_total",
+            "ids_rule_quarantined"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: RuleReport <metricsUrl> [--top n]");
+            System.exit(1);
+        }
+        int top = 20;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--top")) {
+                top = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        // Values by family, then by rule name
+        Map<String, Map<String, Long>> values = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new URL(args[0]).openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int labels = line.indexOf("{rule=\"");
+                if (line.startsWith("#") || labels < 0) {
+                    continue;
+                }
+                int nameEnd = line.indexOf('"', labels + 7);
+                int valueStart = line.lastIndexOf(' ');
+                if (nameEnd < 0 || valueStart < nameEnd) {
+                    continue;
+                }
+                values.computeIfAbsent(line.substring(0, labels), family -> new HashMap<>())
+                        .put(line.substring(labels + 7, nameEnd), (long) Double.parseDouble(line.substring(valueStart + 1)));
+            }
+        }
+
+        TreeSet<String> rules = new TreeSet<>();
+        for (Map<String, Long> byRule : values.values()) {
+            rules.addAll(byRule.keySet());
+        }
+        List<RuleProfile> profiles = new ArrayList<>();
+        for (String rule : rules) {
+            long[] counts = new long[FAMILIES.length];
+            for (int i = 0; i < FAMILIES.length; i++) {
+                counts[i] = values.getOrDefault(FAMILIES[i], new HashMap<>()).getOrDefault(rule, 0L);
+            }
+            profiles.add(new RuleProfile(rule, null, counts[0], counts[1], counts[2], counts[3], counts[4],
+                    counts[5] != 0 ? "see the IDS log" : null));
+        }
+        System.out.print(RuleProfile.report(profiles, top));
+    }
+}
@@ -0,0 +1,119 @@
+package detection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Partial matches of one sequence rule, one per key: a small state machine that remembers how
+// many steps have matched, when the first one did and the distinct field of the last one. A
+// partial match times out once the window since its first step has passed. Keys are striped
+// across locks and kept in LRU order up to maxPartialMatches, so memory stays bounded however
+// many keys start a sequence and never finish it.
+class SequenceTracker {
+    private static final int STRIPES = 16;
+    private static final int EXPIRY_CHECKS_PER_UPDATE = 2;
+
+    private final int stepCount;
+    private final long windowMillis;
+    private final Stripe[] stripes;
+
+    public SequenceTracker(int stepCount, long windowMillis, int maxPartialMatches) {
+        this.stepCount = stepCount;
+        this.windowMillis = windowMillis;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxPartialMatches / STRIPES));
+        }
+    }
+
+    // Feeds one event that matched the steps in matchedSteps (bit i for step i + 1). Returns true
+    // when it completes the sequence for the key; the key then starts over. distinctValue is the
+    // event's value of the rule's distinct field, or null when the rule has none; consecutive
+    // steps must then have different values.
+    public boolean advance(String key, long matchedSteps, long timestampMillis, String distinctValue) {
+        Stripe stripe = stripes[Math.floorMod(key.hashCode(), STRIPES)];
+        synchronized (stripe) {
+            stripe.expire(timestampMillis);
+            PartialMatch partial = stripe.get(key);
+            if (partial != null && windowMillis > 0 && timestampMillis - partial.startMillis > windowMillis) {
+                stripe.remove(key);
+                partial = null;
+            }
+            if (partial != null && (matchedSteps & (1L << partial.matchedSteps)) != 0
+                    && timestampMillis >= partial.lastMillis
+                    && (distinctValue == null || !distinctValue.equals(partial.lastDistinctValue))) {
+                partial.matchedSteps++;
+                partial.lastMillis = timestampMillis;
+                partial.lastDistinctValue = distinctValue;
+                if (partial.matchedSteps == stepCount) {
+                    stripe.remove(key);
+                    return true;
+                }
+                return false;
+            }
+            // A repeated first step restarts a partial match that has not got any further, so the
+            // window is measured from the latest candidate start
+            if ((matchedSteps & 1) != 0 && (partial == null || partial.matchedSteps == 1)) {
+                if (stepCount == 1) {
+                    return true;
+                }
+                stripe.put(key, new PartialMatch(timestampMillis, distinctValue));
+            }
+            return false;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private class Stripe extends LinkedHashMap<String, PartialMatch> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxPartialMatches;
+
+        Stripe(int maxPartialMatches) {
+            super(16, 0.75f, true);
+            this.maxPartialMatches = maxPartialMatches;
+        }
+
+        // Drops a few least recently advanced partial matches whose window has passed
+        void expire(long timestampMillis) {
+            if (windowMillis <= 0) {
+                return;
+            }
+            Iterator<PartialMatch> eldest = values().iterator();
+            for (int i = 0; i < EXPIRY_CHECKS_PER_UPDATE && eldest.hasNext(); i++) {
+                if (timestampMillis - eldest.next().startMillis <= windowMillis) {
+                    return;
+                }
+                eldest.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PartialMatch> eldest) {
+            return size() > maxPartialMatches;
+        }
+    }
+
+    private static class PartialMatch {
+        private final long startMillis;
+        private long lastMillis;
+        private int matchedSteps;
+        private String lastDistinctValue;
+
+        PartialMatch(long startMillis, String distinctValue) {
+            this.startMillis = startMillis;
+            lastMillis = startMillis;
+            matchedSteps = 1;
+            lastDistinctValue = distinctValue;
+        }
+    }
+}
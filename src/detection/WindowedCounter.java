@@ -0,0 +1,116 @@
+package detection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Counts matches per key over a sliding time window. Each key has a small ring of buckets that
+// each cover window / buckets milliseconds of event time. Keys are striped across locks and
+// kept in LRU order, so idle keys expire and the number of tracked keys is capped.
+class WindowedCounter {
+    private static final int STRIPES = 16;
+    private static final int EXPIRY_CHECKS_PER_UPDATE = 2;
+
+    private final long bucketMillis;
+    private final int bucketCount;
+    private final Stripe[] stripes;
+
+    public WindowedCounter(long windowMillis, int bucketCount, int maxKeys) {
+        this.bucketCount = bucketCount;
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxKeys / STRIPES));
+        }
+    }
+
+    // Records one match for the key at the given event time. Returns true when the matches inside
+    // the window reach the threshold; the key then starts counting from zero again.
+    public boolean incrementAndCheck(String key, long timestampMillis, int threshold) {
+        long bucket = Math.floorDiv(timestampMillis, bucketMillis);
+        Stripe stripe = stripes[Math.floorMod(key.hashCode(), STRIPES)];
+        synchronized (stripe) {
+            stripe.expireIdle(bucket);
+            Window window = stripe.get(key);
+            if (window == null) {
+                window = new Window(bucketCount, bucket);
+                stripe.put(key, window);
+            }
+            if (!window.add(bucket)) {
+                return false;
+            }
+            if (window.total >= threshold) {
+                stripe.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private class Stripe extends LinkedHashMap<String, Window> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxKeys;
+
+        Stripe(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        // Drops a few least recently updated keys whose whole window lies in the past
+        void expireIdle(long currentBucket) {
+            Iterator<Window> eldest = values().iterator();
+            for (int i = 0; i < EXPIRY_CHECKS_PER_UPDATE && eldest.hasNext(); i++) {
+                if (eldest.next().newestBucket > currentBucket - bucketCount) {
+                    return;
+                }
+                eldest.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return size() > maxKeys;
+        }
+    }
+
+    private static class Window {
+        private final int[] counts;
+        private long newestBucket;
+        private int total;
+
+        Window(int bucketCount, long bucket) {
+            counts = new int[bucketCount];
+            newestBucket = bucket;
+        }
+
+        // Returns false for events older than the window, which can no longer count
+        boolean add(long bucket) {
+            if (bucket <= newestBucket - counts.length) {
+                return false;
+            }
+            if (bucket > newestBucket) {
+                long cleared = Math.min(bucket - newestBucket, counts.length);
+                for (long b = bucket - cleared + 1; b <= bucket; b++) {
+                    int index = (int) Math.floorMod(b, (long) counts.length);
+                    total -= counts[index];
+                    counts[index] = 0;
+                }
+                newestBucket = bucket;
+            }
+            counts[(int) Math.floorMod(bucket, (long) counts.length)]++;
+            total++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package journal;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// Append-only journal of parsed events, split into segments of journal.segmentSizeMb. Appends
+// go to a buffer that is written and fsynced at most every journal.syncIntervalMs (group
+// commit), so one fsync covers every event appended since the last one. On open, a torn record
+// left by a crash is cut off the newest segment and appending continues after it.
+public class EventJournal {
+    private static final Logger LOGGER = Logger.getLogger(EventJournal.class.getName());
+    private static final Counter EVENTS_JOURNALED = Metrics.counter("ids_journal_events_total", "Events appended to the journal");
+    private static final LatencyHistogram SYNC_LATENCY = Metrics.histogram("ids_journal_sync_latency_seconds", "Time to write and fsync one group of journal records");
+
+    private Path directory;
+    private long segmentSize;
+    private long syncIntervalNanos;
+    private int maxSegments;
+    private FileChannel channel;
+    private long segmentBytes;
+    private long nextSequence;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer scratch;
+    private CRC32 crc;
+    private long lastSyncNanos;
+    private boolean unsynced;
+    private ScheduledExecutorService syncExecutor;
+
+    public EventJournal(Path directory, Properties properties) throws IOException {
+        this.directory = directory;
+        segmentSize = Long.parseLong(properties.getProperty("journal.segmentSizeMb", "64")) * 1024 * 1024;
+        long syncIntervalMs = Long.parseLong(properties.getProperty("journal.syncIntervalMs", "50"));
+        syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        maxSegments = Integer.parseInt(properties.getProperty("journal.maxSegments", "0"));
+        writeBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+        scratch = ByteBuffer.allocate(4096);
+        crc = new CRC32();
+
+        Files.createDirectories(directory);
+        List<Path> segments = JournalReader.segments(directory);
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            recover(segments.get(segments.size() - 1));
+        }
+        lastSyncNanos = System.nanoTime();
+
+        // Makes the tail durable when appends stop arriving
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error syncing journal", e);
+            }
+        }, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void append(Map<String, String> event) throws IOException {
+        int maxSize = JournalFormat.maxEncodedSize(event);
+        if (scratch.capacity() < maxSize) {
+            scratch = ByteBuffer.allocate(Math.max(maxSize, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        JournalFormat.encode(event, scratch);
+        scratch.flip();
+        int bodyLength = scratch.remaining();
+        crc.reset();
+        crc.update(scratch.duplicate());
+
+        int recordSize = JournalFormat.RECORD_HEADER_SIZE + bodyLength;
+        if (segmentBytes + writeBuffer.position() + recordSize > segmentSize
+                && segmentBytes + writeBuffer.position() > JournalFormat.SEGMENT_HEADER_SIZE) {
+            rotate();
+        }
+        if (writeBuffer.remaining() < recordSize) {
+            writeOut();
+        }
+        if (writeBuffer.remaining() < recordSize) {
+            // Larger than the whole write buffer: write it straight through
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            record.putInt(bodyLength).putInt((int) crc.getValue()).put(scratch).flip();
+            write(record);
+        } else {
+            writeBuffer.putInt(bodyLength).putInt((int) crc.getValue()).put(scratch);
+        }
+        unsynced = true;
+        nextSequence++;
+        EVENTS_JOURNALED.increment();
+        if (System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+            sync();
+        }
+    }
+
+    // Writes out and fsyncs everything appended so far
+    public synchronized void sync() throws IOException {
+        if (!unsynced || channel == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        writeOut();
+        channel.force(false);
+        unsynced = false;
+        lastSyncNanos = System.nanoTime();
+        SYNC_LATENCY.record(lastSyncNanos - start);
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public void close() throws IOException {
+        syncExecutor.shutdown();
+        synchronized (this) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void recover(Path segment) throws IOException {
+        channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long[] validPrefix = JournalReader.validPrefix(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        long firstSequence = JournalFormat.firstSequenceOf(segment.getFileName().toString());
+        nextSequence = firstSequence + validPrefix[1];
+        if (validPrefix[0] == 0) {
+            // The crash came before the header was written
+            channel.close();
+            openSegment(firstSequence);
+            return;
+        }
+        if (validPrefix[0] < channel.size()) {
+            LOGGER.log(Level.WARNING, "Truncating " + (channel.size() - validPrefix[0]) + " bytes of incomplete records from " + segment);
+            channel.truncate(validPrefix[0]);
+            channel.force(true);
+        }
+        channel.position(validPrefix[0]);
+        segmentBytes = validPrefix[0];
+    }
+
+    private void rotate() throws IOException {
+        writeOut();
+        channel.force(false);
+        channel.close();
+        openSegment(nextSequence);
+        if (maxSegments > 0) {
+            List<Path> segments = JournalReader.segments(directory);
+            for (int i = 0; i < segments.size() - maxSegments; i++) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        nextSequence = firstSequence;
+        channel = FileChannel.open(directory.resolve(JournalFormat.segmentName(firstSequence)),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(JournalFormat.SEGMENT_HEADER_SIZE);
+        header.putInt(JournalFormat.MAGIC).putInt(JournalFormat.VERSION).flip();
+        segmentBytes = 0;
+        write(header);
+        channel.force(true);
+    }
+
+    private void writeOut() throws IOException {
+        writeBuffer.flip();
+        write(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentBytes += channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// On-disk layout shared by the writer and the reader. A segment starts with MAGIC and VERSION,
+// followed by records of [int bodyLength][int crc32(body)][body]. A body is the event time
+// (long, NO_TIMESTAMP if unknown), a varint field count, and per field a one-byte key id (or
+// CUSTOM_KEY followed by the key) and the value, with strings as varint length + UTF-8.
+final class JournalFormat {
+    static final int MAGIC = 0x4944534A; // "IDSJ"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    // Field names every format produces get a single byte instead of their name
+    private static final String[] KNOWN_KEYS = {"timestamp", "logLevel", "userId", "message", "host", "program", "clientIp", "status"};
+    private static final int CUSTOM_KEY = 0xFF;
+    private static final Map<String, Integer> KEY_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KEY_IDS.put(KNOWN_KEYS[i], i);
+        }
+    }
+
+    private JournalFormat() {
+    }
+
+    static String segmentName(long firstSequence) {
+        return String.format("%020d", firstSequence) + SEGMENT_SUFFIX;
+    }
+
+    static long firstSequenceOf(String segmentName) {
+        return Long.parseLong(segmentName.substring(0, segmentName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // Encodes the event body into the buffer; epochMillis travels in the body header, not as a field
+    static void encode(Map<String, String> event, ByteBuffer buffer) {
+        String epochMillis = event.get("epochMillis");
+        buffer.putLong(epochMillis != null ? parseEpochMillis(epochMillis) : NO_TIMESTAMP);
+        putVarint(buffer, epochMillis != null ? event.size() - 1 : event.size());
+        for (Map.Entry<String, String> field : event.entrySet()) {
+            if (field.getKey().equals("epochMillis")) {
+                continue;
+            }
+            Integer keyId = KEY_IDS.get(field.getKey());
+            if (keyId != null) {
+                buffer.put((byte) (int) keyId);
+            } else {
+                buffer.put((byte) CUSTOM_KEY);
+                putString(buffer, field.getKey());
+            }
+            putString(buffer, field.getValue());
+        }
+    }
+
+    // A value that is not a number is journaled as unknown rather than failing the append
+    private static long parseEpochMillis(String epochMillis) {
+        try {
+            return Long.parseLong(epochMillis);
+        } catch (NumberFormatException e) {
+            return NO_TIMESTAMP;
+        }
+    }
+
+    // Upper bound of the encoded size, used to size the scratch buffer before encoding
+    static int maxEncodedSize(Map<String, String> event) {
+        int size = 8 + 5;
+        for (Map.Entry<String, String> field : event.entrySet()) {
+            size += 1 + 5 + field.getKey().length() * 3 + 5 + field.getValue().length() * 3;
+        }
+        return size;
+    }
+
+    static Map<String, String> decode(ByteBuffer buffer, byte[][] scratch) {
+        Map<String, String> event = new HashMap<>();
+        long epochMillis = buffer.getLong();
+        int fieldCount = getVarint(buffer);
+        for (int i = 0; i < fieldCount; i++) {
+            int keyId = buffer.get() & 0xFF;
+            String key = keyId == CUSTOM_KEY ? getString(buffer, scratch) : KNOWN_KEYS[keyId];
+            event.put(key, getString(buffer, scratch));
+        }
+        if (epochMillis != NO_TIMESTAMP) {
+            event.put("epochMillis", Long.toString(epochMillis));
+        }
+        return event;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    // scratch[0] is a reusable byte array, grown as needed
+    private static String getString(ByteBuffer buffer, byte[][] scratch) {
+        int length = getVarint(buffer);
+        if (scratch[0].length < length) {
+            scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+        }
+        buffer.get(scratch[0], 0, length);
+        return new String(scratch[0], 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in journal");
+    }
+}
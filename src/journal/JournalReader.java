@@ -0,0 +1,124 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Reads journal segments through memory maps, oldest first. A record that is cut short or fails
+// its checksum ends its segment, which is what a crash in the middle of a write leaves behind.
+public class JournalReader {
+    private static final Logger LOGGER = Logger.getLogger(JournalReader.class.getName());
+    private Path directory;
+
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    // Delivers every event whose time is in [fromMillis, toMillis) in journal order; events
+    // without a time are delivered only when the range is unbounded. Returns the number delivered.
+    public long replay(long fromMillis, long toMillis, EventHandler handler) throws IOException, InterruptedException {
+        boolean unbounded = fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE;
+        byte[][] scratch = {new byte[256]};
+        CRC32 crc = new CRC32();
+        long delivered = 0;
+        for (Path segment : segments(directory)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int position = checkHeader(buffer, segment);
+                int next;
+                while ((next = nextRecord(buffer, position, crc)) >= 0) {
+                    int bodyStart = position + JournalFormat.RECORD_HEADER_SIZE;
+                    long epochMillis = buffer.getLong(bodyStart);
+                    boolean inRange = epochMillis == JournalFormat.NO_TIMESTAMP
+                            ? unbounded
+                            : epochMillis >= fromMillis && epochMillis < toMillis;
+                    if (inRange) {
+                        ByteBuffer body = buffer.duplicate();
+                        body.limit(next).position(bodyStart);
+                        handler.accept(JournalFormat.decode(body, scratch));
+                        delivered++;
+                    }
+                    position = next;
+                }
+            }
+        }
+        return delivered;
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(JournalFormat.SEGMENT_SUFFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return segments;
+    }
+
+    // Length of the intact part of a segment and the number of records in it
+    static long[] validPrefix(ByteBuffer buffer) {
+        long records = 0;
+        int end = buffer.limit() >= JournalFormat.SEGMENT_HEADER_SIZE && buffer.getInt(0) == JournalFormat.MAGIC
+                ? JournalFormat.SEGMENT_HEADER_SIZE : 0;
+        if (end == 0) {
+            return new long[]{0, 0};
+        }
+        CRC32 crc = new CRC32();
+        int position = end;
+        while ((position = nextRecord(buffer, position, crc)) >= 0) {
+            end = position;
+            records++;
+        }
+        return new long[]{end, records};
+    }
+
+    private static int checkHeader(ByteBuffer buffer, Path segment) {
+        if (buffer.limit() < JournalFormat.SEGMENT_HEADER_SIZE || buffer.getInt(0) != JournalFormat.MAGIC) {
+            LOGGER.log(Level.WARNING, "Skipping journal segment without a valid header: " + segment);
+            return buffer.limit();
+        }
+        if (buffer.getInt(4) != JournalFormat.VERSION) {
+            LOGGER.log(Level.WARNING, "Skipping journal segment with unsupported version: " + segment);
+            return buffer.limit();
+        }
+        return JournalFormat.SEGMENT_HEADER_SIZE;
+    }
+
+    // Validates the record at position and returns the position just past it, or -1 at the end
+    // of the intact records
+    private static int nextRecord(ByteBuffer buffer, int position, CRC32 crc) {
+        if (buffer.limit() - position < JournalFormat.RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        int bodyStart = position + JournalFormat.RECORD_HEADER_SIZE;
+        if (length < 8 || length > buffer.limit() - bodyStart) {
+            return -1;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyStart + length).position(bodyStart);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return -1;
+        }
+        return bodyStart + length;
+    }
+
+    public interface EventHandler {
+        void accept(Map<String, String> event) throws InterruptedException;
+    }
+}
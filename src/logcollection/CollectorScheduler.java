@@ -0,0 +1,227 @@
+package logcollection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Runs the sources of a collection cycle concurrently. On Java 21+ each source gets its own
+// virtual thread, so thousands of blocked files and sockets cost little; on older JVMs a
+// bounded pool of platform threads is used instead. runAll blocks (it does not spin) until every
+// source is done, the scheduler stays usable for the next cycle, and each source can have a
+// deadline after which it is cancelled. Cancelling closes the source's registered resources as
+// well as interrupting it, since a blocked socket read does not react to interrupts alone.
+class CollectorScheduler {
+    private static final Logger LOGGER = Logger.getLogger(CollectorScheduler.class.getName());
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService deadlines;
+    private final Semaphore permits;
+    private final Set<SourceRun> running;
+
+    CollectorScheduler(int maxConcurrency) {
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null) {
+            executor = virtualThreads;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "collector-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "collector-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        permits = new Semaphore(maxConcurrency);
+        running = ConcurrentHashMap.newKeySet();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when running on Java 21 or later
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Starts every source and waits until all have finished, failed, timed out or been
+    // cancelled. If the caller is interrupted, the remaining sources are cancelled.
+    void runAll(List<Source> sources) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sources.size());
+        List<SourceRun> runs = new ArrayList<>();
+        for (Source source : sources) {
+            SourceRun run = new SourceRun(source, done);
+            runs.add(run);
+            running.add(run);
+            executor.execute(run);
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            for (SourceRun run : runs) {
+                run.cancel("collection interrupted");
+            }
+            throw e;
+        }
+    }
+
+    // Cancels every source that is still running or waiting to start
+    void cancelAll() {
+        for (SourceRun run : running) {
+            run.cancel("collection cancelled");
+        }
+    }
+
+    void shutdown() {
+        cancelAll();
+        executor.shutdown();
+        deadlines.shutdown();
+    }
+
+    static class Source {
+        private final String name;
+        private final long timeoutMillis;
+        private final Body body;
+
+        // timeoutMillis <= 0 means no deadline; the deadline starts when the source starts running
+        Source(String name, long timeoutMillis, Body body) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.body = body;
+        }
+    }
+
+    interface Body {
+        void collect(Cancellation cancellation) throws IOException, InterruptedException;
+    }
+
+    interface Cancellation {
+        // Closes the resource as soon as the source is cancelled, or right away if it already is
+        void closeOnCancel(Closeable resource);
+
+        boolean isCancelled();
+    }
+
+    private class SourceRun implements Runnable, Cancellation {
+        private final Source source;
+        private final CountDownLatch done;
+        private final List<Closeable> resources;
+        private Thread thread;
+        private boolean cancelled;
+        private boolean finished;
+
+        SourceRun(Source source, CountDownLatch done) {
+            this.source = source;
+            this.done = done;
+            resources = new ArrayList<>();
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> deadline = null;
+            try {
+                permits.acquire();
+                try {
+                    synchronized (this) {
+                        if (cancelled) {
+                            return;
+                        }
+                        thread = Thread.currentThread();
+                    }
+                    if (source.timeoutMillis > 0) {
+                        deadline = deadlines.schedule(() -> cancel("deadline of " + source.timeoutMillis + " ms passed"),
+                                source.timeoutMillis, TimeUnit.MILLISECONDS);
+                    }
+                    source.body.collect(this);
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException e) {
+                // Cancelled; nothing further to do for this source
+            } catch (IOException e) {
+                if (!isCancelled()) {
+                    LOGGER.log(Level.SEVERE, "Error collecting logs from " + source.name, e);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error collecting logs from " + source.name, e);
+            } finally {
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+                synchronized (this) {
+                    finished = true;
+                    thread = null;
+                }
+                // A pooled thread must not carry a late cancellation into its next source
+                Thread.interrupted();
+                running.remove(this);
+                done.countDown();
+            }
+        }
+
+        void cancel(String reason) {
+            List<Closeable> toClose;
+            synchronized (this) {
+                if (cancelled || finished) {
+                    return;
+                }
+                cancelled = true;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+                toClose = new ArrayList<>(resources);
+                resources.clear();
+            }
+            LOGGER.log(Level.WARNING, "Stopped collecting from " + source.name + ": " + reason);
+            toClose.forEach(this::closeQuietly);
+        }
+
+        @Override
+        public void closeOnCancel(Closeable resource) {
+            synchronized (this) {
+                if (!cancelled) {
+                    resources.add(resource);
+                    return;
+                }
+            }
+            closeQuietly(resource);
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void closeQuietly(Closeable resource) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing " + source.name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package logcollection;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+// Reads gzip-compressed logs, including files of several concatenated gzip members. Blocked
+// gzip (BGZF, as written by bgzip), whose members record their own length, is inflated in
+// parallel and delivered in order. Any other gzip file is inflated on its own thread while the
+// calling thread splits lines, so decompression overlaps with parsing further down the pipeline.
+public class GzipLogReader {
+    private static final Logger LOGGER = Logger.getLogger(GzipLogReader.class.getName());
+    private static final int BGZF_HEADER_SIZE = 18;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte[] END_OF_BLOCKS = new byte[0];
+
+    private int blockSize;
+    private int maxTasksInFlight;
+    private ForkJoinPool pool;
+
+    public GzipLogReader(Properties properties) {
+        blockSize = Integer.parseInt(properties.getProperty("log.gzip.bufferKb", "256")) * 1024;
+        int parallelism = Integer.parseInt(properties.getProperty("log.gzip.parallelism",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        maxTasksInFlight = parallelism * 2;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public void read(String filePath, LogSink sink) throws IOException, InterruptedException {
+        read(filePath, sink, () -> false);
+    }
+
+    // Stops between lines once cancelled returns true, dropping the rest of the file
+    public void read(String filePath, LogSink sink, BooleanSupplier cancelled) throws IOException, InterruptedException {
+        LineSplitter splitter = new LineSplitter(filePath, sink, cancelled);
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (isBgzf(channel, 0)) {
+                readBgzf(channel, splitter);
+            } else {
+                readSequential(filePath, splitter);
+            }
+        }
+        if (splitter.isCancelled()) {
+            return;
+        }
+        splitter.finish();
+        LOGGER.log(Level.INFO, "Collected logs from compressed file: " + filePath);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // Reads runs of whole BGZF members and inflates each run as one task
+    private void readBgzf(FileChannel channel, LineSplitter splitter) throws IOException, InterruptedException {
+        Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        long position = 0;
+        long size = channel.size();
+        while ((position < size || !inFlight.isEmpty()) && !splitter.isCancelled()) {
+            while (position < size && inFlight.size() < maxTasksInFlight) {
+                ByteBuffer run = readMembers(channel, position, size);
+                position += run.remaining();
+                inFlight.add(CompletableFuture.supplyAsync(() -> inflateMembers(run), pool));
+            }
+            splitter.accept(join(inFlight.poll()));
+        }
+    }
+
+    // At least one member, then as many more as fit in blockSize
+    private ByteBuffer readMembers(FileChannel channel, long start, long size) throws IOException {
+        long end = start;
+        while (end < size) {
+            ByteBuffer header = readFully(channel, end, BGZF_HEADER_SIZE);
+            if (!isBgzf(header)) {
+                throw new IOException("Not a BGZF member at offset " + end);
+            }
+            long memberEnd = end + (header.getShort(16) & 0xFFFF) + 1;
+            if (memberEnd > size || (end > start && memberEnd - start > blockSize)) {
+                if (end == start) {
+                    throw new IOException("Truncated BGZF member at offset " + end);
+                }
+                break;
+            }
+            end = memberEnd;
+        }
+        return readFully(channel, start, (int) (end - start));
+    }
+
+    private static byte[] inflateMembers(ByteBuffer run) {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            byte[] members = new byte[run.remaining()];
+            run.get(members);
+            int uncompressedTotal = 0;
+            for (int offset = 0; offset < members.length; offset += memberLength(members, offset)) {
+                uncompressedTotal += readIntLE(members, offset + memberLength(members, offset) - 4);
+            }
+            byte[] output = new byte[uncompressedTotal];
+            int written = 0;
+            for (int offset = 0; offset < members.length; offset += memberLength(members, offset)) {
+                int length = memberLength(members, offset);
+                int dataStart = offset + 12 + readShortLE(members, offset + 10);
+                int uncompressed = readIntLE(members, offset + length - 4);
+                inflater.reset();
+                inflater.setInput(members, dataStart, offset + length - GZIP_TRAILER_SIZE - dataStart);
+                int inflated = 0;
+                while (inflated < uncompressed && !inflater.finished()) {
+                    int n = inflater.inflate(output, written + inflated, uncompressed - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                crc.reset();
+                crc.update(output, written, inflated);
+                if (inflated != uncompressed || (int) crc.getValue() != readIntLE(members, offset + length - 8)) {
+                    throw new CompletionException(new IOException("Corrupt BGZF member"));
+                }
+                written += inflated;
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new CompletionException(new IOException("Corrupt BGZF member", e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // GZIPInputStream inflates every member of a multi-member file in turn; a separate thread
+    // runs it so inflating the next block overlaps with splitting and delivering this one
+    private void readSequential(String filePath, LineSplitter splitter) throws IOException, InterruptedException {
+        BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(4);
+        IOException[] failure = new IOException[1];
+        Thread inflaterThread = new Thread(() -> {
+            try (InputStream input = new GZIPInputStream(new FileInputStream(filePath), 64 * 1024)) {
+                while (true) {
+                    byte[] block = new byte[blockSize];
+                    int length = 0;
+                    int n;
+                    while (length < block.length && (n = input.read(block, length, block.length - length)) > 0) {
+                        length += n;
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+                    blocks.put(length == block.length ? block : Arrays.copyOf(block, length));
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                blocks.put(END_OF_BLOCKS);
+            } catch (InterruptedException e) {
+                // The reader has gone away
+            }
+        }, "gzip-" + Paths.get(filePath).getFileName());
+        inflaterThread.setDaemon(true);
+        inflaterThread.start();
+        try {
+            byte[] block;
+            while (!splitter.isCancelled() && (block = blocks.take()) != END_OF_BLOCKS) {
+                splitter.accept(block);
+            }
+        } finally {
+            inflaterThread.interrupt();
+        }
+        inflaterThread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static boolean isBgzf(FileChannel channel, long position) throws IOException {
+        if (channel.size() - position < BGZF_HEADER_SIZE) {
+            return false;
+        }
+        return isBgzf(readFully(channel, position, BGZF_HEADER_SIZE));
+    }
+
+    // gzip magic with deflate, only FEXTRA set, and a 6-byte extra field holding the "BC" subfield
+    private static boolean isBgzf(ByteBuffer header) {
+        return (header.get(0) & 0xFF) == 0x1F && (header.get(1) & 0xFF) == 0x8B && header.get(2) == 8
+                && header.get(3) == 4 && (header.get(10) & 0xFF) == 6 && header.get(11) == 0
+                && header.get(12) == 'B' && header.get(13) == 'C' && header.get(14) == 2 && header.get(15) == 0;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of compressed file");
+            }
+        }
+        buffer.flip();
+        // The BGZF block size is little-endian
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static int memberLength(byte[] members, int offset) {
+        return readShortLE(members, offset + 16) + 1;
+    }
+
+    private static int readShortLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return readShortLE(bytes, offset) | readShortLE(bytes, offset + 2) << 16;
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Splits decompressed blocks into lines the way BufferedReader.readLine does for \n and \r\n,
+    // carrying a partial line over to the next block
+    private static class LineSplitter {
+        private final String source;
+        private final LogSink sink;
+        private final BooleanSupplier cancelled;
+        private byte[] partial = new byte[256];
+        private int partialLength;
+
+        LineSplitter(String source, LogSink sink, BooleanSupplier cancelled) {
+            this.source = source;
+            this.sink = sink;
+            this.cancelled = cancelled;
+        }
+
+        boolean isCancelled() {
+            return cancelled.getAsBoolean();
+        }
+
+        void accept(byte[] block) throws InterruptedException {
+            int lineStart = 0;
+            for (int i = 0; i < block.length; i++) {
+                if (block[i] != '\n') {
+                    continue;
+                }
+                if (isCancelled()) {
+                    return;
+                }
+                if (partialLength > 0) {
+                    append(block, lineStart, i);
+                    emit(partial, 0, partialLength);
+                    partialLength = 0;
+                } else {
+                    emit(block, lineStart, i);
+                }
+                lineStart = i + 1;
+            }
+            append(block, lineStart, block.length);
+        }
+
+        void finish() throws InterruptedException {
+            if (partialLength > 0) {
+                emit(partial, 0, partialLength);
+                partialLength = 0;
+            }
+        }
+
+        private void append(byte[] block, int start, int end) {
+            int length = end - start;
+            if (partialLength + length > partial.length) {
+                partial = Arrays.copyOf(partial, Math.max(partialLength + length, partial.length * 2));
+            }
+            System.arraycopy(block, start, partial, partialLength, length);
+            partialLength += length;
+        }
+
+        private void emit(byte[] bytes, int start, int end) throws InterruptedException {
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            sink.accept(source, new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -1,89 +1,274 @@
 package logcollection;
 
+import metrics.Counter;
+import metrics.Metrics;
+
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 public class LogCollector {
     private static final Logger LOGGER = Logger.getLogger(LogCollector.class.getName());
+    private static final Counter LINES_COLLECTED = Metrics.counter("ids_collector_lines_total", "Log lines read by the collectors");
+    // Rotated archives such as app.log.1.gz or app.log-20240701.gz
+    private static final Pattern COMPRESSED_LOG = Pattern.compile(".+\\.log([.-]\\d+)?\\.gz");
     private List<String> filePaths;
     private List<String> directories;
     private List<String> networkSources;
+    private Properties properties;
+    private LogTailer logTailer;
+    private SyslogListener syslogListener;
+    private GzipLogReader gzipLogReader;
+    private CollectorScheduler scheduler;
+    private volatile boolean cancelled;
 
+    // Without logcollector.properties the collector has no sources and collects nothing
     public LogCollector() {
+        this(loadConfiguration());
+    }
+
+    public LogCollector(Properties properties) {
         filePaths = new ArrayList<>();
         directories = new ArrayList<>();
         networkSources = new ArrayList<>();
-        loadConfiguration();
+        this.properties = properties;
+        // Built whatever the configuration holds, falling back to the defaults, so that
+        // collecting and closing work even when it holds nothing
+        gzipLogReader = new GzipLogReader(properties);
+        scheduler = new CollectorScheduler(Integer.parseInt(properties.getProperty("log.collect.maxConcurrency", "64")));
+        applyConfiguration();
     }
 
-    private void loadConfiguration() {
+    private static Properties loadConfiguration() {
         Properties properties = new Properties();
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("logcollector.properties")) {
+        try (InputStream input = LogCollector.class.getClassLoader().getResourceAsStream("logcollector.properties")) {
             if (input == null) {
                 LOGGER.log(Level.SEVERE, "Sorry, unable to find logcollector.properties");
-                return;
+                return properties;
             }
             properties.load(input);
-
-            for (String filePath : properties.getProperty("log.files", "").split(",")) {
-                filePaths.add(filePath.trim());
-            }
-            for (String directory : properties.getProperty("log.directories", "").split(",")) {
-                directories.add(directory.trim());
-            }
-            for (String networkSource : properties.getProperty("log.networkSources", "").split(",")) {
-                networkSources.add(networkSource.trim());
-            }
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "Error loading configuration", ex);
         }
+        return properties;
+    }
+
+    private void applyConfiguration() {
+        for (String filePath : properties.getProperty("log.files", "").split(",")) {
+            filePaths.add(filePath.trim());
+        }
+        for (String directory : properties.getProperty("log.directories", "").split(",")) {
+            directories.add(directory.trim());
+        }
+        for (String networkSource : properties.getProperty("log.networkSources", "").split(",")) {
+            networkSources.add(networkSource.trim());
+        }
     }
 
     public List<String> collectLogs() {
-        List<String> logs = new ArrayList<>();
+        List<String> logs = Collections.synchronizedList(new ArrayList<>());
+        try {
+            collectLogs((source, line) -> logs.add(line));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return logs;
+    }
+
+    // Streams every line to the sink as it is read; the sink must be thread-safe. Every file,
+    // including each file of a directory, and every network source is collected concurrently.
+    // Can be called again for the next collection cycle
+    public void collectLogs(LogSink logSink) throws InterruptedException {
+        if (cancelled) {
+            return;
+        }
+        LogSink sink = counted(logSink);
+        long fileTimeoutMillis = timeoutMillis("log.collect.fileTimeoutSeconds");
+        long networkTimeoutMillis = timeoutMillis("log.collect.networkTimeoutSeconds");
+        List<CollectorScheduler.Source> sources = new ArrayList<>();
         for (String filePath : filePaths) {
-            collectLogsFromFile(filePath, logs);
+            if (!filePath.isEmpty()) {
+                sources.add(new CollectorScheduler.Source(filePath, fileTimeoutMillis, cancellation -> collectLogsFromFile(filePath, sink, cancellation)));
+            }
         }
         for (String directory : directories) {
-            collectLogsFromDirectory(directory, logs);
+            for (String filePath : listLogFiles(directory)) {
+                sources.add(new CollectorScheduler.Source(filePath, fileTimeoutMillis, cancellation -> collectLogsFromFile(filePath, sink, cancellation)));
+            }
         }
         for (String networkSource : networkSources) {
-            collectLogsFromNetworkSource(networkSource, logs);
+            if (!networkSource.isEmpty()) {
+                sources.add(new CollectorScheduler.Source(networkSource, networkTimeoutMillis, cancellation -> collectLogsFromNetworkSource(networkSource, sink, cancellation)));
+            }
         }
-        return logs;
+        scheduler.runAll(sources);
+    }
+
+    // Stops the sources of the running collectLogs call by closing what they are reading.
+    // Cancelling sticks: a collectLogs call that starts afterwards collects nothing
+    public void cancelCollection() {
+        cancelled = true;
+        scheduler.cancelAll();
+    }
+
+    private long timeoutMillis(String key) {
+        return (long) (Double.parseDouble(properties.getProperty(key, "0")) * 1000);
     }
 
-    private void collectLogsFromFile(String filePath, List<String> logs) {
+    private LogSink counted(LogSink sink) {
+        return (source, line) -> {
+            LINES_COLLECTED.increment();
+            sink.accept(source, line);
+        };
+    }
+
+    // Follows log.files and log.directories until stopFollowing() is called, resuming from saved offsets
+    public void followLogs(LogSink sink) throws InterruptedException {
+        logTailer = new LogTailer(filePaths, directories, name -> name.endsWith(".log"), properties);
+        try {
+            logTailer.follow(counted(sink));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error following log files", e);
+        }
+    }
+
+    // Memory-maps each configured file and decodes and maps its lines in parallel, delivering
+    // the results in file order; the mapper gets the source and the line. Network sources are
+    // not read in bulk mode. cancelCollection() stops it too
+    public <T> void collectLogsInBulk(BiFunction<String, String, T> mapper, MappedLogReader.Sink<T> sink) throws InterruptedException {
+        if (cancelled) {
+            return;
+        }
+        List<String> bulkFiles = new ArrayList<>();
+        for (String filePath : filePaths) {
+            if (!filePath.isEmpty()) {
+                bulkFiles.add(filePath);
+            }
+        }
+        for (String directoryPath : directories) {
+            File[] files = new File(directoryPath).listFiles((dir, name) -> isLogFile(name));
+            if (files != null) {
+                for (File file : files) {
+                    bulkFiles.add(file.getAbsolutePath());
+                }
+            }
+        }
+
+        MappedLogReader reader = new MappedLogReader(properties);
+        try {
+            for (String filePath : bulkFiles) {
+                if (cancelled) {
+                    break;
+                }
+                try {
+                    if (filePath.endsWith(".gz")) {
+                        // Compressed files cannot be mapped; lines are mapped as they are inflated
+                        gzipLogReader.read(filePath, (source, line) -> {
+                            LINES_COLLECTED.increment();
+                            T event = mapper.apply(source, line);
+                            if (event != null) {
+                                sink.accept(source, event);
+                            }
+                        }, () -> cancelled);
+                        continue;
+                    }
+                    reader.read(filePath, line -> {
+                        LINES_COLLECTED.increment();
+                        return mapper.apply(filePath, line);
+                    }, sink, () -> cancelled);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error reading log file: " + filePath, e);
+                }
+            }
+        } finally {
+            reader.shutdown();
+        }
+    }
+
+    public void stopFollowing() {
+        if (logTailer != null) {
+            logTailer.stop();
+        }
+    }
+
+    // Accepts pushed logs on log.listen.tcp and log.listen.udp until stopListening() is called
+    public void listenForLogs(LogSink sink) throws InterruptedException {
+        syslogListener = new SyslogListener(properties);
+        if (!syslogListener.isConfigured()) {
+            LOGGER.log(Level.SEVERE, "No log.listen.tcp or log.listen.udp addresses configured");
+            return;
+        }
+        try {
+            syslogListener.listen(counted(sink));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error listening for logs", e);
+        }
+    }
+
+    public void stopListening() {
+        if (syslogListener != null) {
+            syslogListener.stop();
+        }
+    }
+
+    // Stops whatever is running and releases the scheduler's and gzip reader's threads; the
+    // collector is not used again
+    public void close() {
+        stopFollowing();
+        stopListening();
+        cancelled = true;
+        scheduler.shutdown();
+        gzipLogReader.shutdown();
+    }
+
+    private static boolean isLogFile(String name) {
+        return name.endsWith(".log") || COMPRESSED_LOG.matcher(name).matches();
+    }
+
+    // A source that starts after cancelCollection() slipped in between collectLogs' own check and
+    // the scheduler registering it reads nothing, hence the checks of cancelled as well
+    private void collectLogsFromFile(String filePath, LogSink sink, CollectorScheduler.Cancellation cancellation) throws IOException, InterruptedException {
+        if (filePath.endsWith(".gz")) {
+            gzipLogReader.read(filePath, sink, () -> cancelled || cancellation.isCancelled());
+            return;
+        }
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            cancellation.closeOnCancel(br);
             String line;
-            while ((line = br.readLine()) != null) {
-                logs.add(line);
+            while (!cancelled && (line = br.readLine()) != null) {
+                sink.accept(filePath, line);
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error reading log file: " + filePath, e);
         }
     }
 
-    private void collectLogsFromDirectory(String directoryPath, List<String> logs) {
+    private List<String> listLogFiles(String directoryPath) {
+        List<String> logFiles = new ArrayList<>();
+        if (directoryPath.isEmpty()) {
+            return logFiles;
+        }
         File directory = new File(directoryPath);
         if (!directory.isDirectory()) {
             LOGGER.log(Level.SEVERE, "Not a directory: " + directoryPath);
-            return;
+            return logFiles;
         }
-        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        File[] files = directory.listFiles((dir, name) -> isLogFile(name));
         if (files != null) {
             for (File file : files) {
-                collectLogsFromFile(file.getAbsolutePath(), logs);
+                logFiles.add(file.getAbsolutePath());
             }
         }
+        return logFiles;
     }
 
-    private void collectLogsFromNetworkSource(String networkSource, List<String> logs) {
+    private void collectLogsFromNetworkSource(String networkSource, LogSink sink, CollectorScheduler.Cancellation cancellation) throws IOException, InterruptedException {
         String[] parts = networkSource.split(":");
         if (parts.length != 2) {
             LOGGER.log(Level.SEVERE, "Invalid network source: " + networkSource);
@@ -98,14 +283,18 @@ public class LogCollector {
             return;
         }
 
-        try (Socket socket = new Socket(host, port);
-             BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (Socket socket = new Socket()) {
+            // Registered before connecting, so a deadline also ends a hanging connect
+            cancellation.closeOnCancel(socket);
+            if (cancelled) {
+                return;
+            }
+            socket.connect(new InetSocketAddress(host, port));
+            BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             String line;
-            while ((line = br.readLine()) != null) {
-                logs.add(line);
+            while (!cancelled && (line = br.readLine()) != null) {
+                sink.accept(networkSource, line);
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error reading from network source: " + networkSource, e);
         }
     }
 }
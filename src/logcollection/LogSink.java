@@ -0,0 +1,5 @@
+package logcollection;
+
+public interface LogSink {
+    void accept(String source, String line) throws InterruptedException;
+}
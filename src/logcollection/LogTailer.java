@@ -0,0 +1,397 @@
+package logcollection;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class LogTailer {
+    private static final Logger LOGGER = Logger.getLogger(LogTailer.class.getName());
+    private static final Counter LINES_TRUNCATED = Metrics.counter("ids_collector_lines_truncated_total",
+            "Tailed lines cut at log.follow.maxLineBytes");
+    private static final String SKIPPING = "|skipping";
+    private List<Path> files;
+    private List<Path> directories;
+    private Predicate<String> fileNameFilter;
+    private Path stateFile;
+    private long pollIntervalMs;
+    private boolean startAtEnd;
+    private int maxLineBytes;
+    private Map<Path, TailState> states;
+    private Properties checkpoints;
+    private ByteBuffer readBuffer;
+    private volatile boolean running;
+
+    public LogTailer(List<String> filePaths, List<String> directoryPaths, Predicate<String> fileNameFilter, Properties properties) {
+        files = new ArrayList<>();
+        directories = new ArrayList<>();
+        for (String filePath : filePaths) {
+            if (!filePath.isEmpty()) {
+                files.add(Paths.get(filePath).toAbsolutePath());
+            }
+        }
+        for (String directoryPath : directoryPaths) {
+            if (!directoryPath.isEmpty()) {
+                directories.add(Paths.get(directoryPath).toAbsolutePath());
+            }
+        }
+        this.fileNameFilter = fileNameFilter;
+        stateFile = Paths.get(properties.getProperty("log.follow.stateFile", "logcollector.state"));
+        pollIntervalMs = Long.parseLong(properties.getProperty("log.follow.pollIntervalMs", "1000"));
+        startAtEnd = Boolean.parseBoolean(properties.getProperty("log.follow.startAtEnd", "false"));
+        maxLineBytes = Integer.parseInt(properties.getProperty("log.follow.maxLineBytes", "1048576"));
+        states = new HashMap<>();
+        checkpoints = new Properties();
+        readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    }
+
+    // Tails every configured file until stop() is called, checkpointing offsets after each pass
+    public void follow(LogSink sink) throws IOException, InterruptedException {
+        running = true;
+        loadCheckpoints();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            registerWatches(watchService);
+            while (running) {
+                List<Path> tracked = trackedFiles();
+                Map<Path, BasicFileAttributes> attributes = attributesOf(tracked);
+                boolean advanced = followRenames(attributes, sink);
+                for (Path file : tracked) {
+                    advanced |= readNewLines(file, attributes.get(file), sink);
+                }
+                advanced |= forgetUntracked(tracked, sink);
+                if (advanced) {
+                    saveCheckpoints();
+                }
+                // Any event just wakes us early; every tracked file is rescanned on each pass anyway
+                WatchKey key = watchService.poll(pollIntervalMs, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                    key = watchService.poll();
+                }
+            }
+        } finally {
+            for (TailState state : states.values()) {
+                state.close();
+            }
+            states.clear();
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void registerWatches(WatchService watchService) {
+        Set<Path> watched = new HashSet<>(directories);
+        for (Path file : files) {
+            watched.add(file.getParent());
+        }
+        for (Path directory : watched) {
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to watch directory, falling back to polling: " + directory, e);
+            }
+        }
+    }
+
+    private List<Path> trackedFiles() {
+        List<Path> tracked = new ArrayList<>(files);
+        for (Path directory : directories) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    if (Files.isRegularFile(file) && fileNameFilter.test(file.getFileName().toString())) {
+                        tracked.add(file);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error listing directory: " + directory, e);
+            }
+        }
+        return tracked;
+    }
+
+    // Files that do not exist, e.g. while being rotated, are left out
+    private Map<Path, BasicFileAttributes> attributesOf(List<Path> tracked) {
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        for (Path file : tracked) {
+            try {
+                attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (NoSuchFileException e) {
+                // Rotation in progress; the old channel, if any, is drained once the new file shows up
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error reading attributes of log file: " + file, e);
+            }
+        }
+        return attributes;
+    }
+
+    // Moves the state of a file that now has another tracked name, e.g. app.log renamed to
+    // app.log-20261017 in a watched directory, so that it is picked up at its offset instead of
+    // being drained under the old name and then read again from the start under the new one
+    private boolean followRenames(Map<Path, BasicFileAttributes> attributes, LogSink sink) throws InterruptedException {
+        Map<String, Path> filesByKey = new HashMap<>();
+        attributes.forEach((file, fileAttributes) -> filesByKey.put(fileKeyOf(fileAttributes), file));
+        Map<Path, TailState> renamed = new HashMap<>();
+        for (Map.Entry<Path, TailState> entry : states.entrySet()) {
+            BasicFileAttributes fileAttributes = attributes.get(entry.getKey());
+            TailState state = entry.getValue();
+            Path newName = filesByKey.get(state.fileKey);
+            if ((fileAttributes == null || !fileKeyOf(fileAttributes).equals(state.fileKey)) && newName != null) {
+                renamed.put(newName, state);
+            }
+        }
+        boolean advanced = false;
+        states.values().removeAll(renamed.values());
+        for (Map.Entry<Path, TailState> entry : renamed.entrySet()) {
+            Path file = entry.getKey();
+            TailState state = entry.getValue();
+            LOGGER.log(Level.INFO, "Following renamed log file: " + file);
+            TailState replaced = states.put(file, state);
+            if (replaced != null) {
+                // What this name used to be is no longer tracked under any name; finish it first
+                try {
+                    advanced |= readFrom(replaced, file, sink);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error tailing log file: " + file, e);
+                }
+                replaced.close();
+            }
+            checkpoints.setProperty(file.toString(), checkpointOf(state));
+            advanced = true;
+        }
+        return advanced;
+    }
+
+    // Finishes and closes files that dropped out of the tracked set, e.g. rotated copies that were
+    // deleted or renamed past the directory filter, and forgets their checkpoints
+    private boolean forgetUntracked(List<Path> tracked, LogSink sink) throws InterruptedException {
+        Set<Path> trackedSet = new HashSet<>(tracked);
+        boolean advanced = false;
+        for (Iterator<Map.Entry<Path, TailState>> iterator = states.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Path, TailState> entry = iterator.next();
+            if (!trackedSet.contains(entry.getKey())) {
+                try {
+                    advanced |= readFrom(entry.getValue(), entry.getKey(), sink);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error tailing log file: " + entry.getKey(), e);
+                }
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+        Set<String> trackedNames = new HashSet<>();
+        for (Path file : tracked) {
+            trackedNames.add(file.toString());
+        }
+        return checkpoints.keySet().retainAll(trackedNames) | advanced;
+    }
+
+    private boolean readNewLines(Path file, BasicFileAttributes attributes, LogSink sink) throws InterruptedException {
+        if (attributes == null) {
+            return false;
+        }
+        try {
+            String fileKey = fileKeyOf(attributes);
+            TailState state = states.get(file);
+            boolean advanced = false;
+
+            if (state == null) {
+                state = openState(file, fileKey, attributes.size());
+                states.put(file, state);
+            } else if (!fileKey.equals(state.fileKey)) {
+                // Rotated: finish the renamed file through the channel we still hold, then switch over
+                advanced = readFrom(state, file, sink);
+                state.close();
+                LOGGER.log(Level.INFO, "Detected rotation of log file: " + file);
+                state = new TailState(fileKey, FileChannel.open(file, StandardOpenOption.READ), 0);
+                states.put(file, state);
+            }
+
+            if (state.channel.size() < state.position) {
+                LOGGER.log(Level.INFO, "Detected truncation of log file: " + file);
+                state.position = 0;
+                // The cut line went with the old content
+                state.skippingLine = false;
+                advanced = true;
+            }
+            advanced |= readFrom(state, file, sink);
+            if (advanced) {
+                checkpoints.setProperty(file.toString(), checkpointOf(state));
+            }
+            return advanced;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error tailing log file: " + file, e);
+            return false;
+        }
+    }
+
+    private TailState openState(Path file, String fileKey, long size) throws IOException {
+        long position = startAtEnd ? size : 0;
+        String checkpoint = checkpoints.getProperty(file.toString());
+        if (checkpoint == null || !checkpointKey(checkpoint).equals(fileKey)) {
+            // The file may have been renamed while we were down; its checkpoint is under the old name
+            for (String name : checkpoints.stringPropertyNames()) {
+                if (checkpointKey(checkpoints.getProperty(name)).equals(fileKey)) {
+                    checkpoint = checkpoints.getProperty(name);
+                    break;
+                }
+            }
+        }
+        boolean skippingLine = false;
+        if (checkpoint != null) {
+            if (checkpointKey(checkpoint).equals(fileKey)) {
+                String offset = withoutSkipping(checkpoint);
+                position = Long.parseLong(offset.substring(offset.lastIndexOf('|') + 1));
+                skippingLine = offset.length() != checkpoint.length();
+            } else {
+                // The file was rotated while we were down, so the checkpoint belongs to another file
+                position = 0;
+            }
+        }
+        TailState state = new TailState(fileKey, FileChannel.open(file, StandardOpenOption.READ), position);
+        state.skippingLine = skippingLine;
+        return state;
+    }
+
+    // "fileKey|position", with SKIPPING appended when the position is inside the rest of a cut
+    // line, so a restart does not pass that rest on as a line of its own
+    private static String checkpointOf(TailState state) {
+        return state.fileKey + "|" + state.position + (state.skippingLine ? SKIPPING : "");
+    }
+
+    private static String checkpointKey(String checkpoint) {
+        String offset = withoutSkipping(checkpoint);
+        return offset.substring(0, offset.lastIndexOf('|'));
+    }
+
+    private static String withoutSkipping(String checkpoint) {
+        return checkpoint.endsWith(SKIPPING) ? checkpoint.substring(0, checkpoint.length() - SKIPPING.length()) : checkpoint;
+    }
+
+    // Reads complete lines only; a trailing partial line is left for the next pass. A line longer
+    // than maxLineBytes is passed on cut to that length and the rest of it is skipped, so neither
+    // the buffer nor the re-read of a partial line grows without bound
+    private boolean readFrom(TailState state, Path file, LogSink sink) throws IOException, InterruptedException {
+        long start = state.position;
+        long lineStart = state.position;
+        long offset = state.position;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        readBuffer.clear();
+        int read;
+        while ((read = state.channel.read(readBuffer, offset)) > 0) {
+            readBuffer.flip();
+            for (int i = 0; i < read; i++) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    if (!state.skippingLine) {
+                        sink.accept(file.toString(), decodeLine(line));
+                    }
+                    state.skippingLine = false;
+                    line.reset();
+                    lineStart = offset + i + 1;
+                } else if (state.skippingLine) {
+                    lineStart = offset + i + 1;
+                } else {
+                    line.write(b);
+                    if (line.size() >= maxLineBytes) {
+                        sink.accept(file.toString(), decodeLine(line));
+                        lineTruncated(file);
+                        state.skippingLine = true;
+                        line.reset();
+                        lineStart = offset + i + 1;
+                    }
+                }
+            }
+            offset += read;
+            readBuffer.clear();
+        }
+        state.position = lineStart;
+        return state.position != start;
+    }
+
+    private void lineTruncated(Path file) {
+        LINES_TRUNCATED.increment();
+        long count = LINES_TRUNCATED.get();
+        if (count == 1 || count % 1000 == 0) {
+            LOGGER.log(Level.WARNING, "Cut a line longer than " + maxLineBytes + " bytes in " + file + " (" + count + " so far)");
+        }
+    }
+
+    private String decodeLine(ByteArrayOutputStream line) {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String fileKeyOf(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        // Not every file system exposes an inode; creation time is the closest stand-in
+        return fileKey != null ? fileKey.toString() : attributes.creationTime().toString();
+    }
+
+    private void loadCheckpoints() {
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        try (InputStream input = Files.newInputStream(stateFile)) {
+            checkpoints.load(input);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error loading tail state: " + stateFile, e);
+        }
+    }
+
+    private void saveCheckpoints() {
+        Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(tempFile)) {
+            checkpoints.store(output, "LogTailer offsets");
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error saving tail state: " + tempFile, e);
+            return;
+        }
+        try {
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error saving tail state: " + stateFile, e);
+        }
+    }
+
+    private static class TailState {
+        private final String fileKey;
+        private final FileChannel channel;
+        private long position;
+        // Within the rest of a line that was cut at maxLineBytes
+        private boolean skippingLine;
+
+        TailState(String fileKey, FileChannel channel, long position) {
+            this.fileKey = fileKey;
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing log file channel", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package logcollection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Bulk ingestion for large archived files: the file is memory-mapped in newline-aligned chunks
+// that are decoded and mapped (typically parsed) in parallel, then delivered in file order
+public class MappedLogReader {
+    private static final Logger LOGGER = Logger.getLogger(MappedLogReader.class.getName());
+    private long chunkSize;
+    private int maxChunksInFlight;
+    private ForkJoinPool pool;
+
+    public MappedLogReader(Properties properties) {
+        chunkSize = Long.parseLong(properties.getProperty("log.bulk.chunkSizeMb", "64")) * 1024 * 1024;
+        int parallelism = Integer.parseInt(properties.getProperty("log.bulk.parallelism",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        // Bounds how many decoded chunks wait in memory for their turn to be delivered
+        maxChunksInFlight = parallelism * 2;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    // The mapper runs on pool threads and must be thread-safe; lines it maps to null are dropped
+    public <T> void read(String filePath, Function<String, T> mapper, Sink<T> sink) throws IOException, InterruptedException {
+        read(filePath, mapper, sink, () -> false);
+    }
+
+    // Stops delivering once cancelled returns true, dropping the rest of the file
+    public <T> void read(String filePath, Function<String, T> mapper, Sink<T> sink, BooleanSupplier cancelled) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            Deque<CompletableFuture<List<T>>> inFlight = new ArrayDeque<>();
+            long start = 0;
+            long size = channel.size();
+            while (start < size || !inFlight.isEmpty()) {
+                if (cancelled.getAsBoolean()) {
+                    // Chunks still being mapped finish on their own and are thrown away
+                    return;
+                }
+                while (start < size && inFlight.size() < maxChunksInFlight) {
+                    long end = chunkEnd(channel, start, size);
+                    long chunkStart = start;
+                    inFlight.add(CompletableFuture.supplyAsync(() -> mapChunk(channel, chunkStart, end, mapper, cancelled), pool));
+                    start = end;
+                }
+                for (T event : join(inFlight.poll())) {
+                    if (cancelled.getAsBoolean()) {
+                        return;
+                    }
+                    sink.accept(filePath, event);
+                }
+            }
+            LOGGER.log(Level.INFO, "Collected logs in bulk from file: " + filePath);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private <T> List<T> join(CompletableFuture<List<T>> chunk) throws IOException {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Extends the chunk to just past the next newline so no line is split between chunks
+    private long chunkEnd(FileChannel channel, long start, long size) throws IOException {
+        long end = Math.min(start + chunkSize, size);
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        while (end < size) {
+            probe.clear();
+            int read = channel.read(probe, end);
+            if (read <= 0) {
+                return size;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return end + i + 1;
+                }
+            }
+            end += read;
+        }
+        return size;
+    }
+
+    private <T> List<T> mapChunk(FileChannel channel, long start, long end, Function<String, T> mapper, BooleanSupplier cancelled) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        List<T> events = new ArrayList<>();
+        byte[] line = new byte[256];
+        int length = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                if (cancelled.getAsBoolean()) {
+                    return events;
+                }
+                addEvent(events, mapper, line, length);
+                length = 0;
+            } else {
+                if (length == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, length);
+                    line = grown;
+                }
+                line[length++] = b;
+            }
+        }
+        if (length > 0) {
+            addEvent(events, mapper, line, length);
+        }
+        return events;
+    }
+
+    private <T> void addEvent(List<T> events, Function<String, T> mapper, byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        T event = mapper.apply(new String(line, 0, length, StandardCharsets.UTF_8));
+        if (event != null) {
+            events.add(event);
+        }
+    }
+
+    public interface Sink<T> {
+        void accept(String source, T event) throws InterruptedException;
+    }
+}
@@ -0,0 +1,308 @@
+package logcollection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Inbound syslog-style listener: one selector thread serves every TCP sender and UDP socket.
+// TCP frames are either newline-terminated or octet-counted ("<length> <message>", RFC 6587),
+// detected per frame. Reads go through one shared direct buffer; a connection only holds a
+// heap buffer while it has an incomplete frame.
+public class SyslogListener {
+    private static final Logger LOGGER = Logger.getLogger(SyslogListener.class.getName());
+    private List<InetSocketAddress> tcpAddresses;
+    private List<InetSocketAddress> udpAddresses;
+    private int maxFrameLength;
+    private boolean octetCounting;
+    private List<SocketAddress> boundAddresses;
+    private Selector selector;
+    private volatile boolean running;
+
+    public SyslogListener(Properties properties) {
+        tcpAddresses = parseAddresses(properties.getProperty("log.listen.tcp", ""));
+        udpAddresses = parseAddresses(properties.getProperty("log.listen.udp", ""));
+        maxFrameLength = Integer.parseInt(properties.getProperty("log.listen.maxFrameLength", "65536"));
+        // "auto" treats a frame starting with "<digits> " as octet-counted; "newline" never does
+        octetCounting = !"newline".equals(properties.getProperty("log.listen.framing", "auto"));
+        boundAddresses = new CopyOnWriteArrayList<>();
+    }
+
+    private static List<InetSocketAddress> parseAddresses(String value) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String address : value.split(",")) {
+            address = address.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int separator = address.lastIndexOf(':');
+            if (separator < 0) {
+                LOGGER.log(Level.SEVERE, "Invalid listen address: " + address);
+                continue;
+            }
+            try {
+                addresses.add(new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.SEVERE, "Invalid port in listen address: " + address, e);
+            }
+        }
+        return addresses;
+    }
+
+    public boolean isConfigured() {
+        return !tcpAddresses.isEmpty() || !udpAddresses.isEmpty();
+    }
+
+    // Addresses actually bound, useful when port 0 was configured
+    public List<SocketAddress> getBoundAddresses() {
+        return boundAddresses;
+    }
+
+    // Serves all senders until stop() is called. The sink runs on the selector thread, so a
+    // blocking sink stops reading and pushes back on TCP senders.
+    public void listen(LogSink sink) throws IOException, InterruptedException {
+        selector = Selector.open();
+        running = true;
+        List<Channel> channels = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : tcpAddresses) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                channels.add(server);
+                server.bind(address, 1024);
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                boundAddresses.add(server.getLocalAddress());
+                LOGGER.log(Level.INFO, "Listening for TCP logs on " + server.getLocalAddress());
+            }
+            for (InetSocketAddress address : udpAddresses) {
+                DatagramChannel datagram = DatagramChannel.open();
+                channels.add(datagram);
+                datagram.bind(address);
+                datagram.configureBlocking(false);
+                datagram.register(selector, SelectionKey.OP_READ);
+                boundAddresses.add(datagram.getLocalAddress());
+                LOGGER.log(Level.INFO, "Listening for UDP logs on " + datagram.getLocalAddress());
+            }
+
+            ByteBuffer readBuffer = ByteBuffer.allocateDirect(Math.max(maxFrameLength, 64 * 1024));
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else if (key.channel() instanceof DatagramChannel) {
+                        receive((DatagramChannel) key.channel(), readBuffer, sink);
+                    } else if (key.isReadable()) {
+                        read(key, readBuffer, sink);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            for (Channel channel : channels) {
+                closeQuietly(channel);
+            }
+            selector.close();
+            boundAddresses.clear();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel client;
+        while ((client = server.accept()) != null) {
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ, new Connection(client.getRemoteAddress().toString()));
+        }
+    }
+
+    private void read(SelectionKey key, ByteBuffer readBuffer, LogSink sink) throws InterruptedException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            readBuffer.clear();
+            int read = client.read(readBuffer);
+            if (read < 0) {
+                connection.finish(sink);
+                key.cancel();
+                client.close();
+                return;
+            }
+            readBuffer.flip();
+            connection.feed(readBuffer, sink);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error reading from log sender: " + connection.source, e);
+            key.cancel();
+            closeQuietly(client);
+        }
+    }
+
+    private void receive(DatagramChannel datagram, ByteBuffer readBuffer, LogSink sink) throws InterruptedException {
+        try {
+            readBuffer.clear();
+            SocketAddress sender;
+            while ((sender = datagram.receive(readBuffer)) != null) {
+                readBuffer.flip();
+                // A datagram carries one message, or several separated by newlines
+                String source = sender.toString();
+                int start = readBuffer.position();
+                for (int i = start; i < readBuffer.limit(); i++) {
+                    if (readBuffer.get(i) == '\n') {
+                        emit(readBuffer, start, i, source, sink);
+                        start = i + 1;
+                    }
+                }
+                emit(readBuffer, start, readBuffer.limit(), source, sink);
+                readBuffer.clear();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error receiving UDP logs", e);
+        }
+    }
+
+    private static void emit(ByteBuffer buffer, int start, int end, String source, LogSink sink) throws InterruptedException {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end <= start) {
+            return;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        sink.accept(source, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing channel", e);
+        }
+    }
+
+    private class Connection {
+        private final String source;
+        private byte[] pending;
+        private int pendingLength;
+        // -1 while reading a newline-terminated frame, otherwise the octet count still expected
+        private int remaining = -1;
+        private boolean frameStarted;
+        private boolean readingLength;
+        private int frameLength;
+        private boolean discarding;
+
+        Connection(String source) {
+            this.source = source;
+        }
+
+        void feed(ByteBuffer buffer, LogSink sink) throws InterruptedException {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (!frameStarted) {
+                    frameStarted = true;
+                    readingLength = octetCounting && b >= '0' && b <= '9';
+                    frameLength = 0;
+                    remaining = -1;
+                }
+                if (readingLength) {
+                    if (b >= '0' && b <= '9') {
+                        frameLength = frameLength * 10 + (b - '0');
+                        // Digits are kept in case the frame turns out to be plain text
+                        append(b);
+                        if (frameLength > maxFrameLength) {
+                            readingLength = false;
+                        }
+                        continue;
+                    }
+                    readingLength = false;
+                    if (b == ' ') {
+                        pendingLength = 0;
+                        remaining = frameLength;
+                        if (remaining == 0) {
+                            endFrame(sink);
+                        }
+                        continue;
+                    }
+                }
+                if (remaining > 0) {
+                    append(b);
+                    if (--remaining == 0) {
+                        endFrame(sink);
+                    }
+                } else if (b == '\n') {
+                    endFrame(sink);
+                } else {
+                    append(b);
+                }
+            }
+        }
+
+        void finish(LogSink sink) throws InterruptedException {
+            if (frameStarted && pendingLength > 0) {
+                endFrame(sink);
+            }
+        }
+
+        private void append(byte b) {
+            if (discarding) {
+                return;
+            }
+            if (pending == null) {
+                pending = new byte[256];
+            }
+            if (pendingLength == pending.length) {
+                if (pending.length >= maxFrameLength) {
+                    LOGGER.log(Level.WARNING, "Dropping oversized log frame from " + source);
+                    discarding = true;
+                    return;
+                }
+                byte[] grown = new byte[Math.min(pending.length * 2, maxFrameLength)];
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+                pending = grown;
+            }
+            pending[pendingLength++] = b;
+        }
+
+        private void endFrame(LogSink sink) throws InterruptedException {
+            int length = pendingLength;
+            if (length > 0 && pending[length - 1] == '\r') {
+                length--;
+            }
+            if (!discarding && length > 0) {
+                sink.accept(source, new String(pending, 0, length, StandardCharsets.UTF_8));
+            }
+            frameStarted = false;
+            discarding = false;
+            pendingLength = 0;
+            // Idle connections give their frame buffer back
+            if (pending != null && pending.length > 256) {
+                pending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package logparsing;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Maps repeated field values, such as log levels and user IDs, to small int IDs and one canonical
+// String each, so parsed events share their values instead of each holding a fresh copy, and
+// rules can compare IDs instead of strings. The table is open-addressed over primitive arrays:
+// looking up a value, even a range of a line, allocates nothing and takes no lock, because a
+// value is fully stored before the slot pointing at it is published. IDs are never reused, and
+// the number of values is capped; past the cap, intern() hands out uncached strings and id()
+// returns -1 for values it has not seen.
+public class FieldDictionary {
+    public static final FieldDictionary LOG_LEVELS = new FieldDictionary(1024);
+    public static final FieldDictionary USER_IDS = new FieldDictionary(1 << 16);
+
+    private final int maxValues;
+    private volatile Table table;
+    private int size;
+
+    public FieldDictionary(int maxValues) {
+        this.maxValues = maxValues;
+        table = new Table(16);
+    }
+
+    // Returns -1 when the value is null or not in the dictionary
+    public int id(CharSequence value) {
+        return value == null ? -1 : id(value, 0, value.length());
+    }
+
+    public int id(CharSequence text, int start, int end) {
+        return table.find(text, start, end, hash(text, start, end));
+    }
+
+    public String value(int id) {
+        return table.values[id];
+    }
+
+    // The canonical copy of the value; the value itself when the dictionary is full
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = lookupOrAdd(value, 0, value.length());
+        return interned != null ? interned : value;
+    }
+
+    // The canonical copy of text[start, end), copying the characters only the first time
+    public String intern(CharSequence text, int start, int end) {
+        String interned = lookupOrAdd(text, start, end);
+        return interned != null ? interned : text.subSequence(start, end).toString();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private String lookupOrAdd(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        Table current = table;
+        int id = current.find(text, start, end, hash);
+        if (id >= 0) {
+            return current.values[id];
+        }
+        synchronized (this) {
+            current = table;
+            id = current.find(text, start, end, hash);
+            if (id >= 0) {
+                return current.values[id];
+            }
+            if (size >= maxValues) {
+                return null;
+            }
+            if ((size + 1) * 2 > current.slots.length()) {
+                current = current.resize(current.slots.length() * 2, size);
+                table = current;
+            }
+            String value = text.subSequence(start, end).toString();
+            current.add(value, hash, size);
+            return current.values[size++];
+        }
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        // Slot values are ID + 1, so 0 marks an empty slot
+        final AtomicIntegerArray slots;
+        final String[] values;
+        final int[] hashes;
+
+        Table(int capacity) {
+            slots = new AtomicIntegerArray(capacity);
+            values = new String[capacity / 2];
+            hashes = new int[capacity / 2];
+        }
+
+        int find(CharSequence text, int start, int end, int hash) {
+            int mask = slots.length() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                int slot = slots.get(i);
+                if (slot == 0) {
+                    return -1;
+                }
+                int id = slot - 1;
+                if (hashes[id] == hash && contentEquals(values[id], text, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        // Called with the dictionary locked; the value is stored before its slot is published
+        void add(String value, int hash, int id) {
+            values[id] = value;
+            hashes[id] = hash;
+            int mask = slots.length() - 1;
+            int i = hash & mask;
+            while (slots.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            slots.set(i, id + 1);
+        }
+
+        Table resize(int capacity, int size) {
+            Table resized = new Table(capacity);
+            for (int id = 0; id < size; id++) {
+                resized.add(values[id], hashes[id], id);
+            }
+            return resized;
+        }
+
+        private static boolean contentEquals(String value, CharSequence text, int start, int end) {
+            if (value.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
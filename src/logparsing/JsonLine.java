@@ -0,0 +1,147 @@
+package logparsing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Minimal parser for one JSON object per line. Top-level strings, numbers, booleans and nulls
+// become map entries; nested objects and arrays are kept as their raw JSON text.
+class JsonLine {
+    // Compared by identity; a JSON null is returned as a Java null and simply left out of the map
+    private static final String PARSE_ERROR = new String("error");
+
+    private final String text;
+    private int pos;
+
+    private JsonLine(String text) {
+        this.text = text;
+    }
+
+    // Returns null when the line is not a single well-formed JSON object
+    static Map<String, String> parseObject(String line) {
+        JsonLine parser = new JsonLine(line);
+        Map<String, String> fields = new HashMap<>();
+        try {
+            parser.skipWhitespace();
+            if (!parser.consume('{')) {
+                return null;
+            }
+            parser.skipWhitespace();
+            if (!parser.consume('}')) {
+                do {
+                    parser.skipWhitespace();
+                    String key = parser.readString();
+                    parser.skipWhitespace();
+                    if (key == null || !parser.consume(':')) {
+                        return null;
+                    }
+                    parser.skipWhitespace();
+                    String value = parser.readValue();
+                    if (value == PARSE_ERROR) {
+                        return null;
+                    }
+                    if (value != null) {
+                        fields.put(key, value);
+                    }
+                    parser.skipWhitespace();
+                } while (parser.consume(','));
+                if (!parser.consume('}')) {
+                    return null;
+                }
+            }
+            parser.skipWhitespace();
+            return parser.pos == line.length() ? fields : null;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String readValue() {
+        char c = text.charAt(pos);
+        if (c == '"') {
+            String value = readString();
+            return value == null ? PARSE_ERROR : value;
+        }
+        if (c == '{' || c == '[') {
+            int start = pos;
+            return skipNested() ? text.substring(start, pos) : PARSE_ERROR;
+        }
+        int start = pos;
+        while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+            pos++;
+        }
+        String literal = text.substring(start, pos);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false")) {
+            return literal;
+        }
+        Double.parseDouble(literal);
+        return literal;
+    }
+
+    private String readString() {
+        if (!consume('"')) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+    }
+
+    // Skips a nested object or array, honouring strings so brackets inside them are ignored
+    private boolean skipNested() {
+        int depth = 0;
+        do {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                if (readString() == null) {
+                    return false;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+            pos++;
+        } while (depth > 0);
+        return true;
+    }
+
+    private boolean consume(char expected) {
+        if (pos < text.length() && text.charAt(pos) == expected) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+}
@@ -1,81 +1,451 @@
 package logparsing;
 
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class LogParser {
+    private static final Logger LOGGER = Logger.getLogger(LogParser.class.getName());
+    private static final Counter LINES_PARSED = Metrics.counter("ids_parser_lines_total", "Log lines parsed successfully");
+    private static final Counter PARSE_FAILURES = Metrics.counter("ids_parser_failures_total", "Log lines that matched no format");
+    private static final LatencyHistogram PARSE_LATENCY = Metrics.histogram("ids_parser_latency_seconds", "Time to parse one line (sampled)");
+    private static final int MAX_CACHED_SOURCES = 10000;
+
     private List<LogFormat> logFormats;
+    private Map<String, LogFormat> sourceFormats;
+    private AtomicLong malformedLines;
+    private long malformedLogEvery;
+    private TimeZone timeZone;
 
     public LogParser() {
+        this(loadConfiguration());
+    }
+
+    // Formats not defined in the given properties fall back to the built-in ones
+    public LogParser(Properties properties) {
+        Properties formats = new Properties(builtInFormats());
+        for (String key : properties.stringPropertyNames()) {
+            formats.setProperty(key, properties.getProperty(key));
+        }
         logFormats = new ArrayList<>();
-        loadLogFormats();
+        sourceFormats = new ConcurrentHashMap<>();
+        malformedLines = new AtomicLong();
+        malformedLogEvery = Math.max(1, Long.parseLong(formats.getProperty("log.formats.malformedLogEvery", "1000")));
+        timeZone = TimeZone.getDefault();
+        loadLogFormats(formats);
     }
 
-    private void loadLogFormats() {
-        // Define different log formats
-        logFormats.add(new LogFormat(
-            Pattern.compile("^(\\S+) (\\S+) (.+)$"), 
-            new String[]{"timestamp", "logLevel", "message"}
-        ));
-        logFormats.add(new LogFormat(
-            Pattern.compile("^(\\S+) (\\S+) \\[(\\S+)] (.+)$"), 
-            new String[]{"timestamp", "logLevel", "userId", "message"}
-        ));
-        // Add more formats as needed
+    // logformats.properties can add formats or override the built-in ones
+    private static Properties loadConfiguration() {
+        Properties properties = new Properties();
+        try (InputStream input = LogParser.class.getClassLoader().getResourceAsStream("logformats.properties")) {
+            if (input == null) {
+                LOGGER.log(Level.INFO, "logformats.properties not found, using the built-in formats");
+                return properties;
+            }
+            properties.load(input);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Error loading configuration", ex);
+        }
+        return properties;
+    }
+
+    // Formats are tried in log.formats order. Each one is anchored on something the others cannot
+    // start with, and the generic format refuses lines that carry a [userId], so at most one
+    // format accepts a given line and caching the winner per source cannot change the result.
+    private static Properties builtInFormats() {
+        Properties formats = new Properties();
+        formats.setProperty("log.formats", "userId,generic,json,syslog,apache");
+        formats.setProperty("format.json.type", "json");
+        formats.setProperty("format.json.rename", "ts:timestamp,time:timestamp,@timestamp:timestamp,level:logLevel,severity:logLevel,msg:message,user:userId");
+        formats.setProperty("format.json.timestampFormats", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX|yyyy-MM-dd'T'HH:mm:ssXXX|yyyy-MM-dd'T'HH:mm:ss|yyyy-MM-dd HH:mm:ss");
+        // RFC 3164 syslog; the level comes from the severity part of the priority
+        formats.setProperty("format.syslog.pattern", "^<(\\d{1,3})>([A-Z][a-z]{2} [ \\d]\\d \\d{2}:\\d{2}:\\d{2}) (\\S+) ([^\\s:\\[]+)(?:\\[\\d+])?: (.*)$");
+        formats.setProperty("format.syslog.fields", "priority,timestamp,host,program,message");
+        formats.setProperty("format.syslog.timestampFormats", "MMM d HH:mm:ss");
+        // Apache/nginx common and combined access logs; the level comes from the status code
+        formats.setProperty("format.apache.pattern", "^(\\S+) \\S+ (\\S+) \\[([^\\]]+)] \"([^\"]*)\" (\\d{3}) (\\S+)(?: \"([^\"]*)\" \"([^\"]*)\")?.*$");
+        formats.setProperty("format.apache.fields", "clientIp,userId,timestamp,message,status,bytes,referer,userAgent");
+        formats.setProperty("format.apache.timestampFormats", "dd/MMM/yyyy:HH:mm:ss Z");
+        formats.setProperty("format.userId.pattern", "^(\\S+) (\\S+) \\[(\\S+)] (.+)$");
+        formats.setProperty("format.userId.fields", "timestamp,logLevel,userId,message");
+        formats.setProperty("format.generic.pattern", "^(\\S+) (\\S+) (?!\\[\\S+] .)(.+)$");
+        formats.setProperty("format.generic.fields", "timestamp,logLevel,message");
+        return formats;
+    }
+
+    private void loadLogFormats(Properties properties) {
+        String defaultTimestampFormats = "yyyy-MM-dd'T'HH:mm:ss|yyyy-MM-dd HH:mm:ss|yyyy/MM/dd HH:mm:ss";
+        for (String name : properties.getProperty("log.formats").split(",")) {
+            name = name.trim();
+            String prefix = "format." + name + ".";
+            String[] timestampFormats = properties.getProperty(prefix + "timestampFormats", defaultTimestampFormats).split("\\|");
+            if ("json".equals(properties.getProperty(prefix + "type", "regex"))) {
+                Map<String, String> rename = new HashMap<>();
+                for (String mapping : properties.getProperty(prefix + "rename", "").split(",")) {
+                    String[] parts = mapping.split(":", 2);
+                    if (parts.length == 2) {
+                        rename.put(parts[0].trim(), parts[1].trim());
+                    }
+                }
+                logFormats.add(new LogFormat(name, null, null, rename, timestampFormats));
+                continue;
+            }
+            String pattern = properties.getProperty(prefix + "pattern");
+            String fields = properties.getProperty(prefix + "fields");
+            if (pattern == null || fields == null) {
+                LOGGER.log(Level.SEVERE, "Log format " + name + " needs both a pattern and fields, skipping it");
+                continue;
+            }
+            String[] fieldNames = fields.split(",");
+            for (int i = 0; i < fieldNames.length; i++) {
+                fieldNames[i] = fieldNames[i].trim();
+            }
+            logFormats.add(new LogFormat(name, Pattern.compile(pattern), fieldNames, null, timestampFormats));
+        }
     }
 
     public Map<String, String> parseLog(String logEntry) {
+        Map<String, String> parsedLog = parseLog(null, logEntry);
+        if (parsedLog == null) {
+            throw new IllegalArgumentException("Log entry does not match any known format: " + logEntry);
+        }
+        return parsedLog;
+    }
+
+    // Returns null for a line that matches no format; such lines are counted, and a sample of
+    // them is logged, instead of throwing for each one
+    public Map<String, String> parseLog(String source, String logEntry) {
+        boolean timed = Metrics.sample();
+        long start = timed ? System.nanoTime() : 0;
+        Map<String, String> parsedLog = parseWithFormats(source == null ? "" : source, logEntry);
+        if (parsedLog == null) {
+            PARSE_FAILURES.increment();
+            long malformed = malformedLines.incrementAndGet();
+            if (malformed == 1 || malformed % malformedLogEvery == 0) {
+                LOGGER.log(Level.WARNING, "Log entry does not match any known format (" + malformed
+                        + " malformed lines so far) from " + source + ": " + logEntry);
+            }
+            return null;
+        }
+        LINES_PARSED.increment();
+        if (timed) {
+            PARSE_LATENCY.record(System.nanoTime() - start);
+        }
+        return parsedLog;
+    }
+
+    public long getMalformedLineCount() {
+        return malformedLines.get();
+    }
+
+    // A source almost always sticks to one format, so the format that matched its last line is
+    // tried first and most lines need a single match attempt
+    private Map<String, String> parseWithFormats(String source, String logEntry) {
+        LogFormat cached = sourceFormats.get(source);
+        if (cached != null) {
+            Map<String, String> parsedLog = cached.parse(logEntry);
+            if (parsedLog != null) {
+                return parsedLog;
+            }
+        }
         for (LogFormat format : logFormats) {
-            Matcher matcher = format.getPattern().matcher(logEntry);
-            if (matcher.matches()) {
-                Map<String, String> parsedLog = new HashMap<>();
-                String[] fields = format.getFields();
-                for (int i = 0; i < fields.length; i++) {
-                    parsedLog.put(fields[i], matcher.group(i + 1));
+            if (format == cached) {
+                continue;
+            }
+            Map<String, String> parsedLog = format.parse(logEntry);
+            if (parsedLog != null) {
+                if (sourceFormats.size() >= MAX_CACHED_SOURCES) {
+                    sourceFormats.clear();
                 }
-                parseTimestamp(parsedLog);
+                sourceFormats.put(source, format);
                 return parsedLog;
             }
         }
-        throw new IllegalArgumentException("Log entry does not match any known format: " + logEntry);
+        return null;
     }
 
-    private void parseTimestamp(Map<String, String> parsedLog) {
-        String timestamp = parsedLog.get("timestamp");
-        // Example timestamp formats
-        String[] timestampFormats = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss", "yyyy/MM/dd HH:mm:ss"};
+    // Garbage-free variant of parseLog: fills the reusable record with views over the line
+    // instead of allocating a map and strings. Returns false when the line does not parse.
+    // Only understands the built-in userId and generic formats, and accepts the same well-formed
+    // lines as parseLog does with those.
+    public boolean parseLog(CharSequence logEntry, LogRecord record) {
+        if (!scanLog(logEntry, record)) {
+            PARSE_FAILURES.increment();
+            return false;
+        }
+        LINES_PARSED.increment();
+        return true;
+    }
 
-        for (String format : timestampFormats) {
-            try {
-                SimpleDateFormat sdf = new SimpleDateFormat(format);
-                Date date = sdf.parse(timestamp);
-                parsedLog.put("timestamp", sdf.format(date));
-                return;
-            } catch (ParseException e) {
-                // Ignore and try the next format
+    private boolean scanLog(CharSequence logEntry, LogRecord record) {
+        record.reset(logEntry);
+        int length = logEntry.length();
+        int timestampEnd = scanToken(logEntry, 0);
+        if (timestampEnd == 0 || timestampEnd >= length || logEntry.charAt(timestampEnd) != ' ') {
+            return false;
+        }
+        int levelEnd = scanToken(logEntry, timestampEnd + 1);
+        if (levelEnd == timestampEnd + 1 || levelEnd >= length - 1 || logEntry.charAt(levelEnd) != ' ') {
+            return false;
+        }
+        long timestampMillis = scanTimestamp(logEntry, 0, timestampEnd);
+        if (timestampMillis == Long.MIN_VALUE) {
+            return false;
+        }
+        record.set(LogRecord.TIMESTAMP, 0, timestampEnd);
+        record.set(LogRecord.LOG_LEVEL, timestampEnd + 1, levelEnd);
+        int messageStart = levelEnd + 1;
+        if (logEntry.charAt(messageStart) == '[') {
+            // "[userId] message", as in the userId format
+            int userIdEnd = scanToken(logEntry, messageStart);
+            if (userIdEnd - messageStart >= 3 && logEntry.charAt(userIdEnd - 1) == ']'
+                    && userIdEnd < length - 1 && logEntry.charAt(userIdEnd) == ' ') {
+                record.set(LogRecord.USER_ID, messageStart + 1, userIdEnd - 1);
+                messageStart = userIdEnd + 1;
             }
         }
-        throw new IllegalArgumentException("Invalid timestamp format: " + timestamp);
+        record.set(LogRecord.MESSAGE, messageStart, length);
+        record.setTimestampMillis(timestampMillis);
+        return true;
+    }
+
+    private static int scanToken(CharSequence text, int start) {
+        int i = start;
+        while (i < text.length() && !isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    // Same character set as the regex \s used by the formats
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Hand-written scanner for yyyy-MM-dd'T'HH:mm:ss and for epoch seconds or milliseconds. Like
+    // SimpleDateFormat.parse it only looks at the prefix of a date token. Returns Long.MIN_VALUE
+    // when the token is not a timestamp.
+    private long scanTimestamp(CharSequence text, int start, int end) {
+        if (isEpoch(text, start, end)) {
+            long epoch = 0;
+            for (int i = start; i < end; i++) {
+                epoch = epoch * 10 + (text.charAt(i) - '0');
+            }
+            return end - start == 10 ? epoch * 1000 : epoch;
+        }
+        if (end - start < 19 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-'
+                || text.charAt(start + 10) != 'T' || text.charAt(start + 13) != ':' || text.charAt(start + 16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, start, 4);
+        int month = digits(text, start + 5, 2);
+        int day = digits(text, start + 8, 2);
+        int hour = digits(text, start + 11, 2);
+        int minute = digits(text, start + 14, 2);
+        int second = digits(text, start + 17, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return Long.MIN_VALUE;
+        }
+        long localMillis = ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+        return localMillis - timeZone.getOffset(localMillis - timeZone.getRawOffset());
+    }
+
+    // Epoch seconds or milliseconds from September 2001 to November 2286, i.e. exactly 10 or 13
+    // digits, so that a leading PID, port or counter is not mistaken for a time
+    private static boolean isEpoch(CharSequence text, int start, int end) {
+        if (end - start != 10 && end - start != 13 || text.charAt(start) == '0') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar; months and days past their range
+    // roll over the way lenient SimpleDateFormat does
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = year + Math.floorDiv(month - 1, 12);
+        int m = Math.floorMod(month - 1, 12) + 1;
+        y -= m <= 2 ? 1 : 0;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (m + (m > 2 ? -3 : 9)) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468 + (day - 1);
+    }
+
+    // Log levels for formats that have none of their own: syslog severity and HTTP status
+    private static void deriveLogLevel(Map<String, String> parsedLog) {
+        if (parsedLog.containsKey("logLevel")) {
+            return;
+        }
+        String priority = parsedLog.get("priority");
+        String status = parsedLog.get("status");
+        if (priority != null) {
+            int severity = Integer.parseInt(priority) % 8;
+            parsedLog.put("logLevel", severity <= 3 ? "ERROR" : severity == 4 ? "WARN" : severity == 7 ? "DEBUG" : "INFO");
+        } else if (status != null) {
+            parsedLog.put("logLevel", status.startsWith("5") ? "ERROR" : status.startsWith("4") ? "WARN" : "INFO");
+        }
     }
 
     private static class LogFormat {
+        private String name;
         private Pattern pattern;
         private String[] fields;
+        private Map<String, String> rename;
+        private String[] timestampPatterns;
+        // SimpleDateFormat is not thread-safe, so each thread keeps its own instances instead of
+        // building new ones for every line
+        private ThreadLocal<TimestampCache> timestampCaches;
 
-        public LogFormat(Pattern pattern, String[] fields) {
+        // A null pattern means one JSON object per line, with keys renamed through rename
+        public LogFormat(String name, Pattern pattern, String[] fields, Map<String, String> rename, String[] timestampPatterns) {
+            this.name = name;
             this.pattern = pattern;
             this.fields = fields;
+            this.rename = rename;
+            this.timestampPatterns = timestampPatterns;
+            timestampCaches = ThreadLocal.withInitial(() -> {
+                SimpleDateFormat[] formats = new SimpleDateFormat[timestampPatterns.length];
+                for (int i = 0; i < formats.length; i++) {
+                    formats[i] = new SimpleDateFormat(timestampPatterns[i].trim(), Locale.ENGLISH);
+                }
+                return new TimestampCache(formats);
+            });
         }
 
-        public Pattern getPattern() {
-            return pattern;
+        // Returns null when the line is not in this format or its timestamp does not parse
+        public Map<String, String> parse(String logEntry) {
+            Map<String, String> parsedLog = new HashMap<>();
+            if (pattern == null) {
+                Map<String, String> object = logEntry.startsWith("{") ? JsonLine.parseObject(logEntry) : null;
+                if (object == null) {
+                    return null;
+                }
+                for (Map.Entry<String, String> entry : object.entrySet()) {
+                    String field = rename.getOrDefault(entry.getKey(), entry.getKey());
+                    // epochMillis is derived from the timestamp only; the line cannot set it
+                    if (!field.equals("epochMillis")) {
+                        parsedLog.put(field, entry.getValue());
+                    }
+                }
+                parsedLog.computeIfPresent("logLevel", (key, level) -> FieldDictionary.LOG_LEVELS.intern(level.toUpperCase(Locale.ROOT)));
+                parsedLog.computeIfPresent("userId", (key, userId) -> FieldDictionary.USER_IDS.intern(userId));
+            } else {
+                Matcher matcher = pattern.matcher(logEntry);
+                if (!matcher.matches()) {
+                    return null;
+                }
+                for (int i = 0; i < fields.length && i < matcher.groupCount(); i++) {
+                    int start = matcher.start(i + 1);
+                    if (start >= 0) {
+                        parsedLog.put(fields[i], fieldValue(fields[i], logEntry, start, matcher.end(i + 1)));
+                    }
+                }
+            }
+            deriveLogLevel(parsedLog);
+            String timestamp = parsedLog.get("timestamp");
+            if (timestamp != null && !parseTimestamp(parsedLog, timestamp)) {
+                return null;
+            }
+            return parsedLog;
+        }
+
+        // Low-cardinality fields share one canonical string per value instead of a copy per line
+        private static String fieldValue(String field, String logEntry, int start, int end) {
+            if ("logLevel".equals(field)) {
+                return FieldDictionary.LOG_LEVELS.intern(logEntry, start, end);
+            }
+            if ("userId".equals(field)) {
+                return FieldDictionary.USER_IDS.intern(logEntry, start, end);
+            }
+            return logEntry.substring(start, end);
+        }
+
+        private boolean parseTimestamp(Map<String, String> parsedLog, String timestamp) {
+            TimestampCache cache = timestampCaches.get();
+            if (timestamp.equals(cache.raw)) {
+                // Lines within the same second repeat the timestamp; reuse the previous result
+                parsedLog.put("timestamp", cache.timestamp);
+                parsedLog.put("epochMillis", cache.epochMillis);
+                return true;
+            }
+            if (isEpoch(timestamp, 0, timestamp.length())) {
+                long epoch = Long.parseLong(timestamp);
+                parsedLog.put("epochMillis", Long.toString(timestamp.length() == 10 ? epoch * 1000 : epoch));
+                return true;
+            }
+            SimpleDateFormat[] formats = cache.formats;
+            for (int i = 0; i < formats.length; i++) {
+                try {
+                    Date date = formats[i].parse(timestamp);
+                    if (!timestampPatterns[i].contains("y")) {
+                        date = withCurrentYear(date, formats[i].getCalendar());
+                    }
+                    cache.raw = timestamp;
+                    cache.timestamp = formats[i].format(date);
+                    cache.epochMillis = Long.toString(date.getTime());
+                    parsedLog.put("timestamp", cache.timestamp);
+                    parsedLog.put("epochMillis", cache.epochMillis);
+                    return true;
+                } catch (ParseException e) {
+                    // Ignore and try the next format
+                }
+            }
+            return false;
         }
 
-        public String[] getFields() {
-            return fields;
+        // Syslog timestamps have no year: assume the current one, or last year when that would
+        // put the event more than a day in the future (a December line read in January)
+        private static Date withCurrentYear(Date date, Calendar calendar) {
+            Calendar now = (Calendar) calendar.clone();
+            now.setTimeInMillis(System.currentTimeMillis());
+            calendar.setTime(date);
+            calendar.set(Calendar.YEAR, now.get(Calendar.YEAR));
+            if (calendar.getTimeInMillis() > now.getTimeInMillis() + 86_400_000L) {
+                calendar.add(Calendar.YEAR, -1);
+            }
+            return calendar.getTime();
+        }
+    }
+
+    private static class TimestampCache {
+        private final SimpleDateFormat[] formats;
+        private String raw;
+        private String timestamp;
+        private String epochMillis;
+
+        TimestampCache(SimpleDateFormat[] formats) {
+            this.formats = formats;
         }
     }
 }
@@ -0,0 +1,108 @@
+package logparsing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Reusable parse result: fields are views over the original line, so filling a record
+// allocates nothing; copy a field with toString() if it must outlive the next parse
+public class LogRecord {
+    public static final int TIMESTAMP = 0;
+    public static final int LOG_LEVEL = 1;
+    public static final int USER_ID = 2;
+    public static final int MESSAGE = 3;
+    private static final String[] FIELD_NAMES = {"timestamp", "logLevel", "userId", "message"};
+
+    private CharSequence line;
+    private int[] starts;
+    private int[] ends;
+    private Field[] fields;
+    private long timestampMillis;
+
+    public LogRecord() {
+        starts = new int[FIELD_NAMES.length];
+        ends = new int[FIELD_NAMES.length];
+        fields = new Field[FIELD_NAMES.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new Field(i);
+        }
+    }
+
+    void reset(CharSequence line) {
+        this.line = line;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = -1;
+            ends[i] = -1;
+        }
+        timestampMillis = 0;
+    }
+
+    void set(int field, int start, int end) {
+        starts[field] = start;
+        ends[field] = end;
+    }
+
+    void setTimestampMillis(long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+    }
+
+    public boolean has(int field) {
+        return starts[field] >= 0;
+    }
+
+    // Returns null when the field is absent from the line
+    public CharSequence get(int field) {
+        return has(field) ? fields[field] : null;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public CharSequence getLine() {
+        return line;
+    }
+
+    // Copies the record into the map shape the rest of the pipeline consumes
+    public Map<String, String> toMap() {
+        Map<String, String> parsedLog = new HashMap<>();
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (i == LOG_LEVEL && has(i)) {
+                parsedLog.put(FIELD_NAMES[i], FieldDictionary.LOG_LEVELS.intern(line, starts[i], ends[i]));
+            } else if (i == USER_ID && has(i)) {
+                parsedLog.put(FIELD_NAMES[i], FieldDictionary.USER_IDS.intern(line, starts[i], ends[i]));
+            } else if (has(i)) {
+                parsedLog.put(FIELD_NAMES[i], fields[i].toString());
+            }
+        }
+        parsedLog.put("epochMillis", Long.toString(timestampMillis));
+        return parsedLog;
+    }
+
+    private class Field implements CharSequence {
+        private final int field;
+
+        Field(int field) {
+            this.field = field;
+        }
+
+        @Override
+        public int length() {
+            return ends[field] - starts[field];
+        }
+
+        @Override
+        public char charAt(int index) {
+            return line.charAt(starts[field] + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return line.subSequence(starts[field] + start, starts[field] + end);
+        }
+
+        @Override
+        public String toString() {
+            return line.subSequence(starts[field], ends[field]).toString();
+        }
+    }
+}
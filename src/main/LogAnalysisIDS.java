@@ -4,38 +4,68 @@ import logcollection.LogCollector;
 import logparsing.LogParser;
 import detection.RuleBasedDetector;
 import alerting.AlertingSystem;
+import config.ConfigCompiler;
+import config.ConfigSnapshot;
+import metrics.MetricsExporter;
+import pipeline.LogPipeline;
 
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class LogAnalysisIDS {
     private static final Logger LOGGER = Logger.getLogger(LogAnalysisIDS.class.getName());
 
+    // -Dconfig.snapshot=<file> starts from a snapshot written by config.ConfigCompiler instead of
+    // the .properties files on the classpath
     public static void main(String[] args) {
-        LogCollector logCollector = new LogCollector();
-        LogParser logParser = new LogParser();
-        RuleBasedDetector detector = new RuleBasedDetector();
-        AlertingSystem alertingSystem = new AlertingSystem();
+        String snapshotFile = System.getProperty("config.snapshot");
+        ConfigSnapshot snapshot = null;
+        if (snapshotFile != null) {
+            try {
+                snapshot = ConfigSnapshot.load(Paths.get(snapshotFile));
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error loading config snapshot: " + snapshotFile, e);
+                return;
+            }
+        }
 
-        try {
-            List<String> logs = logCollector.collectLogs();
-            for (String log : logs) {
-                try {
-                    Map<String, String> parsedLog = logParser.parseLog(log);
-                    List<String> alerts = detector.detectSuspiciousActivity(parsedLog);
-                    for (String alert : alerts) {
-                        alertingSystem.sendAlert(alert + ": " + parsedLog.get("message"));
-                    }
-                } catch (IllegalArgumentException e) {
-                    LOGGER.log(Level.SEVERE, "Failed to parse log: " + log, e);
-                }
+        MetricsExporter metricsExporter = snapshot != null ? new MetricsExporter(snapshot.properties("metrics")) : new MetricsExporter();
+        metricsExporter.start();
+        LogCollector logCollector = snapshot != null ? new LogCollector(snapshot.properties("logcollector")) : new LogCollector();
+        LogParser logParser = snapshot != null ? new LogParser(snapshot.properties("logformats")) : new LogParser();
+        RuleBasedDetector detector = snapshot != null
+                ? new RuleBasedDetector(snapshot.properties("rules"), snapshot.section(ConfigCompiler.COMPILED_RULES))
+                : new RuleBasedDetector();
+        AlertingSystem alertingSystem = snapshot != null ? new AlertingSystem(snapshot.properties("alerting")) : new AlertingSystem();
+
+        LogPipeline pipeline = snapshot != null
+                ? new LogPipeline(logCollector, logParser, detector, alertingSystem, snapshot.properties("pipeline"))
+                : new LogPipeline(logCollector, logParser, detector, alertingSystem);
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Let follow mode flush its offsets and drain the pipeline before the JVM exits
+            pipeline.stop();
+            try {
+                mainThread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }));
+
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.WARNING, "Log analysis interrupted", e);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error collecting logs", e);
         } finally {
+            logCollector.close();
+            detector.close();
             alertingSystem.shutdown();
+            metricsExporter.stop();
         }
     }
 }
@@ -0,0 +1,10 @@
+package metrics;
+
+import java.util.Map;
+
+// Reports series that are read at each scrape rather than registered, for components whose set
+// of series changes at run time, e.g. one per rule. Values are added with Map.merge(name, value,
+// Long::sum), so the same series reported by two collectors is summed.
+public interface Collector {
+    void collect(Map<String, Long> counters, Map<String, Long> gauges);
+}
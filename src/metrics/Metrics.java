@@ -0,0 +1,95 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+// Process-wide metric registry. Series names follow Prometheus conventions and may carry
+// labels, e.g. ids_rule_matches_total{rule="rule1"}; asking twice for a name returns the
+// same instance, so components can look metrics up once and keep them in fields.
+public class Metrics {
+    // Latencies are timed for 1 in SAMPLE_RATE operations to keep the overhead negligible
+    private static final int SAMPLE_RATE = Integer.getInteger("metrics.sampleRate", 64);
+
+    // Hash maps, since registering thousands of per-rule series into sorted maps was a large part
+    // of startup; the exporter sorts the series when it is scraped
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, String> HELP = new ConcurrentHashMap<>();
+    // Keyed weakly by owner, so a component dropped without unregistering stops reporting once it
+    // is collected; a collector must therefore not refer to its owner
+    private static final Map<Object, Collector> COLLECTORS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help) {
+        HELP.putIfAbsent(familyOf(name), help);
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static LatencyHistogram histogram(String name, String help) {
+        HELP.putIfAbsent(familyOf(name), help);
+        return HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    // Registering a gauge again replaces its supplier, e.g. when a component is recreated
+    public static void gauge(String name, String help, LongSupplier value) {
+        HELP.putIfAbsent(familyOf(name), help);
+        GAUGES.put(name, value);
+    }
+
+    // Replaces any collector registered before by the same owner
+    public static void register(Object owner, Collector collector) {
+        COLLECTORS.put(owner, collector);
+    }
+
+    public static void unregister(Object owner) {
+        COLLECTORS.remove(owner);
+    }
+
+    // HELP text for a family reported by a collector
+    public static void describe(String family, String help) {
+        HELP.putIfAbsent(family, help);
+    }
+
+    public static boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+    }
+
+    public static int getSampleRate() {
+        return SAMPLE_RATE;
+    }
+
+    // Current values of the registered counters and gauges and of every collector's series
+    static void collect(Map<String, Long> counters, Map<String, Long> gauges) {
+        COUNTERS.forEach((name, counter) -> counters.put(name, counter.get()));
+        GAUGES.forEach((name, gauge) -> gauges.put(name, gauge.getAsLong()));
+        List<Collector> collectors;
+        synchronized (COLLECTORS) {
+            collectors = new ArrayList<>(COLLECTORS.values());
+        }
+        for (Collector collector : collectors) {
+            collector.collect(counters, gauges);
+        }
+    }
+
+    static Map<String, LatencyHistogram> histograms() {
+        return HISTOGRAMS;
+    }
+
+    static String helpOf(String family) {
+        return HELP.getOrDefault(family, family);
+    }
+
+    static String familyOf(String name) {
+        int labels = name.indexOf('{');
+        return labels < 0 ? name : name.substring(0, labels);
+    }
+}
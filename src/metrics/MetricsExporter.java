@@ -0,0 +1,202 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Publishes the registry over JMX (ids:type=Metrics) and, when metrics.http.port is set,
+// as Prometheus text on http://<metrics.http.host>:<port>/metrics
+public class MetricsExporter {
+    private static final Logger LOGGER = Logger.getLogger(MetricsExporter.class.getName());
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private Properties properties;
+    private HttpServer httpServer;
+    private ObjectName objectName;
+
+    public MetricsExporter() {
+        this(loadConfiguration());
+    }
+
+    public MetricsExporter(Properties properties) {
+        this.properties = properties;
+    }
+
+    private static Properties loadConfiguration() {
+        Properties properties = new Properties();
+        try (InputStream input = MetricsExporter.class.getClassLoader().getResourceAsStream("metrics.properties")) {
+            if (input == null) {
+                LOGGER.log(Level.INFO, "metrics.properties not found, using defaults");
+                return properties;
+            }
+            properties.load(input);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Error loading configuration", ex);
+        }
+        return properties;
+    }
+
+    public void start() {
+        if (Boolean.parseBoolean(properties.getProperty("metrics.jmx.enabled", "true"))) {
+            try {
+                objectName = new ObjectName("ids:type=Metrics");
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+            } catch (JMException e) {
+                LOGGER.log(Level.SEVERE, "Error registering metrics MBean", e);
+                objectName = null;
+            }
+        }
+        String port = properties.getProperty("metrics.http.port");
+        if (port != null && !port.isEmpty()) {
+            try {
+                String host = properties.getProperty("metrics.http.host", "127.0.0.1");
+                httpServer = HttpServer.create(new InetSocketAddress(host, Integer.parseInt(port)), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream output = exchange.getResponseBody()) {
+                        output.write(body);
+                    }
+                });
+                httpServer.start();
+                LOGGER.log(Level.INFO, "Serving metrics on " + httpServer.getAddress());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error starting metrics HTTP endpoint", e);
+            }
+        }
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Error unregistering metrics MBean", e);
+            }
+        }
+    }
+
+    // Series are sorted so that each family's series are listed together under its HELP and TYPE
+    public static String prometheusText() {
+        StringBuilder text = new StringBuilder();
+        Set<String> described = new HashSet<>();
+        Map<String, Long> counters = new TreeMap<>();
+        Map<String, Long> gauges = new TreeMap<>();
+        Metrics.collect(counters, gauges);
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            describe(text, described, entry.getKey(), "counter");
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            describe(text, described, entry.getKey(), "gauge");
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(Metrics.histograms()).entrySet()) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            describe(text, described, name, "summary");
+            for (double quantile : QUANTILES) {
+                text.append(withLabel(name, "quantile", Double.toString(quantile))).append(' ')
+                        .append(histogram.quantile(quantile) / 1e9).append('\n');
+            }
+            text.append(suffixed(name, "_sum")).append(' ').append(histogram.getSumNanos() / 1e9).append('\n');
+            text.append(suffixed(name, "_count")).append(' ').append(histogram.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void describe(StringBuilder text, Set<String> described, String name, String type) {
+        String family = Metrics.familyOf(name);
+        if (described.add(family)) {
+            text.append("# HELP ").append(family).append(' ').append(Metrics.helpOf(family)).append('\n');
+            text.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+        }
+    }
+
+    private static String withLabel(String name, String label, String value) {
+        String pair = label + "=\"" + value + "\"";
+        int labels = name.indexOf('{');
+        return labels < 0 ? name + "{" + pair + "}" : name.substring(0, name.length() - 1) + "," + pair + "}";
+    }
+
+    private static String suffixed(String name, String suffix) {
+        int labels = name.indexOf('{');
+        return labels < 0 ? name + suffix : name.substring(0, labels) + suffix + name.substring(labels);
+    }
+
+    // Read-only view of every series as a JMX attribute; histograms appear as count, p50 and p99
+    private static class MetricsMBean implements DynamicMBean {
+        private Map<String, Object> snapshot() {
+            Map<String, Object> values = new TreeMap<>();
+            Map<String, Long> counters = new HashMap<>();
+            Map<String, Long> gauges = new HashMap<>();
+            Metrics.collect(counters, gauges);
+            values.putAll(counters);
+            values.putAll(gauges);
+            Metrics.histograms().forEach((name, histogram) -> {
+                values.put(name + ".count", histogram.getCount());
+                values.put(name + ".p50Nanos", histogram.quantile(0.5));
+                values.put(name + ".p99Nanos", histogram.quantile(0.99));
+            });
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "IDS pipeline metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+    }
+}
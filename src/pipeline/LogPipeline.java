@@ -0,0 +1,419 @@
+package pipeline;
+
+import alerting.AlertingSystem;
+import cluster.ClusterNode;
+import detection.RuleBasedDetector;
+import journal.EventJournal;
+import logcollection.LogCollector;
+import logcollection.LogSink;
+import logparsing.LogParser;
+import metrics.Counter;
+import metrics.Metrics;
+import store.EventStore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class LogPipeline {
+    private static final Logger LOGGER = Logger.getLogger(LogPipeline.class.getName());
+
+    // Sentinels are compared by identity to signal the end of the stream to the next stage
+    private static final LogLine END_OF_LINES = new LogLine(null, null);
+    private static final Map<String, String> END_OF_EVENTS = new HashMap<>();
+    private static final Alert END_OF_ALERTS = new Alert(null, null);
+
+    private static final Counter PARSE_ERRORS = Metrics.counter("ids_pipeline_event_errors_total{stage=\"parse\"}",
+            "Events skipped because a pipeline stage failed on them");
+    private static final Counter DETECT_ERRORS = Metrics.counter("ids_pipeline_event_errors_total{stage=\"detect\"}",
+            "Events skipped because a pipeline stage failed on them");
+    private static final Counter ALERT_ERRORS = Metrics.counter("ids_pipeline_event_errors_total{stage=\"alert\"}",
+            "Events skipped because a pipeline stage failed on them");
+    // Only the first failure and then one in this many are logged, so a flood of bad input
+    // does not flood the log as well
+    private static final long ERROR_LOG_EVERY = 1000;
+
+    private LogCollector logCollector;
+    private LogParser logParser;
+    private RuleBasedDetector detector;
+    private AlertingSystem alertingSystem;
+    private Properties properties;
+    private OverflowQueue<LogLine> lineQueue;
+    private List<OverflowQueue<Map<String, String>>> eventQueues;
+    private OverflowQueue<Alert> alertQueue;
+    private String shardField;
+    private AtomicInteger runningDetectors;
+    private EventJournal journal;
+    private EventStore eventStore;
+    private ClusterNode clusterNode;
+    private AtomicLong eventErrors;
+
+    public LogPipeline(LogCollector logCollector, LogParser logParser, RuleBasedDetector detector, AlertingSystem alertingSystem) {
+        this(logCollector, logParser, detector, alertingSystem, loadConfiguration());
+    }
+
+    public LogPipeline(LogCollector logCollector, LogParser logParser, RuleBasedDetector detector, AlertingSystem alertingSystem,
+                       Properties properties) {
+        this.logCollector = logCollector;
+        this.logParser = logParser;
+        this.detector = detector;
+        this.alertingSystem = alertingSystem;
+        this.properties = properties;
+
+        int capacity = Integer.parseInt(properties.getProperty("pipeline.queueCapacity", "10000"));
+        int detectionThreads = Integer.parseInt(properties.getProperty("pipeline.detectionThreads", "1"));
+        shardField = properties.getProperty("pipeline.shardField", "userId");
+        // What each queue does when it is full: block (default), drop or spill to disk
+        Path spillDirectory = Paths.get(properties.getProperty("pipeline.spill.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "ids-spill").toString()));
+        long maxSpillBytes = Long.parseLong(properties.getProperty("pipeline.spill.maxMb", "1024")) << 20;
+        lineQueue = new OverflowQueue<>("lines", capacity, overflowPolicy("lines"), LINE_CODEC, spillDirectory, maxSpillBytes);
+        eventQueues = new ArrayList<>();
+        for (int i = 0; i < detectionThreads; i++) {
+            eventQueues.add(new OverflowQueue<>("events-" + i, capacity, overflowPolicy("events"), EVENT_CODEC, spillDirectory, maxSpillBytes));
+        }
+        alertQueue = new OverflowQueue<>("alerts", capacity, overflowPolicy("alerts"), ALERT_CODEC, spillDirectory, maxSpillBytes);
+        runningDetectors = new AtomicInteger();
+        eventErrors = new AtomicLong();
+
+        String journalDirectory = properties.getProperty("pipeline.journal.dir");
+        if (journalDirectory != null && !journalDirectory.isEmpty()) {
+            try {
+                journal = new EventJournal(Paths.get(journalDirectory), properties);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error opening event journal, continuing without it: " + journalDirectory, e);
+            }
+        }
+
+        String storeDirectory = properties.getProperty("pipeline.store.dir");
+        if (storeDirectory != null && !storeDirectory.isEmpty()) {
+            try {
+                eventStore = new EventStore(Paths.get(storeDirectory), properties);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error opening event store, continuing without it: " + storeDirectory, e);
+            }
+        }
+
+        // cluster.* settings can also be given as system properties, so that several nodes on one
+        // box can share a pipeline.properties
+        Properties clusterProperties = new Properties();
+        clusterProperties.putAll(properties);
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("cluster.")) {
+                clusterProperties.setProperty(key, System.getProperty(key));
+            }
+        }
+        String coordinator = clusterProperties.getProperty("cluster.coordinator");
+        if (coordinator != null && !coordinator.isEmpty()) {
+            clusterNode = new ClusterNode(clusterProperties, this::deliver);
+        }
+
+        String help = "Items waiting in each pipeline queue";
+        Metrics.gauge("ids_pipeline_queue_depth{queue=\"lines\"}", help, lineQueue::size);
+        Metrics.gauge("ids_pipeline_queue_depth{queue=\"events\"}", help,
+                () -> eventQueues.stream().mapToLong(OverflowQueue::size).sum());
+        Metrics.gauge("ids_pipeline_queue_depth{queue=\"alerts\"}", help, alertQueue::size);
+    }
+
+    private OverflowQueue.Policy overflowPolicy(String queue) {
+        return OverflowQueue.policy(properties.getProperty("pipeline.overflow." + queue, "block"));
+    }
+
+    private static Properties loadConfiguration() {
+        Properties properties = new Properties();
+        try (InputStream input = LogPipeline.class.getClassLoader().getResourceAsStream("pipeline.properties")) {
+            if (input == null) {
+                LOGGER.log(Level.INFO, "pipeline.properties not found, using defaults");
+                return properties;
+            }
+            properties.load(input);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Error loading configuration", ex);
+        }
+        return properties;
+    }
+
+    // Runs collect -> parse -> detect -> alert with a bounded queue between each stage, so memory
+    // stays flat regardless of input size; a slow stage blocks the one before it, unless the
+    // queue in front of it is set to drop or spill
+    public void run() throws InterruptedException {
+        if (clusterNode != null) {
+            try {
+                clusterNode.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not join the cluster", e);
+            }
+        }
+        List<Thread> stages = new ArrayList<>();
+        stages.add(startStage("parse", this::parseStage));
+        runningDetectors.set(eventQueues.size());
+        for (int i = 0; i < eventQueues.size(); i++) {
+            OverflowQueue<Map<String, String>> eventQueue = eventQueues.get(i);
+            stages.add(startStage("detect-" + i, () -> detectStage(eventQueue)));
+        }
+        stages.add(startStage("alert", this::alertStage));
+
+        try {
+            LogSink sink = (source, line) -> lineQueue.put(new LogLine(source, line));
+            String mode = properties.getProperty("pipeline.mode", "batch");
+            if ("follow".equals(mode)) {
+                logCollector.followLogs(sink);
+            } else if ("listen".equals(mode)) {
+                logCollector.listenForLogs(sink);
+            } else if ("bulk".equals(mode)) {
+                // Parsing happens on the bulk reader's threads; events reach detection in file order
+                logCollector.collectLogsInBulk(this::parseInBulk, (source, parsedLog) -> publish(parsedLog, source));
+            } else {
+                logCollector.collectLogs(sink);
+            }
+        } finally {
+            lineQueue.close(END_OF_LINES);
+        }
+        for (Thread stage : stages) {
+            stage.join();
+        }
+        if (clusterNode != null) {
+            clusterNode.close();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error closing event journal", e);
+            }
+        }
+        if (eventStore != null) {
+            eventStore.close();
+        }
+    }
+
+    // The store of parsed events for investigations, or null when pipeline.store.dir is not set
+    public EventStore getEventStore() {
+        return eventStore;
+    }
+
+    // Ends follow or listen mode, or cuts batch collection short; the stages drain whatever is
+    // already queued before run() returns
+    public void stop() {
+        logCollector.stopFollowing();
+        logCollector.stopListening();
+        logCollector.cancelCollection();
+    }
+
+    private Thread startStage(String name, StageLoop loop) {
+        Thread thread = new Thread(() -> {
+            try {
+                loop.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.log(Level.WARNING, "Pipeline stage interrupted: " + name);
+            }
+        }, "pipeline-" + name);
+        thread.start();
+        return thread;
+    }
+
+    private void parseStage() throws InterruptedException {
+        try {
+            LogLine logLine;
+            while ((logLine = lineQueue.take()) != END_OF_LINES) {
+                // Malformed lines come back as null; the parser counts them and logs a sample
+                try {
+                    Map<String, String> parsedLog = logParser.parseLog(logLine.source, logLine.line);
+                    if (parsedLog != null) {
+                        publish(parsedLog, logLine.source);
+                    }
+                } catch (RuntimeException e) {
+                    // One bad line costs that line, not the stage and with it the whole pipeline
+                    eventFailed(PARSE_ERRORS, "parsing", logLine.line, e);
+                }
+            }
+        } finally {
+            try {
+                // Other nodes may still be forwarding events this node owns
+                if (clusterNode != null) {
+                    clusterNode.finish();
+                }
+            } finally {
+                for (OverflowQueue<Map<String, String>> eventQueue : eventQueues) {
+                    eventQueue.close(END_OF_EVENTS);
+                }
+            }
+        }
+    }
+
+    // Runs on the bulk reader's threads; like the parse stage, a line the parser fails on is
+    // counted and dropped rather than ending the whole bulk run
+    private Map<String, String> parseInBulk(String source, String line) {
+        try {
+            return logParser.parseLog(source, line);
+        } catch (RuntimeException e) {
+            eventFailed(PARSE_ERRORS, "parsing", line, e);
+            return null;
+        }
+    }
+
+    // In cluster mode every event goes to the node that owns its shard key, which journals,
+    // stores and detects it
+    private void publish(Map<String, String> parsedLog, String source) throws InterruptedException {
+        if (clusterNode != null) {
+            clusterNode.route(parsedLog.getOrDefault(shardField, source), source, parsedLog);
+            return;
+        }
+        deliver(source, parsedLog);
+    }
+
+    // Events are journaled before detection, so a replay sees exactly what detection saw
+    private void deliver(String source, Map<String, String> parsedLog) throws InterruptedException {
+        if (journal != null) {
+            try {
+                journal.append(parsedLog);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error writing event to journal", e);
+            }
+        }
+        if (eventStore != null) {
+            eventStore.append(parsedLog);
+        }
+        shardFor(parsedLog, source).put(parsedLog);
+    }
+
+    // Events with the same shard key (the configured field, else the source) always go to the
+    // same detection thread, so per-key ordering is kept while shards run in parallel
+    private OverflowQueue<Map<String, String>> shardFor(Map<String, String> parsedLog, String source) {
+        if (eventQueues.size() == 1) {
+            return eventQueues.get(0);
+        }
+        String key = parsedLog.getOrDefault(shardField, source);
+        int hash = key == null ? 0 : key.hashCode();
+        return eventQueues.get(Math.floorMod(hash ^ (hash >>> 16), eventQueues.size()));
+    }
+
+    private void detectStage(OverflowQueue<Map<String, String>> eventQueue) throws InterruptedException {
+        try {
+            Map<String, String> parsedLog;
+            while ((parsedLog = eventQueue.take()) != END_OF_EVENTS) {
+                List<String> alerts;
+                try {
+                    alerts = detector.detectSuspiciousActivity(parsedLog);
+                } catch (RuntimeException e) {
+                    eventFailed(DETECT_ERRORS, "detecting", parsedLog, e);
+                    continue;
+                }
+                for (String alert : alerts) {
+                    alertQueue.put(new Alert(alert, parsedLog.get("message")));
+                }
+            }
+        } finally {
+            // The last detection thread to finish ends the alert stream
+            if (runningDetectors.decrementAndGet() == 0) {
+                alertQueue.close(END_OF_ALERTS);
+            }
+        }
+    }
+
+    private void eventFailed(Counter errors, String action, Object event, RuntimeException e) {
+        errors.increment();
+        long failures = eventErrors.incrementAndGet();
+        if (failures == 1 || failures % ERROR_LOG_EVERY == 0) {
+            LOGGER.log(Level.WARNING, "Error " + action + " event, skipping it (" + failures
+                    + " skipped so far): " + event, e);
+        }
+    }
+
+    private void alertStage() throws InterruptedException {
+        Alert alert;
+        while ((alert = alertQueue.take()) != END_OF_ALERTS) {
+            String text = alert.description + ": " + alert.message;
+            try {
+                alertingSystem.sendAlert(text);
+            } catch (RuntimeException e) {
+                eventFailed(ALERT_ERRORS, "sending", text, e);
+            }
+        }
+    }
+
+    private static final OverflowQueue.SpillCodec<LogLine> LINE_CODEC = new OverflowQueue.SpillCodec<LogLine>() {
+        @Override
+        public void write(DataOutput output, LogLine logLine) throws IOException {
+            OverflowQueue.writeString(output, logLine.source);
+            OverflowQueue.writeString(output, logLine.line);
+        }
+
+        @Override
+        public LogLine read(DataInput input) throws IOException {
+            return new LogLine(OverflowQueue.readString(input), OverflowQueue.readString(input));
+        }
+    };
+
+    private static final OverflowQueue.SpillCodec<Map<String, String>> EVENT_CODEC = new OverflowQueue.SpillCodec<Map<String, String>>() {
+        @Override
+        public void write(DataOutput output, Map<String, String> parsedLog) throws IOException {
+            output.writeInt(parsedLog.size());
+            for (Map.Entry<String, String> field : parsedLog.entrySet()) {
+                OverflowQueue.writeString(output, field.getKey());
+                OverflowQueue.writeString(output, field.getValue());
+            }
+        }
+
+        @Override
+        public Map<String, String> read(DataInput input) throws IOException {
+            int size = input.readInt();
+            Map<String, String> parsedLog = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                parsedLog.put(OverflowQueue.readString(input), OverflowQueue.readString(input));
+            }
+            return parsedLog;
+        }
+    };
+
+    private static final OverflowQueue.SpillCodec<Alert> ALERT_CODEC = new OverflowQueue.SpillCodec<Alert>() {
+        @Override
+        public void write(DataOutput output, Alert alert) throws IOException {
+            OverflowQueue.writeString(output, alert.description);
+            OverflowQueue.writeString(output, alert.message);
+        }
+
+        @Override
+        public Alert read(DataInput input) throws IOException {
+            return new Alert(OverflowQueue.readString(input), OverflowQueue.readString(input));
+        }
+    };
+
+    private interface StageLoop {
+        void run() throws InterruptedException;
+    }
+
+    private static class LogLine {
+        private final String source;
+        private final String line;
+
+        LogLine(String source, String line) {
+            this.source = source;
+            this.line = line;
+        }
+    }
+
+    private static class Alert {
+        private final String description;
+        private final String message;
+
+        Alert(String description, String message) {
+            this.description = description;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package pipeline;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// A bounded queue between two pipeline stages with a policy for when it is full: BLOCK makes the
+// producer wait, DROP discards and counts the item, and SPILL appends it to a file on local disk
+// that a background thread feeds back into the queue as the consumer catches up. Once anything
+// is spilled, later items are spilled behind it until the file is drained, so order is kept.
+class OverflowQueue<T> {
+    private static final Logger LOGGER = Logger.getLogger(OverflowQueue.class.getName());
+
+    enum Policy { BLOCK, DROP, SPILL }
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Policy policy;
+    private final SpillCodec<T> codec;
+    private final Path spillDirectory;
+    private final long maxSpillBytes;
+    private final Counter dropped;
+    private final Counter spilled;
+    private final Object lock = new Object();
+    // Guarded by lock; pending counts spilled items not yet back in the queue, including the one
+    // the drainer is currently putting
+    private long pending;
+    private boolean unflushed;
+    private Path spillFile;
+    private DataOutputStream spillOutput;
+    private DataInputStream spillInput;
+    private Thread drainer;
+    private T endOfStream;
+
+    OverflowQueue(String name, int capacity, Policy policy, SpillCodec<T> codec, Path spillDirectory, long maxSpillBytes) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.codec = codec;
+        this.spillDirectory = spillDirectory;
+        // DataOutputStream counts the bytes written in an int
+        this.maxSpillBytes = Math.min(maxSpillBytes, Integer.MAX_VALUE);
+        String labels = "{queue=\"" + name + "\"}";
+        dropped = Metrics.counter("ids_pipeline_dropped_total" + labels, "Items dropped because a pipeline queue was full");
+        spilled = Metrics.counter("ids_pipeline_spilled_total" + labels, "Items spilled to disk because a pipeline queue was full");
+        Metrics.gauge("ids_pipeline_spill_depth" + labels, "Items waiting in each queue's spill file", this::spilledCount);
+    }
+
+    static Policy policy(String value) {
+        return Policy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    void put(T item) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                queue.put(item);
+                break;
+            case DROP:
+                if (!queue.offer(item)) {
+                    dropped.increment();
+                }
+                break;
+            case SPILL:
+                synchronized (lock) {
+                    if (pending == 0 && queue.offer(item)) {
+                        return;
+                    }
+                    spill(item);
+                }
+                break;
+        }
+    }
+
+    T take() throws InterruptedException {
+        return queue.take();
+    }
+
+    // Queues the end-of-stream sentinel behind everything put so far, including spilled items;
+    // it is never dropped
+    void close(T endOfStream) throws InterruptedException {
+        synchronized (lock) {
+            if (drainer != null) {
+                this.endOfStream = endOfStream;
+                lock.notifyAll();
+                return;
+            }
+        }
+        queue.put(endOfStream);
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    long spilledCount() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    // Called with the lock held
+    private void spill(T item) {
+        try {
+            if (spillOutput == null) {
+                // A new file each time, so that pipelines in other processes sharing the directory
+                // never write to or delete each other's spill files
+                Files.createDirectories(spillDirectory);
+                spillFile = Files.createTempFile(spillDirectory, name + "-", ".spill");
+                spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+                spillInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+            }
+            if (spillOutput.size() >= maxSpillBytes) {
+                dropped.increment();
+                return;
+            }
+            codec.write(spillOutput, item);
+            unflushed = true;
+            pending++;
+            spilled.increment();
+            if (drainer == null) {
+                drainer = new Thread(this::drain, "pipeline-spill-" + name);
+                drainer.setDaemon(true);
+                drainer.start();
+                LOGGER.log(Level.WARNING, "Queue " + name + " is full, spilling to " + spillFile);
+            }
+            lock.notifyAll();
+        } catch (IOException e) {
+            dropped.increment();
+            LOGGER.log(Level.SEVERE, "Error spilling to " + spillFile + ", item dropped", e);
+        }
+    }
+
+    // Feeds spilled items back into the queue in order, blocking while it is full, and queues the
+    // end-of-stream sentinel once close() has been called and everything is drained
+    private void drain() {
+        try {
+            while (true) {
+                T item;
+                synchronized (lock) {
+                    while (pending == 0 && endOfStream == null) {
+                        lock.wait();
+                    }
+                    if (pending == 0) {
+                        drainer = null;
+                        break;
+                    }
+                    item = readSpilled();
+                }
+                if (item != null) {
+                    queue.put(item);
+                }
+                synchronized (lock) {
+                    if (item != null && --pending == 0) {
+                        truncate();
+                    }
+                }
+            }
+            queue.put(endOfStream);
+        } catch (InterruptedException e) {
+            // Nothing will read the rest of the spill file, so it is not left behind on disk. With
+            // no drainer left, close() queues the sentinel itself; if it already handed it over,
+            // it is queued here so the consumer still sees the end of the stream
+            T recordedEnd;
+            synchronized (lock) {
+                if (spillOutput != null) {
+                    dropped.add(pending);
+                    pending = 0;
+                    truncate();
+                }
+                drainer = null;
+                recordedEnd = endOfStream;
+            }
+            if (recordedEnd != null) {
+                putUninterruptibly(recordedEnd);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void putUninterruptibly(T item) {
+        while (true) {
+            try {
+                queue.put(item);
+                return;
+            } catch (InterruptedException e) {
+                // Keep waiting for room; the caller restores the interrupt
+            }
+        }
+    }
+
+    // Called with the lock held. A spill file that cannot be read is given up on: what is left
+    // of it is counted as dropped and the file starts over
+    private T readSpilled() {
+        try {
+            if (unflushed) {
+                spillOutput.flush();
+                unflushed = false;
+            }
+            return codec.read(spillInput);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error reading spill file " + spillFile + ", dropping what is left of it", e);
+            dropped.add(pending);
+            pending = 0;
+            truncate();
+            return null;
+        }
+    }
+
+    // Called with the lock held once everything spilled is back in memory; the file is deleted
+    // and the next spill starts a new one
+    private void truncate() {
+        try {
+            spillOutput.close();
+            spillInput.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing spill file " + spillFile, e);
+        }
+        spillOutput = null;
+        spillInput = null;
+    }
+
+    interface SpillCodec<T> {
+        void write(DataOutput output, T item) throws IOException;
+
+        T read(DataInput input) throws IOException;
+    }
+
+    // Strings of any length, unlike writeUTF
+    static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package sketch;
+
+// Frequency estimates in a fixed depth x width table of counters. With width ceil(e / epsilon)
+// and depth ceil(ln(1 / (1 - confidence))), an estimate exceeds the true count by at most
+// epsilon * (total count) with the given confidence, and never underestimates it.
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long totalCount;
+
+    public CountMinSketch(double epsilon, double confidence) {
+        if (epsilon <= 0 || epsilon >= 1 || confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("epsilon and confidence must be between 0 and 1");
+        }
+        width = (int) Math.ceil(Math.E / epsilon);
+        depth = (int) Math.ceil(Math.log(1 / (1 - confidence)));
+        counters = new long[width * depth];
+    }
+
+    // Conservative update: only the counters at the current minimum are raised, which keeps
+    // overestimates lower than incrementing every row. Returns the new estimate.
+    public long add(CharSequence key) {
+        long hash = Hashing.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(row, h1, h2)]);
+        }
+        long updated = estimate + 1;
+        for (int row = 0; row < depth; row++) {
+            int index = index(row, h1, h2);
+            if (counters[index] < updated) {
+                counters[index] = updated;
+            }
+        }
+        totalCount++;
+        return updated;
+    }
+
+    public long estimate(CharSequence key) {
+        long hash = Hashing.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(row, h1, h2)]);
+        }
+        return estimate;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int memoryBytes() {
+        return counters.length * Long.BYTES;
+    }
+
+    // Row hashes derived from two base hashes (Kirsch-Mitzenmacher)
+    private int index(int row, int h1, int h2) {
+        return row * width + Math.floorMod(h1 + row * h2, width);
+    }
+}
@@ -0,0 +1,26 @@
+package sketch;
+
+// 64-bit string hash for the sketches: FNV-1a over the chars, then the MurmurHash3 finalizer so
+// every output bit depends on every input bit
+final class Hashing {
+    private Hashing() {
+    }
+
+    static long hash64(CharSequence value) {
+        return hash64(value, 0, value.length());
+    }
+
+    static long hash64(CharSequence text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
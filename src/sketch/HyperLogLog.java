@@ -0,0 +1,70 @@
+package sketch;
+
+import java.util.Arrays;
+
+// Distinct-count estimate in 2^precision bytes, whatever the number of values added. The
+// standard error is about 1.04 / sqrt(2^precision), e.g. 3.3% at precision 10 (1 KiB).
+public class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+    private final double alphaMM;
+    private double cachedEstimate;
+    private boolean estimateValid;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18: " + precision);
+        }
+        this.precision = precision;
+        registers = new byte[1 << precision];
+        int m = registers.length;
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        alphaMM = alpha * m * m;
+        estimateValid = true;
+    }
+
+    // Returns true when the value changed the sketch, i.e. it may have raised the estimate
+    public boolean add(CharSequence value) {
+        long hash = Hashing.hash64(value);
+        int index = (int) (hash >>> (64 - precision));
+        // The guard bit caps the rank at 64 - precision + 1
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+            estimateValid = false;
+            return true;
+        }
+        return false;
+    }
+
+    public long estimate() {
+        if (!estimateValid) {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double estimate = alphaMM / sum;
+            if (estimate <= 2.5 * registers.length && zeros > 0) {
+                // Linear counting is more accurate while many registers are still empty
+                estimate = registers.length * Math.log((double) registers.length / zeros);
+            }
+            cachedEstimate = estimate;
+            estimateValid = true;
+        }
+        return Math.round(cachedEstimate);
+    }
+
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+        cachedEstimate = 0;
+        estimateValid = true;
+    }
+
+    public int memoryBytes() {
+        return registers.length;
+    }
+}
@@ -0,0 +1,128 @@
+package sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Top-k heavy hitters with a fixed number of counters. When all counters are taken, a new key
+// replaces the smallest one and inherits its count as its error, so any key that occurs more
+// than (total count / capacity) times is guaranteed to be tracked.
+public class SpaceSaving {
+    private final Entry[] heap;
+    private final Map<String, Entry> entries;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        heap = new Entry[capacity];
+        entries = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (size < heap.length) {
+                entry = new Entry(key, 0, 0);
+                entry.heapIndex = size;
+                heap[size++] = entry;
+            } else {
+                // Replace the smallest counter, which is at the root of the min-heap
+                entry = heap[0];
+                entries.remove(entry.key);
+                entry.key = key;
+                entry.error = entry.count;
+            }
+            entries.put(key, entry);
+        }
+        entry.count++;
+        siftUp(entry.heapIndex);
+        siftDown(entry.heapIndex);
+    }
+
+    // The tracked keys with the highest counts, largest first
+    public List<Entry> top(int n) {
+        Entry[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, Comparator.comparingLong((Entry entry) -> entry.count).reversed());
+        List<Entry> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, sorted.length); i++) {
+            top.add(new Entry(sorted[i].key, sorted[i].count, sorted[i].error));
+        }
+        return top;
+    }
+
+    public int memoryBytes() {
+        // Entry object plus its heap slot and hash map node, excluding the key strings
+        return heap.length * (32 + 4 + 48);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent].count <= heap[index].count) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && heap[left].count < heap[smallest].count) {
+                smallest = left;
+            }
+            if (right < size && heap[right].count < heap[smallest].count) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Entry swapped = heap[i];
+        heap[i] = heap[j];
+        heap[j] = swapped;
+        heap[i].heapIndex = i;
+        heap[j].heapIndex = j;
+    }
+
+    public static class Entry {
+        private String key;
+        private long count;
+        private long error;
+        private int heapIndex;
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        // An upper bound on the true count; the true count is at least count - error
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Events in [from, to) whose fields equal the given values and whose message contains every
+// word of the given text, earliest first, at most limit of them
+public class EventQuery {
+    private long from;
+    private long to;
+    private Map<String, String> fields;
+    private Set<String> tokens;
+    private int limit;
+
+    public EventQuery(long fromMillis, long toMillis) {
+        this.from = fromMillis;
+        this.to = toMillis;
+        fields = new HashMap<>();
+        tokens = Collections.emptySet();
+        limit = 1000;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    // e.g. setField("userId", "alice") or setField("logLevel", "ERROR")
+    public void setField(String name, String value) {
+        fields.put(name, value);
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    // Words are matched case-insensitively and in any order
+    public void setText(String text) {
+        tokens = StoreFormat.tokens(text);
+    }
+
+    public Set<String> getTokens() {
+        return tokens;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,81 @@
+package store;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// Looks up stored events around an alert, e.g. everything one user did in the hour before it:
+//   java store.EventSearch <storeDir> [--from 2024-07-01T09:00:00] [--to ...] [--user alice]
+//        [--level ERROR] [--field name=value] [--text "failed login"] [--limit 1000]
+// Events still buffered by a running IDS are not on disk yet and are not found.
+public class EventSearch {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: EventSearch <storeDir> [--from time] [--to time] [--user id] [--level level] [--field name=value] [--text words] [--limit n]");
+            System.exit(1);
+        }
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        Map<String, String> fields = new TreeMap<>();
+        String text = null;
+        int limit = 1000;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--from":
+                    from = parseTime(args[++i]);
+                    break;
+                case "--to":
+                    to = parseTime(args[++i]);
+                    break;
+                case "--user":
+                    fields.put("userId", args[++i]);
+                    break;
+                case "--level":
+                    fields.put("logLevel", args[++i]);
+                    break;
+                case "--field":
+                    String[] field = args[++i].split("=", 2);
+                    fields.put(field[0], field.length > 1 ? field[1] : "");
+                    break;
+                case "--text":
+                    text = args[++i];
+                    break;
+                case "--limit":
+                    limit = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        EventQuery query = new EventQuery(from, to);
+        fields.forEach(query::setField);
+        if (text != null) {
+            query.setText(text);
+        }
+        query.setLimit(limit);
+
+        EventStore store = new EventStore(Paths.get(args[0]), new Properties());
+        long start = System.nanoTime();
+        List<Map<String, String>> events = store.query(query);
+        double millis = (System.nanoTime() - start) / 1e6;
+        for (Map<String, String> event : events) {
+            System.out.println(new TreeMap<>(event));
+        }
+        System.out.printf("%d events in %.1f ms%n", events.size(), millis);
+    }
+
+    // Local date-time in ISO form, or epoch milliseconds
+    private static long parseTime(String value) {
+        if (value.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(value);
+        }
+        return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,265 @@
+package store;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Embedded store of parsed events for investigations, e.g. everything user X did around an
+// alert. Appends only go to an in-memory buffer; a background thread writes each full buffer as
+// one columnar segment per hour partition, with inverted indexes on the configured fields and
+// on message words. Queries open only the partitions of their time range, narrow the rows
+// through the indexes, and also see the events not written yet.
+public class EventStore {
+    private static final Logger LOGGER = Logger.getLogger(EventStore.class.getName());
+    private static final Counter EVENTS_STORED = Metrics.counter("ids_store_events_total", "Events written to the event store");
+    private static final Counter SEGMENTS_WRITTEN = Metrics.counter("ids_store_segments_total", "Segments written to the event store");
+
+    private static final int MAX_PENDING_BUFFERS = 2;
+
+    private final Path directory;
+    private final int flushEvents;
+    private final long retentionMillis;
+    private final Set<String> indexedFields;
+    private final ExecutorService writer;
+    private final Map<Path, Segment> openSegments;
+    private List<Map<String, String>> buffer;
+    // Buffers handed to the writer but not yet on disk; queries still read them
+    private final List<List<Map<String, String>>> flushing;
+    private long segmentSequence;
+
+    public EventStore(Path directory, Properties properties) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        flushEvents = Integer.parseInt(properties.getProperty("store.flushEvents", "100000"));
+        retentionMillis = Long.parseLong(properties.getProperty("store.retentionHours", "0")) * StoreFormat.HOUR_MILLIS;
+        indexedFields = new HashSet<>();
+        for (String field : properties.getProperty("store.indexedFields", "logLevel,userId").split(",")) {
+            indexedFields.add(field.trim());
+        }
+        indexedFields.add(StoreFormat.TOKEN_INDEX);
+        int maxOpenSegments = Integer.parseInt(properties.getProperty("store.openSegments", "4096"));
+        openSegments = new LinkedHashMap<Path, Segment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Segment> eldest) {
+                return size() > maxOpenSegments;
+            }
+        };
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-store-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        buffer = new ArrayList<>();
+        flushing = new ArrayList<>();
+        segmentSequence = System.currentTimeMillis();
+    }
+
+    // Events must not be modified after they are appended. Blocks while the writer is two
+    // buffers behind, so a burst cannot queue up buffers until memory runs out
+    public void append(Map<String, String> event) throws InterruptedException {
+        List<Map<String, String>> full = null;
+        synchronized (this) {
+            while (flushing.size() >= MAX_PENDING_BUFFERS) {
+                wait();
+            }
+            buffer.add(event);
+            if (buffer.size() >= flushEvents) {
+                full = buffer;
+                buffer = new ArrayList<>();
+                flushing.add(full);
+            }
+        }
+        if (full != null) {
+            List<Map<String, String>> events = full;
+            writer.execute(() -> write(events));
+        }
+    }
+
+    // Writes whatever is buffered and waits until it is on disk
+    public void flush() throws InterruptedException {
+        List<Map<String, String>> events;
+        synchronized (this) {
+            events = buffer;
+            buffer = new ArrayList<>();
+            flushing.add(events);
+        }
+        try {
+            // Also waits for any full buffer queued before this one
+            writer.submit(() -> write(events)).get();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Error flushing the event store", e.getCause());
+        }
+    }
+
+    public void close() throws InterruptedException {
+        flush();
+        writer.shutdown();
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public List<Map<String, String>> query(EventQuery query) throws IOException {
+        List<Map<String, String>> results = new ArrayList<>();
+        int limit = query.getLimit();
+        List<List<Map<String, String>>> unwritten;
+        synchronized (this) {
+            unwritten = new ArrayList<>(flushing);
+            // The current buffer keeps growing; only the part seen now is searched
+            unwritten.add(new ArrayList<>(buffer));
+        }
+        for (List<Map<String, String>> events : unwritten) {
+            for (Map<String, String> event : events) {
+                if (matches(query, event)) {
+                    results.add(event);
+                }
+            }
+        }
+
+        // Partitions are visited in time order; once one fills the limit, later ones cannot
+        // contribute anything earlier
+        int fromStore = 0;
+        for (Path partition : partitions()) {
+            long hour = StoreFormat.partitionStart(partition.getFileName().toString());
+            if (hour + StoreFormat.HOUR_MILLIS <= query.getFrom() || hour >= query.getTo()) {
+                continue;
+            }
+            List<Map<String, String>> partitionResults = new ArrayList<>();
+            for (Path file : segmentFiles(partition)) {
+                List<Map<String, String>> segmentResults = new ArrayList<>();
+                segment(file).query(query, segmentResults, limit);
+                partitionResults.addAll(segmentResults);
+            }
+            results.addAll(partitionResults);
+            fromStore += partitionResults.size();
+            if (fromStore >= limit) {
+                break;
+            }
+        }
+        results.sort(Comparator.comparingLong(EventStore::eventTime));
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    // Events without a time, or with one that is not a number, are kept at 0
+    static long eventTime(Map<String, String> event) {
+        String epochMillis = event.get("epochMillis");
+        if (epochMillis == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(epochMillis);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean matches(EventQuery query, Map<String, String> event) {
+        long time = eventTime(event);
+        if (time < query.getFrom() || time >= query.getTo()) {
+            return false;
+        }
+        for (Map.Entry<String, String> condition : query.getFields().entrySet()) {
+            if (!condition.getValue().equals(event.get(condition.getKey()))) {
+                return false;
+            }
+        }
+        return query.getTokens().isEmpty() || StoreFormat.tokens(event.get("message")).containsAll(query.getTokens());
+    }
+
+    // Runs on the writer thread: one segment per hour the buffered events fall in
+    private void write(List<Map<String, String>> events) {
+        if (events.isEmpty()) {
+            synchronized (this) {
+                flushing.removeIf(pending -> pending == events);
+                notifyAll();
+            }
+            return;
+        }
+        try {
+            Map<Long, List<Map<String, String>>> byHour = new TreeMap<>();
+            for (Map<String, String> event : events) {
+                long hour = Math.floorDiv(eventTime(event), StoreFormat.HOUR_MILLIS) * StoreFormat.HOUR_MILLIS;
+                byHour.computeIfAbsent(hour, h -> new ArrayList<>()).add(event);
+            }
+            for (Map.Entry<Long, List<Map<String, String>>> hour : byHour.entrySet()) {
+                Path partition = directory.resolve(StoreFormat.partitionName(hour.getKey()));
+                Files.createDirectories(partition);
+                Path file = partition.resolve(String.format("%020d", segmentSequence++) + StoreFormat.SEGMENT_SUFFIX);
+                SegmentWriter.write(file, hour.getValue(), indexedFields);
+                SEGMENTS_WRITTEN.increment();
+            }
+            EVENTS_STORED.add(events.size());
+            if (retentionMillis > 0) {
+                deleteExpiredPartitions();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error writing " + events.size() + " events to the event store", e);
+        } finally {
+            synchronized (this) {
+                flushing.removeIf(pending -> pending == events);
+                notifyAll();
+            }
+        }
+    }
+
+    private void deleteExpiredPartitions() throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (Path partition : partitions()) {
+            long hour = StoreFormat.partitionStart(partition.getFileName().toString());
+            if (hour + StoreFormat.HOUR_MILLIS > cutoff) {
+                continue;
+            }
+            for (Path file : segmentFiles(partition)) {
+                synchronized (openSegments) {
+                    openSegments.remove(file);
+                }
+                Files.deleteIfExists(file);
+            }
+            try {
+                Files.deleteIfExists(partition);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete expired partition " + partition, e);
+            }
+        }
+    }
+
+    private Segment segment(Path file) throws IOException {
+        synchronized (openSegments) {
+            Segment segment = openSegments.get(file);
+            if (segment == null) {
+                segment = Segment.open(file);
+                openSegments.put(file, segment);
+            }
+            return segment;
+        }
+    }
+
+    private List<Path> partitions() throws IOException {
+        List<Path> partitions = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> Files.isDirectory(path) && StoreFormat.partitionStart(path.getFileName().toString()) >= 0)
+                    .sorted()
+                    .forEach(partitions::add);
+        }
+        return partitions;
+    }
+
+    private static List<Path> segmentFiles(Path partition) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(partition)) {
+            files.filter(file -> file.getFileName().toString().endsWith(StoreFormat.SEGMENT_SUFFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,312 @@
+package store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// A memory-mapped, read-only segment. Opening it only records where each part starts; times,
+// ids, values, terms and postings are read from the mapping on demand, and lookups binary-search
+// the sorted string tables in place, so keeping many segments open costs little heap.
+final class Segment {
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final long minTime;
+    private final long maxTime;
+    private final int timesOffset;
+    private final Map<String, Column> columns;
+    private final Map<String, Index> indexes;
+
+    private Segment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        ByteBuffer reader = buffer.duplicate();
+        if (reader.getInt() != StoreFormat.MAGIC || reader.getInt() != StoreFormat.VERSION) {
+            throw new IOException("Not a store segment: " + file);
+        }
+        rowCount = reader.getInt();
+        minTime = reader.getLong();
+        maxTime = reader.getLong();
+        timesOffset = reader.position();
+        reader.position(timesOffset + rowCount * 8);
+
+        columns = new HashMap<>();
+        int columnCount = reader.getInt();
+        for (int i = 0; i < columnCount; i++) {
+            String name = StoreFormat.readString(reader);
+            Column column = new Column();
+            column.kind = reader.get();
+            if (column.kind == StoreFormat.KIND_DICTIONARY) {
+                column.values = new StringTable(reader);
+                column.width = reader.get();
+                column.idsOffset = reader.position();
+                reader.position(column.idsOffset + rowCount * column.width);
+            } else {
+                column.presenceOffset = reader.position();
+                column.offsetsOffset = column.presenceOffset + (rowCount + 7) / 8;
+                reader.position(column.offsetsOffset + (rowCount + 1) * 4);
+                int blobLength = reader.getInt();
+                column.blobOffset = reader.position();
+                reader.position(column.blobOffset + blobLength);
+            }
+            columns.put(name, column);
+        }
+
+        indexes = new HashMap<>();
+        int indexCount = reader.getInt();
+        for (int i = 0; i < indexCount; i++) {
+            String name = StoreFormat.readString(reader);
+            Index index = new Index();
+            index.terms = new StringTable(reader);
+            index.countsOffset = reader.position();
+            index.offsetsOffset = index.countsOffset + index.terms.count * 4;
+            reader.position(index.offsetsOffset + index.terms.count * 4);
+            int blobLength = reader.getInt();
+            index.blobOffset = reader.position();
+            reader.position(index.blobOffset + blobLength);
+            indexes.put(name, index);
+        }
+    }
+
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Segment(file, buffer);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    // Adds the matching rows, earliest first, until results holds limit events
+    void query(EventQuery query, List<Map<String, String>> results, int limit) {
+        if (rowCount == 0 || maxTime < query.getFrom() || minTime >= query.getTo()) {
+            return;
+        }
+        int first = lowerBound(query.getFrom());
+        int end = lowerBound(query.getTo());
+
+        // Indexed conditions narrow the rows through their postings; the rest are checked per row
+        List<int[]> postingLists = new ArrayList<>();
+        Map<String, String> unindexedFields = new HashMap<>();
+        for (Map.Entry<String, String> condition : query.getFields().entrySet()) {
+            Column column = columns.get(condition.getKey());
+            if (column == null) {
+                return;
+            }
+            Index index = column.kind == StoreFormat.KIND_DICTIONARY ? indexes.get(condition.getKey()) : null;
+            if (index != null) {
+                postingLists.add(postings(index, condition.getValue()));
+            } else {
+                unindexedFields.put(condition.getKey(), condition.getValue());
+            }
+        }
+        Set<String> unindexedTokens = new HashSet<>();
+        Index tokenIndex = indexes.get(StoreFormat.TOKEN_INDEX);
+        for (String token : query.getTokens()) {
+            if (tokenIndex != null) {
+                postingLists.add(postings(tokenIndex, token));
+            } else {
+                unindexedTokens.add(token);
+            }
+        }
+
+        if (postingLists.isEmpty()) {
+            for (int row = first; row < end && results.size() < limit; row++) {
+                addIfMatches(row, unindexedFields, unindexedTokens, results);
+            }
+            return;
+        }
+        postingLists.sort(Comparator.comparingInt(list -> list.length));
+        int[] shortest = postingLists.get(0);
+        int start = lowerBound(shortest, first);
+        for (int i = start; i < shortest.length && shortest[i] < end && results.size() < limit; i++) {
+            int row = shortest[i];
+            boolean inAll = true;
+            for (int l = 1; l < postingLists.size() && inAll; l++) {
+                inAll = Arrays.binarySearch(postingLists.get(l), row) >= 0;
+            }
+            if (inAll) {
+                addIfMatches(row, unindexedFields, unindexedTokens, results);
+            }
+        }
+    }
+
+    private void addIfMatches(int row, Map<String, String> fields, Set<String> tokens, List<Map<String, String>> results) {
+        for (Map.Entry<String, String> condition : fields.entrySet()) {
+            if (!condition.getValue().equals(value(condition.getKey(), row))) {
+                return;
+            }
+        }
+        if (!tokens.isEmpty() && !StoreFormat.tokens(value("message", row)).containsAll(tokens)) {
+            return;
+        }
+        results.add(row(row));
+    }
+
+    Map<String, String> row(int row) {
+        Map<String, String> event = new HashMap<>();
+        for (String name : columns.keySet()) {
+            String value = value(name, row);
+            if (value != null) {
+                event.put(name, value);
+            }
+        }
+        event.put("epochMillis", Long.toString(time(row)));
+        return event;
+    }
+
+    private String value(String name, int row) {
+        Column column = columns.get(name);
+        if (column == null) {
+            return null;
+        }
+        if (column.kind == StoreFormat.KIND_DICTIONARY) {
+            int position = column.idsOffset + row * column.width;
+            int id = column.width == 1 ? buffer.get(position) & 0xFF
+                    : column.width == 2 ? buffer.getShort(position) & 0xFFFF : buffer.getInt(position);
+            return id == 0 ? null : column.values.get(id - 1);
+        }
+        if ((buffer.get(column.presenceOffset + (row >> 3)) & (1 << (row & 7))) == 0) {
+            return null;
+        }
+        int start = buffer.getInt(column.offsetsOffset + row * 4);
+        int end = buffer.getInt(column.offsetsOffset + (row + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer text = buffer.duplicate();
+        text.position(column.blobOffset + start);
+        text.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long time(int row) {
+        return buffer.getLong(timesOffset + row * 8);
+    }
+
+    // First row whose time is at least the given time
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] rows, int row) {
+        int index = Arrays.binarySearch(rows, row);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private int[] postings(Index index, String term) {
+        int t = index.terms.find(term.getBytes(StandardCharsets.UTF_8));
+        if (t < 0) {
+            return new int[0];
+        }
+        int[] rows = new int[buffer.getInt(index.countsOffset + t * 4)];
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(index.blobOffset + buffer.getInt(index.offsetsOffset + t * 4));
+        int row = 0;
+        for (int i = 0; i < rows.length; i++) {
+            row += StoreFormat.readVarint(reader);
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    // A sorted string table inside the mapping; values are decoded once, when first needed
+    private final class StringTable {
+        final int count;
+        final int offsetsOffset;
+        final int blobOffset;
+        private String[] decoded;
+
+        StringTable(ByteBuffer reader) {
+            count = reader.getInt();
+            offsetsOffset = reader.position();
+            reader.position(offsetsOffset + (count + 1) * 4);
+            int blobLength = reader.getInt();
+            blobOffset = reader.position();
+            reader.position(blobOffset + blobLength);
+        }
+
+        synchronized String get(int i) {
+            if (decoded == null) {
+                decoded = new String[count];
+            }
+            String value = decoded[i];
+            if (value == null) {
+                int start = buffer.getInt(offsetsOffset + i * 4);
+                byte[] bytes = new byte[buffer.getInt(offsetsOffset + (i + 1) * 4) - start];
+                ByteBuffer reader = buffer.duplicate();
+                reader.position(blobOffset + start);
+                reader.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded[i] = value;
+            }
+            return value;
+        }
+
+        // Index of the value, or -1
+        int find(byte[] key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int i, byte[] key) {
+            int start = blobOffset + buffer.getInt(offsetsOffset + i * 4);
+            int length = blobOffset + buffer.getInt(offsetsOffset + (i + 1) * 4) - start;
+            for (int k = 0; k < length && k < key.length; k++) {
+                int cmp = Integer.compare(buffer.get(start + k) & 0xFF, key[k] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+    }
+
+    private static final class Column {
+        byte kind;
+        StringTable values;
+        int width;
+        int idsOffset;
+        int presenceOffset;
+        int offsetsOffset;
+        int blobOffset;
+    }
+
+    private static final class Index {
+        StringTable terms;
+        int countsOffset;
+        int offsetsOffset;
+        int blobOffset;
+    }
+}
@@ -0,0 +1,165 @@
+package store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+// Writes one immutable segment; see StoreFormat for the layout. The file is written under a
+// temporary name and moved into place, so readers never see a partial segment.
+final class SegmentWriter {
+    private SegmentWriter() {
+    }
+
+    static void write(Path file, List<Map<String, String>> events, Set<String> indexedFields) throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>(events);
+        rows.sort(Comparator.comparingLong(EventStore::eventTime));
+        int rowCount = rows.size();
+
+        SortedSet<String> columnNames = new TreeSet<>();
+        for (Map<String, String> row : rows) {
+            columnNames.addAll(row.keySet());
+        }
+        columnNames.remove("epochMillis");
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+            output.writeInt(StoreFormat.MAGIC);
+            output.writeInt(StoreFormat.VERSION);
+            output.writeInt(rowCount);
+            output.writeLong(rowCount == 0 ? 0 : EventStore.eventTime(rows.get(0)));
+            output.writeLong(rowCount == 0 ? 0 : EventStore.eventTime(rows.get(rowCount - 1)));
+            for (Map<String, String> row : rows) {
+                output.writeLong(EventStore.eventTime(row));
+            }
+
+            Map<String, Map<String, IntList>> indexes = new LinkedHashMap<>();
+            output.writeInt(columnNames.size());
+            for (String column : columnNames) {
+                StoreFormat.writeString(output, column);
+                if (column.equals("message")) {
+                    writeTextColumn(output, rows, column);
+                    if (indexedFields.contains(StoreFormat.TOKEN_INDEX)) {
+                        indexes.put(StoreFormat.TOKEN_INDEX, tokenPostings(rows));
+                    }
+                } else {
+                    Map<String, IntList> rowsByValue = writeDictionaryColumn(output, rows, column);
+                    if (indexedFields.contains(column)) {
+                        indexes.put(column, rowsByValue);
+                    }
+                }
+            }
+
+            output.writeInt(indexes.size());
+            for (Map.Entry<String, Map<String, IntList>> index : indexes.entrySet()) {
+                writeIndex(output, index.getKey(), index.getValue());
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns the rows of each value, which are the value's postings if the column is indexed
+    private static Map<String, IntList> writeDictionaryColumn(DataOutputStream output, List<Map<String, String>> rows, String column) throws IOException {
+        Map<String, IntList> rowsByValue = new HashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            String value = rows.get(row).get(column);
+            if (value != null) {
+                rowsByValue.computeIfAbsent(value, v -> new IntList()).add(row);
+            }
+        }
+        List<byte[]> values = StoreFormat.sortedBytes(rowsByValue.keySet());
+        int[] ids = new int[rows.size()];
+        for (int id = 1; id <= values.size(); id++) {
+            IntList valueRows = rowsByValue.get(new String(values.get(id - 1), StandardCharsets.UTF_8));
+            for (int i = 0; i < valueRows.size; i++) {
+                ids[valueRows.values[i]] = id;
+            }
+        }
+        output.writeByte(StoreFormat.KIND_DICTIONARY);
+        StoreFormat.writeStringTable(output, values);
+        int width = values.size() < 0xFF ? 1 : values.size() < 0xFFFF ? 2 : 4;
+        output.writeByte(width);
+        for (int id : ids) {
+            if (width == 1) {
+                output.writeByte(id);
+            } else if (width == 2) {
+                output.writeShort(id);
+            } else {
+                output.writeInt(id);
+            }
+        }
+        return rowsByValue;
+    }
+
+    private static void writeTextColumn(DataOutputStream output, List<Map<String, String>> rows, String column) throws IOException {
+        byte[] presence = new byte[(rows.size() + 7) / 8];
+        int[] offsets = new int[rows.size() + 1];
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        for (int row = 0; row < rows.size(); row++) {
+            String value = rows.get(row).get(column);
+            if (value != null) {
+                presence[row >> 3] |= (byte) (1 << (row & 7));
+                blob.write(value.getBytes(StandardCharsets.UTF_8));
+            }
+            offsets[row + 1] = blob.size();
+        }
+        output.writeByte(StoreFormat.KIND_TEXT);
+        output.write(presence);
+        for (int offset : offsets) {
+            output.writeInt(offset);
+        }
+        output.writeInt(blob.size());
+        blob.writeTo(output);
+    }
+
+    private static Map<String, IntList> tokenPostings(List<Map<String, String>> rows) {
+        Map<String, IntList> postings = new HashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            for (String token : StoreFormat.tokens(rows.get(row).get("message"))) {
+                postings.computeIfAbsent(token, t -> new IntList()).add(row);
+            }
+        }
+        return postings;
+    }
+
+    private static void writeIndex(DataOutputStream output, String name, Map<String, IntList> postings) throws IOException {
+        StoreFormat.writeString(output, name);
+        List<byte[]> terms = StoreFormat.sortedBytes(postings.keySet());
+        StoreFormat.writeStringTable(output, terms);
+        int[] offsets = new int[terms.size()];
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        DataOutputStream blobOutput = new DataOutputStream(blob);
+        for (int t = 0; t < terms.size(); t++) {
+            IntList rows = postings.get(new String(terms.get(t), StandardCharsets.UTF_8));
+            output.writeInt(rows.size);
+            offsets[t] = blob.size();
+            int previous = 0;
+            for (int i = 0; i < rows.size; i++) {
+                StoreFormat.writeVarint(blobOutput, rows.values[i] - previous);
+                previous = rows.values[i];
+            }
+        }
+        for (int offset : offsets) {
+            output.writeInt(offset);
+        }
+        output.writeInt(blob.size());
+        blob.writeTo(output);
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
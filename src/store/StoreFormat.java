@@ -0,0 +1,136 @@
+package store;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// On-disk layout of a segment, shared by SegmentWriter and Segment. Rows are sorted by event
+// time. After the header [MAGIC][VERSION][int rows][long minTime][long maxTime] come:
+//   times:   long[rows]
+//   columns: int count, then per column its name, a kind byte and
+//            KIND_DICTIONARY: a string table of the distinct values, a width byte (1, 2 or 4) and
+//                             rows ids of that width, where 0 means absent and i means value i - 1
+//            KIND_TEXT:       a presence bitmap of (rows + 7) / 8 bytes, int[rows + 1] offsets
+//                             into the UTF-8 blob that follows, and int blob length before it
+//   indexes: int count, then per index its name, a string table of its terms, int[terms]
+//            posting counts, int[terms] offsets into the postings blob, int blob length and the
+//            blob of varint-delta row numbers
+// A string table is int count, int[count + 1] offsets into the blob, int blob length and the
+// UTF-8 blob, sorted by unsigned bytes so that lookups can binary-search it in place. Other
+// strings are int length + UTF-8. Partitions are directories named by the UTC hour of their events.
+final class StoreFormat {
+    static final int MAGIC = 0x49445353; // "IDSS"
+    static final int VERSION = 1;
+    static final byte KIND_DICTIONARY = 0;
+    static final byte KIND_TEXT = 1;
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String TOKEN_INDEX = "message.tokens";
+    static final long HOUR_MILLIS = 3_600_000L;
+    static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HH").withZone(ZoneOffset.UTC);
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private StoreFormat() {
+    }
+
+    static String partitionName(long hourStartMillis) {
+        return PARTITION_NAME.format(Instant.ofEpochMilli(hourStartMillis));
+    }
+
+    // Start of the partition's hour, or -1 for a directory that is not a partition
+    static long partitionStart(String name) {
+        try {
+            return LocalDateTime.parse(name, PARTITION_NAME).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // Lower-cased runs of letters and digits, at least two characters long, each once
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= 2 && i - start <= MAX_TOKEN_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStringTable(DataOutputStream output, List<byte[]> sortedValues) throws IOException {
+        output.writeInt(sortedValues.size());
+        int offset = 0;
+        output.writeInt(offset);
+        for (byte[] value : sortedValues) {
+            offset += value.length;
+            output.writeInt(offset);
+        }
+        output.writeInt(offset);
+        for (byte[] value : sortedValues) {
+            output.write(value);
+        }
+    }
+
+    // The values as UTF-8, in the order string tables keep them
+    static List<byte[]> sortedBytes(Collection<String> values) {
+        List<byte[]> sorted = new ArrayList<>(values.size());
+        for (String value : values) {
+            sorted.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        sorted.sort(Arrays::compareUnsigned);
+        return sorted;
+    }
+
+    static void writeVarint(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,219 @@
+package alerting;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Email digests against a stub SMTP server on loopback
+class AlertingSystemTest {
+    private StubSmtpServer smtp;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        smtp = new StubSmtpServer();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        smtp.close();
+    }
+
+    private Properties email(long windowSeconds, int maxPerMinute) {
+        Properties properties = new Properties();
+        properties.setProperty("alert.email.enabled", "true");
+        properties.setProperty("alert.email.smtp.host", "127.0.0.1");
+        properties.setProperty("alert.email.smtp.port", Integer.toString(smtp.getPort()));
+        properties.setProperty("alert.email.from", "ids@example.com");
+        properties.setProperty("alert.email.to", "admin@example.com");
+        properties.setProperty("alert.batch.windowSeconds", Long.toString(windowSeconds));
+        properties.setProperty("alert.email.maxPerMinute", Integer.toString(maxPerMinute));
+        return properties;
+    }
+
+    @Test
+    void coalescesIdenticalAlertsIntoOneDigest() throws Exception {
+        AlertingSystem alertingSystem = new AlertingSystem(email(3600, 6));
+        alertingSystem.sendAlert("Brute force: login failed");
+        alertingSystem.sendAlert("Brute force: login failed");
+        alertingSystem.sendAlert("Brute force: login failed");
+        alertingSystem.sendAlert("Disk full");
+        assertEquals(4, alertingSystem.getPendingAlertCount());
+        assertEquals(0, smtp.messages().size());
+
+        alertingSystem.shutdown();
+        assertEquals(1, smtp.messages().size());
+        String message = smtp.messages().get(0);
+        assertTrue(message.contains("Subject: IDS Alert (4 alerts)"), message);
+        assertTrue(message.contains("3x Brute force: login failed"), message);
+        assertTrue(message.contains("\nDisk full"), message);
+        assertEquals(0, alertingSystem.getPendingAlertCount());
+    }
+
+    @Test
+    void listsAtMostMaxDistinctAlerts() throws Exception {
+        Properties properties = email(3600, 6);
+        properties.setProperty("alert.batch.maxDistinctAlerts", "2");
+        AlertingSystem alertingSystem = new AlertingSystem(properties);
+        for (String alert : new String[]{"a", "b", "c", "d", "a"}) {
+            alertingSystem.sendAlert(alert);
+        }
+        alertingSystem.shutdown();
+        String message = smtp.messages().get(0);
+        assertTrue(message.contains("Subject: IDS Alert (5 alerts)"), message);
+        assertTrue(message.contains("2x a"), message);
+        assertTrue(message.contains("2 further alerts not listed"), message);
+    }
+
+    @Test
+    void reusesOneSmtpConnectionAcrossDigests() throws Exception {
+        AlertingSystem alertingSystem = new AlertingSystem(email(1, 0));
+        for (int i = 1; i <= 3; i++) {
+            alertingSystem.sendAlert("alert " + i);
+            smtp.awaitMessages(i);
+        }
+        alertingSystem.shutdown();
+        assertEquals(3, smtp.messages().size());
+        assertEquals(1, smtp.connectionCount());
+    }
+
+    @Test
+    void reconnectsWhenTheServerDroppedTheConnection() throws Exception {
+        AlertingSystem alertingSystem = new AlertingSystem(email(1, 0));
+        alertingSystem.sendAlert("before");
+        smtp.awaitMessages(1);
+        smtp.dropConnections();
+        alertingSystem.sendAlert("after");
+        smtp.awaitMessages(2);
+        alertingSystem.shutdown();
+        assertTrue(smtp.messages().get(1).contains("after"));
+        assertEquals(2, smtp.connectionCount());
+    }
+
+    @Test
+    void rateLimitKeepsAlertsPendingForTheNextDigest() throws Exception {
+        AlertingSystem alertingSystem = new AlertingSystem(email(1, 1));
+        alertingSystem.sendAlert("first");
+        smtp.awaitMessages(1);
+        alertingSystem.sendAlert("second");
+        alertingSystem.sendAlert("third");
+        // Several flush windows pass, but the bucket's one token per minute is spent
+        Thread.sleep(2500);
+        assertEquals(1, smtp.messages().size());
+        assertEquals(2, alertingSystem.getPendingAlertCount());
+
+        // Shutdown delivers what is left regardless of the limit
+        alertingSystem.shutdown();
+        assertEquals(2, smtp.messages().size());
+        assertTrue(smtp.messages().get(1).contains("Subject: IDS Alert (2 alerts)"));
+    }
+
+    // Speaks just enough SMTP for JavaMail: records each message's DATA and counts connections
+    private static class StubSmtpServer implements Closeable {
+        private final ServerSocket serverSocket;
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger connections = new AtomicInteger();
+
+        StubSmtpServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread acceptor = new Thread(this::accept, "stub-smtp");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        List<String> messages() {
+            return messages;
+        }
+
+        int connectionCount() {
+            return connections.get();
+        }
+
+        void awaitMessages(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (messages.size() < count) {
+                assertTrue(System.currentTimeMillis() < deadline, "expected " + count + " messages, got " + messages.size());
+                Thread.sleep(10);
+            }
+        }
+
+        // Closes the open connections the way an idle timeout on the server would
+        void dropConnections() throws IOException {
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    sockets.add(socket);
+                    Thread session = new Thread(() -> serve(socket), "stub-smtp-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket closing = socket) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(closing.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(closing.getOutputStream(), StandardCharsets.UTF_8);
+                reply(out, "220 stub SMTP");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                    if (command.equals("DATA")) {
+                        reply(out, "354 end with .");
+                        StringBuilder data = new StringBuilder();
+                        while (!(line = in.readLine()).equals(".")) {
+                            data.append(line.startsWith("..") ? line.substring(1) : line).append('\n');
+                        }
+                        messages.add(data.toString());
+                        reply(out, "250 queued");
+                    } else if (command.equals("QUIT")) {
+                        reply(out, "221 bye");
+                        return;
+                    } else {
+                        reply(out, "250 OK");
+                    }
+                }
+            } catch (IOException e) {
+                // Connection dropped
+            }
+        }
+
+        private static void reply(Writer out, String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            dropConnections();
+        }
+    }
+}
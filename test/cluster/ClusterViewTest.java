@@ -0,0 +1,98 @@
+package cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Partition ownership under rendezvous hashing: agreement between nodes, balance, and how little
+// moves when the membership changes
+class ClusterViewTest {
+    private static final int KEYS = 20000;
+
+    private static List<Member> members(int count) {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add(new Member("node-" + i, "10.0.0." + i, 9400));
+        }
+        return members;
+    }
+
+    private static List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            keys.add("10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255));
+        }
+        return keys;
+    }
+
+    @Test
+    void everyNodeComputesTheSameOwnersWhateverTheMemberOrder() {
+        List<Member> members = members(5);
+        List<Member> shuffled = new ArrayList<>(members);
+        Collections.shuffle(shuffled, new Random(1));
+        ClusterView view = new ClusterView(1, members);
+        ClusterView other = new ClusterView(1, shuffled);
+        for (String key : keys()) {
+            assertEquals(view.ownerOf(key), other.ownerOf(key), key);
+        }
+        assertEquals(view.getMembers(), other.getMembers());
+    }
+
+    @Test
+    void partitionsAreSpreadEvenlyOverTheMembers() {
+        List<Member> members = members(4);
+        ClusterView view = new ClusterView(1, members);
+        int total = 0;
+        for (Member member : members) {
+            int owned = view.partitionsOwnedBy(member.getNodeId());
+            // A quarter of the partitions each, give or take a generous 30%
+            assertTrue(owned > ClusterView.PARTITIONS / 4 * 0.7 && owned < ClusterView.PARTITIONS / 4 * 1.3,
+                    member + " owns " + owned);
+            total += owned;
+        }
+        assertEquals(ClusterView.PARTITIONS, total);
+    }
+
+    @Test
+    void aJoiningNodeOnlyTakesKeysFromOthers() {
+        List<Member> members = members(4);
+        ClusterView before = new ClusterView(1, members.subList(0, 3));
+        ClusterView after = new ClusterView(2, members);
+        Member joined = members.get(3);
+        int moved = 0;
+        for (String key : keys()) {
+            Member owner = after.ownerOf(key);
+            if (!owner.equals(before.ownerOf(key))) {
+                assertEquals(joined, owner, key);
+                moved++;
+            }
+        }
+        assertEquals(after.partitionsOwnedBy(joined.getNodeId()) / (double) ClusterView.PARTITIONS, moved / (double) KEYS, 0.05);
+    }
+
+    @Test
+    void aLeavingNodeOnlyHandsOnItsOwnKeys() {
+        List<Member> members = members(4);
+        ClusterView before = new ClusterView(1, members);
+        ClusterView after = new ClusterView(2, members.subList(1, 4));
+        Member left = members.get(0);
+        for (String key : keys()) {
+            Member owner = before.ownerOf(key);
+            if (!owner.equals(left)) {
+                assertEquals(owner, after.ownerOf(key), key);
+            }
+            assertNotEquals(left, after.ownerOf(key));
+        }
+        assertEquals(0, after.partitionsOwnedBy(left.getNodeId()));
+    }
+
+    @Test
+    void aSingleNodeOwnsEverythingAndNoNodesOwnNothing() {
+        ClusterView single = new ClusterView(1, members(1));
+        assertEquals(ClusterView.PARTITIONS, single.partitionsOwnedBy("node-0"));
+        assertEquals(single.getMember("node-0"), single.ownerOf(null));
+        assertNull(new ClusterView(0, Collections.emptyList()).ownerOf("10.0.0.1"));
+    }
+}
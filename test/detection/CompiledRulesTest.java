@@ -0,0 +1,53 @@
+package detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Compiled rules read back for the rules they were written for, and only for those
+class CompiledRulesTest {
+    private static Properties rules(String pattern) {
+        Properties rules = new Properties();
+        rules.setProperty("rule1.logLevel", "ERROR");
+        rules.setProperty("rule1.messagePattern", pattern);
+        rules.setProperty("rule1.description", "Failed login");
+        return rules;
+    }
+
+    private static ByteBuffer compile(Properties rules) throws IOException {
+        RuleBasedDetector detector = new RuleBasedDetector(rules);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        detector.writeCompiledRules(output);
+        output.flush();
+        detector.close();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Test
+    void compiledRulesLoadForTheSameRules() throws IOException {
+        ByteBuffer compiled = compile(rules("login failed"));
+        RuleBasedDetector detector = new RuleBasedDetector(rules("login failed"), compiled);
+        Map<String, String> event = new HashMap<>();
+        event.put("logLevel", "ERROR");
+        event.put("message", "login failed for root");
+        assertFalse(detector.detectSuspiciousActivity(event).isEmpty());
+        detector.close();
+    }
+
+    @Test
+    void compiledRulesAreRefusedForEditedRulesWithTheSameNames() throws IOException {
+        ByteBuffer compiled = compile(rules("login failed"));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new RuleBasedDetector(rules("password (.+)+ rejected"), compiled));
+        assertTrue(e.getMessage().contains("different rules"), e.getMessage());
+    }
+}
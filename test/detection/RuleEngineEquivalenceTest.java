@@ -0,0 +1,80 @@
+package detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The literal index only decides which rules are tried, so it must alert exactly like the
+// rule-by-rule loop
+class RuleEngineEquivalenceTest {
+    private static final String[] PATTERNS = {
+            "login failed",
+            "error\\x41|timeout",
+            "denied \\p{Alpha}+|refused",
+            "(admin|root) login",
+            "disk\\u0020full",
+            "port \\d+ closed|reset by peer",
+            "a[|]b user",
+    };
+
+    private static final String[] MESSAGES = {
+            "login failed for root",
+            "connection timeout",
+            "errorA while reading",
+            "access denied Bob",
+            "connection refused",
+            "root login from 10.0.0.1",
+            "disk full on /var",
+            "port 22 closed",
+            "connection reset by peer",
+            "a|b user logged in",
+            "nothing to see here",
+    };
+
+    private static RuleBasedDetector detector(String engine) {
+        Properties rules = new Properties();
+        rules.setProperty("detector.engine", engine);
+        for (int i = 0; i < PATTERNS.length; i++) {
+            rules.setProperty("rule" + (i + 1) + ".logLevel", "ERROR");
+            rules.setProperty("rule" + (i + 1) + ".messagePattern", PATTERNS[i]);
+            rules.setProperty("rule" + (i + 1) + ".description", "R" + (i + 1));
+        }
+        return new RuleBasedDetector(rules);
+    }
+
+    @Test
+    void indexedAndLinearEnginesRaiseTheSameAlerts() {
+        RuleBasedDetector indexed = detector("indexed");
+        RuleBasedDetector linear = detector("linear");
+        try {
+            for (String message : MESSAGES) {
+                Map<String, String> event = new HashMap<>();
+                event.put("logLevel", "ERROR");
+                event.put("message", message);
+                List<String> expected = linear.detectSuspiciousActivity(new HashMap<>(event));
+                assertEquals(expected, indexed.detectSuspiciousActivity(new HashMap<>(event)), message);
+            }
+            Map<String, String> timeout = new HashMap<>();
+            timeout.put("logLevel", "ERROR");
+            timeout.put("message", "connection timeout");
+            assertFalse(indexed.detectSuspiciousActivity(timeout).isEmpty());
+        } finally {
+            indexed.close();
+            linear.close();
+        }
+    }
+
+    @Test
+    void escapesWithArgumentsDoNotHideALaterAlternative() {
+        for (String pattern : Arrays.asList("error\\x41|timeout", "a\\p{L}b|c", "x\\1|y", "q\\cMz|w")) {
+            assertEquals("", RuleIndex.requiredLiteral(pattern), pattern);
+        }
+        assertEquals("error", RuleIndex.requiredLiteral("error\\x41 timeout"));
+    }
+}
@@ -0,0 +1,75 @@
+package detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Distinct and heavy-hitter rules hold their sketch memory at the configured bound however many
+// groups and keys arrive
+class SketchRuleMemoryTest {
+    private static Properties rules() {
+        Properties rules = new Properties();
+        rules.setProperty("distinct1.logLevel", "ERROR");
+        rules.setProperty("distinct1.messagePattern", "failed");
+        rules.setProperty("distinct1.description", "Many users from one address");
+        rules.setProperty("distinct1.groupBy", "clientIp");
+        rules.setProperty("distinct1.field", "userId");
+        rules.setProperty("distinct1.threshold", "50");
+        rules.setProperty("distinct1.maxGroups", "1000");
+        rules.setProperty("heavyHitter2.logLevel", "ERROR");
+        rules.setProperty("heavyHitter2.messagePattern", "failed");
+        rules.setProperty("heavyHitter2.description", "Top talker");
+        rules.setProperty("heavyHitter2.groupBy", "clientIp");
+        rules.setProperty("heavyHitter2.threshold", "1000");
+        return rules;
+    }
+
+    private static void feed(RuleBasedDetector detector, int from, int to) {
+        Map<String, String> event = new HashMap<>();
+        event.put("logLevel", "ERROR");
+        event.put("message", "login failed");
+        for (int i = from; i < to; i++) {
+            event.put("clientIp", "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255));
+            event.put("userId", "user" + i);
+            detector.detectSuspiciousActivity(event);
+        }
+    }
+
+    @Test
+    void sketchMemoryStopsGrowingAtTheConfiguredBound() {
+        RuleBasedDetector detector = new RuleBasedDetector(rules());
+        try {
+            feed(detector, 0, 10000);
+            long bytes = detector.getSketchMemoryBytes();
+            // maxGroups HyperLogLogs of 2^10 bytes, plus the fixed heavy-hitter sketches
+            assertTrue(bytes <= 1000 * 1024 + 200000, "sketch memory " + bytes);
+            feed(detector, 10000, 100000);
+            assertEquals(bytes, detector.getSketchMemoryBytes());
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    void topTalkersAreReportedInFixedMemory() {
+        RuleBasedDetector detector = new RuleBasedDetector(rules());
+        try {
+            feed(detector, 0, 50000);
+            Map<String, String> event = new HashMap<>();
+            event.put("logLevel", "ERROR");
+            event.put("message", "login failed");
+            event.put("clientIp", "192.168.1.66");
+            for (int i = 0; i < 5000; i++) {
+                event.put("userId", "user" + i);
+                detector.detectSuspiciousActivity(event);
+            }
+            assertEquals("192.168.1.66", detector.getTopTalkers(2).get(0).getKey());
+        } finally {
+            detector.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package logcollection;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Multi-member and blocked gzip files written here, read back line by line
+class GzipLogReaderTest {
+    @TempDir
+    Path directory;
+
+    private GzipLogReader reader;
+
+    private GzipLogReader reader(String bufferKb) {
+        Properties properties = new Properties();
+        properties.setProperty("log.gzip.bufferKb", bufferKb);
+        properties.setProperty("log.gzip.parallelism", "2");
+        reader = new GzipLogReader(properties);
+        return reader;
+    }
+
+    @AfterEach
+    void shutdown() {
+        if (reader != null) {
+            reader.shutdown();
+        }
+    }
+
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add("2024-07-01T00:00:00 INFO [user" + i % 7 + "] request " + i + " served");
+        }
+        return lines;
+    }
+
+    private static byte[] text(List<String> lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> read(GzipLogReader reader, Path file) throws IOException, InterruptedException {
+        List<String> read = new ArrayList<>();
+        reader.read(file.toString(), (source, line) -> read.add(line));
+        return read;
+    }
+
+    private static byte[] gzip(byte[] data, int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+            output.write(data, from, to - from);
+        }
+        return bytes.toByteArray();
+    }
+
+    // One BGZF member as bgzip writes it; stored rather than compressed, so its size on disk
+    // follows the data and the members can be made to straddle block runs
+    private static byte[] bgzfMember(byte[] data, int from, int to) {
+        Deflater deflater = new Deflater(Deflater.NO_COMPRESSION, true);
+        deflater.setInput(data, from, to - from);
+        deflater.finish();
+        byte[] deflated = new byte[to - from + 64];
+        int deflatedLength = 0;
+        while (!deflater.finished()) {
+            deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, from, to - from);
+        int size = 18 + deflatedLength + 8;
+        ByteArrayOutputStream member = new ByteArrayOutputStream(size);
+        member.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+        writeLE(member, size - 1, 2);
+        member.write(deflated, 0, deflatedLength);
+        writeLE(member, crc.getValue(), 4);
+        writeLE(member, to - from, 4);
+        return member.toByteArray();
+    }
+
+    private static void writeLE(ByteArrayOutputStream output, long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            output.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    private Path bgzf(byte[] data, int memberBytes) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int from = 0; from < data.length; from += memberBytes) {
+            byte[] member = bgzfMember(data, from, Math.min(from + memberBytes, data.length));
+            file.write(member, 0, member.length);
+        }
+        byte[] end = bgzfMember(new byte[0], 0, 0);
+        file.write(end, 0, end.length);
+        Path path = directory.resolve("app.log.2.gz");
+        Files.write(path, file.toByteArray());
+        return path;
+    }
+
+    @Test
+    void readsEveryMemberOfAMultiMemberFile() throws IOException, InterruptedException {
+        List<String> lines = lines(200);
+        byte[] text = text(lines);
+        // The split falls inside a line, which must come out whole
+        int split = text.length / 2 + 5;
+        Path file = directory.resolve("app.log.1.gz");
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip(text, 0, split));
+        members.write(gzip(text, split, text.length));
+        Files.write(file, members.toByteArray());
+
+        assertEquals(lines, read(reader("1"), file));
+    }
+
+    @Test
+    void joinsLinesThatSpanBgzfBlockRuns() throws IOException, InterruptedException {
+        List<String> lines = lines(300);
+        // 600-byte members against 1 KB runs: each run holds one member, so a line that crosses
+        // a member boundary crosses a run boundary as well
+        Path file = bgzf(text(lines), 600);
+
+        assertEquals(lines, read(reader("1"), file));
+    }
+
+    @Test
+    void aBgzfMemberWithABadCrcFailsTheRead() throws IOException {
+        Path file = bgzf(text(lines(100)), 600);
+        byte[] bytes = Files.readAllBytes(file);
+        // The CRC of the first member sits 8 bytes before its end
+        int firstMemberEnd = ((bytes[16] & 0xFF) | (bytes[17] & 0xFF) << 8) + 1;
+        bytes[firstMemberEnd - 8] ^= 0x01;
+        Files.write(file, bytes);
+
+        GzipLogReader reader = reader("1");
+        assertThrows(IOException.class, () -> read(reader, file));
+    }
+}
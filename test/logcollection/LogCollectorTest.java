@@ -0,0 +1,53 @@
+package logcollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Batch collection through the collector scheduler, with and without a configuration
+class LogCollectorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void aCollectorWithoutConfigurationCollectsNothingAndCloses() {
+        // There is no logcollector.properties on the test classpath
+        LogCollector collector = new LogCollector();
+        assertEquals(Collections.emptyList(), collector.collectLogs());
+        collector.cancelCollection();
+        assertDoesNotThrow(collector::close);
+
+        LogCollector empty = new LogCollector(new Properties());
+        assertEquals(Collections.emptyList(), empty.collectLogs());
+        assertDoesNotThrow(empty::close);
+    }
+
+    @Test
+    void collectsEveryFileAgainOnTheNextCycle() throws IOException {
+        Files.write(directory.resolve("a.log"), "one\ntwo\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("b.log"), "three\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("notes.txt"), "skipped\n".getBytes(StandardCharsets.UTF_8));
+        Properties properties = new Properties();
+        properties.setProperty("log.directories", directory.toString());
+        LogCollector collector = new LogCollector(properties);
+        try {
+            List<String> expected = Arrays.asList("one", "three", "two");
+            for (int cycle = 0; cycle < 2; cycle++) {
+                List<String> lines = new ArrayList<>(collector.collectLogs());
+                Collections.sort(lines);
+                assertEquals(expected, lines);
+            }
+            collector.cancelCollection();
+            assertEquals(Collections.emptyList(), collector.collectLogs());
+        } finally {
+            collector.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package logcollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tailers that are stopped and started again over the same state file
+class LogTailerTest {
+    @TempDir
+    Path directory;
+
+    private Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty("log.follow.stateFile", directory.resolve("tail.state").toString());
+        properties.setProperty("log.follow.pollIntervalMs", "20");
+        properties.setProperty("log.follow.maxLineBytes", "8");
+        return properties;
+    }
+
+    // Follows the file until the expected number of lines has arrived, then stops
+    private List<String> follow(Path file, int expectedLines) throws InterruptedException {
+        Following following = new Following(file);
+        following.awaitLines(expectedLines);
+        return following.stop();
+    }
+
+    private class Following {
+        private final LogTailer tailer;
+        private final Thread thread;
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        Following(Path file) {
+            tailer = new LogTailer(Collections.singletonList(file.toString()), Collections.emptyList(), name -> true, properties());
+            thread = new Thread(() -> {
+                try {
+                    tailer.follow((source, line) -> lines.add(line));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+        }
+
+        void awaitLines(int expectedLines) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (lines.size() < expectedLines) {
+                assertTrue(System.currentTimeMillis() < deadline, "expected " + expectedLines + " lines, got " + lines);
+                Thread.sleep(10);
+            }
+        }
+
+        List<String> stop() throws InterruptedException {
+            // A few more passes, so anything read beyond the expected lines shows up too
+            Thread.sleep(100);
+            tailer.stop();
+            thread.join(5000);
+            return new ArrayList<>(lines);
+        }
+    }
+
+    @Test
+    void restartInsideACutLineSkipsTheRestOfIt() throws IOException, InterruptedException {
+        Path file = directory.resolve("app.log");
+        Files.write(file, "first\n0123456789ABCDEF".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("first", "01234567"), follow(file, 2));
+
+        Files.write(file, "GH\nnext\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Collections.singletonList("next"), follow(file, 1));
+    }
+
+    @Test
+    void restartResumesAfterTheLastCompleteLine() throws IOException, InterruptedException {
+        Path file = directory.resolve("app.log");
+        Files.write(file, "one\ntw".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList("one"), follow(file, 1));
+
+        Files.write(file, "o\nthree\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("two", "three"), follow(file, 2));
+    }
+
+    @Test
+    void truncationInsideACutLineKeepsTheNewFirstLine() throws IOException, InterruptedException {
+        Path file = directory.resolve("app.log");
+        Files.write(file, "first\n0123456789ABCDEF".getBytes(StandardCharsets.UTF_8));
+        Following following = new Following(file);
+        following.awaitLines(2);
+
+        Files.write(file, "new\nnext\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+        following.awaitLines(4);
+        assertEquals(Arrays.asList("first", "01234567", "new", "next"), following.stop());
+
+        // Nor does a restart think it is still inside the cut line
+        Files.write(file, "last\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Collections.singletonList("last"), follow(file, 1));
+    }
+}
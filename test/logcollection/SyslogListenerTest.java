@@ -0,0 +1,158 @@
+package logcollection;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Loopback senders against a listener bound to ephemeral ports
+class SyslogListenerTest {
+    private SyslogListener listener;
+    private Thread listenerThread;
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+    private void start(Properties properties) throws InterruptedException {
+        listener = new SyslogListener(properties);
+        int addresses = properties.getProperty("log.listen.tcp", "").split(",").length;
+        listenerThread = new Thread(() -> {
+            try {
+                listener.listen((source, line) -> received.computeIfAbsent(source, s -> Collections.synchronizedList(new ArrayList<>())).add(line));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        listenerThread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.getBoundAddresses().size() < addresses + (properties.containsKey("log.listen.udp") ? 1 : 0)) {
+            assertTrue(System.currentTimeMillis() < deadline, "listener did not bind");
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (listener != null) {
+            listener.stop();
+            listenerThread.join(5000);
+        }
+    }
+
+    private static Properties tcpAndUdp() {
+        Properties properties = new Properties();
+        properties.setProperty("log.listen.tcp", "127.0.0.1:0");
+        properties.setProperty("log.listen.udp", "127.0.0.1:0");
+        return properties;
+    }
+
+    private List<String> allReceived() {
+        List<String> lines = new ArrayList<>();
+        received.values().forEach(lines::addAll);
+        return lines;
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (allReceived().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void write(SocketChannel channel, String text) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Test
+    void splitsNewlineAndOctetCountedFramesAcrossWrites() throws Exception {
+        start(tcpAndUdp());
+        try (SocketChannel channel = SocketChannel.open(listener.getBoundAddresses().get(0))) {
+            write(channel, "first line\r\nsecond ");
+            write(channel, "line\n11 octet\ncount");
+            write(channel, "12 has a space\n");
+            write(channel, "last line without newline");
+        }
+        awaitReceived(5);
+        assertEquals(Arrays.asList("first line", "second line", "octet\ncount", "has a space\n", "last line without newline"),
+                allReceived());
+    }
+
+    @Test
+    void newlineFramingTreatsLeadingDigitsAsText() throws Exception {
+        Properties properties = tcpAndUdp();
+        properties.setProperty("log.listen.framing", "newline");
+        start(properties);
+        try (SocketChannel channel = SocketChannel.open(listener.getBoundAddresses().get(0))) {
+            write(channel, "5 apples\n");
+        }
+        awaitReceived(1);
+        assertEquals(Collections.singletonList("5 apples"), allReceived());
+    }
+
+    @Test
+    void dropsFramesLongerThanTheLimit() throws Exception {
+        Properties properties = tcpAndUdp();
+        properties.setProperty("log.listen.maxFrameLength", "256");
+        start(properties);
+        try (SocketChannel channel = SocketChannel.open(listener.getBoundAddresses().get(0))) {
+            write(channel, "x".repeat(1000) + "\nshort\n");
+        }
+        awaitReceived(1);
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList("short"), allReceived());
+    }
+
+    @Test
+    void splitsUdpDatagramsIntoLines() throws Exception {
+        start(tcpAndUdp());
+        SocketAddress udpAddress = listener.getBoundAddresses().get(1);
+        try (DatagramChannel datagram = DatagramChannel.open()) {
+            datagram.send(ByteBuffer.wrap("one\ntwo\r\nthree".getBytes(StandardCharsets.UTF_8)), udpAddress);
+        }
+        awaitReceived(3);
+        assertEquals(Arrays.asList("one", "two", "three"), allReceived());
+    }
+
+    // Load generator: many concurrent TCP senders, alternating framing, each sending in order
+    @Test
+    void receivesEveryMessageFromManyConcurrentSenders() throws Exception {
+        start(tcpAndUdp());
+        SocketAddress tcpAddress = listener.getBoundAddresses().get(0);
+        int senders = 500;
+        int linesPerSender = 40;
+        List<SocketChannel> channels = new ArrayList<>();
+        try {
+            for (int i = 0; i < senders; i++) {
+                channels.add(SocketChannel.open(tcpAddress));
+            }
+            for (int line = 0; line < linesPerSender; line++) {
+                for (int i = 0; i < senders; i++) {
+                    String message = "2024-07-18T10:00:00 ERROR Failed login for user" + i + " seq " + line;
+                    write(channels.get(i), i % 2 == 0 ? message + "\n" : message.length() + " " + message);
+                }
+            }
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+        awaitReceived(senders * linesPerSender);
+        assertEquals(senders * linesPerSender, allReceived().size());
+        assertEquals(senders, received.size());
+        for (List<String> lines : received.values()) {
+            String user = lines.get(0).substring(lines.get(0).indexOf("user"), lines.get(0).indexOf(" seq"));
+            for (int line = 0; line < linesPerSender; line++) {
+                assertEquals("2024-07-18T10:00:00 ERROR Failed login for " + user + " seq " + line, lines.get(line));
+            }
+        }
+    }
+}
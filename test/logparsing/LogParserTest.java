@@ -0,0 +1,45 @@
+package logparsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The garbage-free record parser against the map parser on the built-in formats
+class LogParserTest {
+    private final LogParser parser = new LogParser(new Properties());
+
+    private void assertBothParse(String line) {
+        Map<String, String> parsedLog = parser.parseLog("test", line);
+        assertNotNull(parsedLog, line);
+        LogRecord record = new LogRecord();
+        assertTrue(parser.parseLog(line, record), line);
+        assertEquals(parsedLog, record.toMap(), line);
+    }
+
+    private void assertNeitherParses(String line) {
+        assertNull(parser.parseLog("test", line), line);
+        assertFalse(parser.parseLog(line, new LogRecord()), line);
+    }
+
+    @Test
+    void bothParsersReadEpochSecondsAndMilliseconds() {
+        assertBothParse("1720000000 ERROR [alice] Failed login");
+        assertBothParse("1720000000123 WARN disk almost full");
+        assertEquals("1720000000000", parser.parseLog("1720000000 ERROR [alice] Failed login").get("epochMillis"));
+    }
+
+    @Test
+    void bothParsersReadIsoTimestamps() {
+        assertBothParse("2024-07-03T10:15:30 ERROR [alice] Failed login");
+        assertBothParse("2024-07-03T10:15:30 INFO service started");
+    }
+
+    @Test
+    void neitherParserTakesOtherNumbersForATime() {
+        assertNeitherParses("12345 ERROR [alice] Failed login");
+        assertNeitherParses("0720000000 ERROR Failed login");
+    }
+}
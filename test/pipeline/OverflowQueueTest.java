@@ -0,0 +1,115 @@
+package pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A one-slot spilling queue whose drainer is interrupted while it waits for room
+class OverflowQueueTest {
+    private static final String END = "<end>";
+    private static final OverflowQueue.SpillCodec<String> CODEC = new OverflowQueue.SpillCodec<String>() {
+        @Override
+        public void write(DataOutput output, String item) throws IOException {
+            OverflowQueue.writeString(output, item);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+            return OverflowQueue.readString(input);
+        }
+    };
+
+    @TempDir
+    Path spillDirectory;
+
+    private OverflowQueue<String> spillingQueue(String name) throws InterruptedException {
+        OverflowQueue<String> queue = new OverflowQueue<>(name, 1, OverflowQueue.Policy.SPILL, CODEC, spillDirectory, 1 << 20);
+        queue.put("a");
+        queue.put("b");
+        queue.put("c");
+        assertEquals(2, queue.spilledCount());
+        return queue;
+    }
+
+    private static Thread drainer(String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("pipeline-spill-" + name) && waitingForRoom(thread)) {
+                    return thread;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return fail("drainer did not start waiting");
+    }
+
+    // Blocked putting into the full queue, rather than still on its way there
+    private static boolean waitingForRoom(Thread thread) {
+        if (thread.getState() != Thread.State.WAITING) {
+            return false;
+        }
+        for (StackTraceElement frame : thread.getStackTrace()) {
+            if (frame.getClassName().equals(ArrayBlockingQueue.class.getName()) && frame.getMethodName().equals("put")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String takeWithin(OverflowQueue<String> queue) throws InterruptedException {
+        String[] taken = new String[1];
+        Thread taker = new Thread(() -> {
+            try {
+                taken[0] = queue.take();
+            } catch (InterruptedException e) {
+                // Left null; the assertion below fails
+            }
+        });
+        taker.start();
+        taker.join(TimeUnit.SECONDS.toMillis(5));
+        taker.interrupt();
+        return taken[0];
+    }
+
+    @Test
+    void closeAfterInterruptedDrainerQueuesTheSentinel() throws InterruptedException {
+        OverflowQueue<String> queue = spillingQueue("interrupted-then-closed");
+        Thread drainer = drainer("interrupted-then-closed");
+        drainer.interrupt();
+        drainer.join(5000);
+        assertFalse(drainer.isAlive());
+        assertEquals(0, queue.spilledCount());
+
+        assertEquals("a", queue.take());
+        queue.close(END);
+        assertEquals(END, takeWithin(queue));
+    }
+
+    @Test
+    void interruptedDrainerQueuesASentinelRecordedBeforehand() throws InterruptedException {
+        OverflowQueue<String> queue = spillingQueue("closed-then-interrupted");
+        Thread drainer = drainer("closed-then-interrupted");
+        queue.close(END);
+        drainer.interrupt();
+
+        // Taking "a" may free room before the drainer notices the interrupt, in which case "b"
+        // still gets through; either way the stream has to end
+        assertEquals("a", takeWithin(queue));
+        String next = takeWithin(queue);
+        if ("b".equals(next)) {
+            next = takeWithin(queue);
+        }
+        assertEquals(END, next);
+        drainer.join(5000);
+        assertFalse(drainer.isAlive());
+    }
+}
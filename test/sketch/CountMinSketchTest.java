@@ -0,0 +1,80 @@
+package sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Estimates against exact counts on a Zipf stream, held to the epsilon * N bound
+class CountMinSketchTest {
+    // Keys drawn with probability proportional to 1 / rank
+    static List<String> zipfStream(int events, int keys, Random random) {
+        double[] cumulative = new double[keys];
+        double total = 0;
+        for (int i = 0; i < keys; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        List<String> stream = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            stream.add("key" + (index < 0 ? -index - 1 : index));
+        }
+        return stream;
+    }
+
+    @Test
+    void estimatesNeverUnderestimateAndRarelyExceedTheBound() {
+        int events = 200000;
+        List<String> stream = zipfStream(events, 20000, new Random(42));
+        for (double epsilon : new double[]{0.01, 0.001}) {
+            CountMinSketch sketch = new CountMinSketch(epsilon, 0.99);
+            Map<String, Long> exact = new HashMap<>();
+            for (String key : stream) {
+                sketch.add(key);
+                exact.merge(key, 1L, Long::sum);
+            }
+            assertEquals(events, sketch.getTotalCount());
+            long bound = (long) (epsilon * events);
+            int overBound = 0;
+            for (Map.Entry<String, Long> entry : exact.entrySet()) {
+                long over = sketch.estimate(entry.getKey()) - entry.getValue();
+                assertTrue(over >= 0, entry.getKey() + " underestimated by " + -over);
+                if (over > bound) {
+                    overBound++;
+                }
+            }
+            // The bound holds for each key with probability 0.99
+            assertTrue(overBound <= 0.01 * exact.size(), "epsilon " + epsilon + ": " + overBound + " keys over the bound");
+        }
+    }
+
+    @Test
+    void addReturnsTheNewEstimate() {
+        CountMinSketch sketch = new CountMinSketch(0.01, 0.99);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, sketch.add("10.0.0.1"));
+        }
+        assertEquals(5, sketch.estimate("10.0.0.1"));
+        assertEquals(0, sketch.estimate("10.0.0.2"));
+    }
+
+    @Test
+    void memoryIsFixedByEpsilonAndConfidence() {
+        CountMinSketch sketch = new CountMinSketch(0.001, 0.99);
+        int bytes = sketch.memoryBytes();
+        // ceil(e / 0.001) counters in each of ceil(ln 100) rows
+        assertEquals(2719 * 5 * Long.BYTES, bytes);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("key" + i);
+        }
+        assertEquals(bytes, sketch.memoryBytes());
+    }
+
+    @Test
+    void parametersOutsideZeroAndOneAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 0.99));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0.01, 1));
+    }
+}
@@ -0,0 +1,65 @@
+package sketch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Estimates against exact cardinalities, held to the documented standard error
+class HyperLogLogTest {
+    private static final int TRIALS = 10;
+
+    private static double relativeError(int precision, int cardinality, int trial) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (int i = 0; i < cardinality; i++) {
+            sketch.add("value-" + trial + "-" + i);
+        }
+        return Math.abs(sketch.estimate() - cardinality) / (double) cardinality;
+    }
+
+    @Test
+    void errorStaysWithinTheStandardError() {
+        for (int precision : new int[]{10, 12}) {
+            double standardError = 1.04 / Math.sqrt(1 << precision);
+            for (int cardinality : new int[]{1000, 100000}) {
+                double sumError = 0;
+                for (int trial = 0; trial < TRIALS; trial++) {
+                    double error = relativeError(precision, cardinality, trial);
+                    // Four standard errors is a one in 15,000 event per stream
+                    assertTrue(error < 4 * standardError, "precision " + precision + ", cardinality " + cardinality + ": " + error);
+                    sumError += error;
+                }
+                // The mean absolute error of a normal estimate is 0.8 standard errors
+                assertTrue(sumError / TRIALS < 1.5 * standardError,
+                        "precision " + precision + ", cardinality " + cardinality + ": mean " + sumError / TRIALS);
+            }
+        }
+    }
+
+    @Test
+    void smallCardinalitiesAreNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog(10);
+        for (int i = 0; i < 20; i++) {
+            sketch.add("user" + i);
+            sketch.add("user" + i);
+        }
+        assertEquals(20, sketch.estimate(), 1);
+    }
+
+    @Test
+    void memoryIsFixedByThePrecision() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(4096, sketch.memoryBytes());
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("value" + i);
+        }
+        assertEquals(4096, sketch.memoryBytes());
+        sketch.clear();
+        assertEquals(0, sketch.estimate());
+    }
+
+    @Test
+    void precisionOutsideTheSupportedRangeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(19));
+    }
+}
@@ -0,0 +1,50 @@
+package sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Top talkers against exact counts on a Zipf stream
+class SpaceSavingTest {
+    @Test
+    void findsTheTrueTopKeysWithBoundedCounts() {
+        List<String> stream = CountMinSketchTest.zipfStream(200000, 20000, new Random(7));
+        Map<String, Long> exact = new HashMap<>();
+        for (String key : stream) {
+            exact.merge(key, 1L, Long::sum);
+        }
+        Set<String> trueTop = new HashSet<>();
+        exact.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(10)
+                .forEach(entry -> trueTop.add(entry.getKey()));
+
+        SpaceSaving sketch = new SpaceSaving(100);
+        for (String key : stream) {
+            sketch.add(key);
+        }
+        List<SpaceSaving.Entry> top = sketch.top(10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            SpaceSaving.Entry entry = top.get(i);
+            assertTrue(trueTop.contains(entry.getKey()), entry + " is not in the true top 10");
+            // The count overestimates by at most the recorded error
+            long count = exact.get(entry.getKey());
+            assertTrue(entry.getCount() >= count && entry.getCount() - entry.getError() <= count, entry + " vs " + count);
+            if (i > 0) {
+                assertTrue(top.get(i - 1).getCount() >= entry.getCount());
+            }
+        }
+    }
+
+    @Test
+    void memoryIsFixedByTheCapacity() {
+        SpaceSaving sketch = new SpaceSaving(100);
+        int bytes = sketch.memoryBytes();
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("key" + i);
+        }
+        assertEquals(bytes, sketch.memoryBytes());
+        assertEquals(100, sketch.top(1000).size());
+    }
+}